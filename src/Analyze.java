@@ -0,0 +1,127 @@
+/*
+  scans the table <tablename>.tbl, serialized or paged, once and writes
+  its statistics to <tablename>.stat: the number of tuples, the number of
+  distinct values of each attribute, and the most common values, an
+  equi-depth histogram and the range of each attribute (see
+  qp.utils.ColumnStats). the memory used does not grow with the table:
+  the distinct values are estimated with a HyperLogLog sketch and the
+  distributions are built from a reservoir sample of the tuples
+*/
+
+import qp.operators.OpType;
+import qp.operators.PageScan;
+import qp.operators.Scan;
+import qp.utils.Batch;
+import qp.utils.Catalog;
+import qp.utils.ColumnStats;
+import qp.utils.HyperLogLog;
+import qp.utils.PageFormat;
+import qp.utils.Schema;
+import qp.utils.Tuple;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+public class Analyze {
+
+    static final int SAMPLE = 30000;   // Tuples sampled unless told otherwise
+    static final long SEED = 42;       // Seed of the sample unless -Dqp.seed gives one
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 4) {
+            System.out.println("usage: java Analyze <tablename> [buckets] [mcvs] [sample] \n writes <tablename>.stat from <tablename>.tbl");
+            System.exit(1);
+        }
+        String tblname = args[0];
+        int buckets = args.length > 1 ? Integer.parseInt(args[1]) : ColumnStats.BUCKETS;
+        int mcvs = args.length > 2 ? Integer.parseInt(args[2]) : ColumnStats.MCVS;
+        int samplesize = args.length > 3 ? Integer.parseInt(args[3]) : SAMPLE;
+
+        Schema schema = Catalog.getCatalog().getSchema(tblname);
+        int numCol = schema.getNumCols();
+
+        /** the pages are only read, any page size holding a tuple will do **/
+        Batch.setPageSize(Math.max(4096, schema.getTupleSize()));
+        Scan scan;
+        if (PageFormat.isPageFile(tblname + ".tbl")) {
+            scan = new PageScan(tblname, OpType.SCAN);
+        } else {
+            scan = new Scan(tblname, OpType.SCAN);
+        }
+        scan.setSchema(schema);
+        if (!scan.open()) {
+            System.exit(1);
+        }
+
+        HyperLogLog[] sketches = new HyperLogLog[numCol];
+        Object[] min = new Object[numCol];
+        Object[] max = new Object[numCol];
+        for (int j = 0; j < numCol; ++j) {
+            sketches[j] = new HyperLogLog();
+        }
+
+        /** reservoir sample: the k-th tuple replaces a sampled one with probability samplesize / k **/
+        ArrayList<Tuple> sample = new ArrayList<>();
+        Random random = new Random(Long.getLong("qp.seed", SEED));
+        long numtuple = 0;
+        Batch batch;
+        while ((batch = scan.next()) != null) {
+            for (int i = 0; i < batch.size(); ++i) {
+                Tuple tuple = batch.get(i);
+                for (int j = 0; j < numCol; ++j) {
+                    Object value = tuple.dataAt(j);
+                    sketches[j].add(value);
+                    if (min[j] == null || ColumnStats.compare(value, min[j]) < 0) {
+                        min[j] = value;
+                    }
+                    if (max[j] == null || ColumnStats.compare(value, max[j]) > 0) {
+                        max[j] = value;
+                    }
+                }
+                numtuple++;
+                if (sample.size() < samplesize) {
+                    sample.add(tuple);
+                } else {
+                    long k = (long) (random.nextDouble() * numtuple);
+                    if (k < samplesize) {
+                        sample.set((int) k, tuple);
+                    }
+                }
+            }
+        }
+
+        PrintWriter outstat = new PrintWriter(new BufferedWriter(new FileWriter(tblname + ".stat")));
+        outstat.println(numtuple);
+        long[] distinct = new long[numCol];
+        for (int j = 0; j < numCol; ++j) {
+            /** few distinct values are counted exactly by the sample, never more than the tuples **/
+            distinct[j] = Math.min(numtuple, Math.max(sketches[j].estimate(), countDistinct(sample, j)));
+            outstat.print(distinct[j] + "\t");
+        }
+        outstat.println();
+        for (int j = 0; j < numCol; ++j) {
+            ArrayList<Object> values = new ArrayList<>(sample.size());
+            for (Tuple tuple : sample) {
+                values.add(tuple.dataAt(j));
+            }
+            ColumnStats columnstats = ColumnStats.build(schema.typeOf(j), values, numtuple, distinct[j], mcvs, buckets);
+            if (min[j] != null) {
+                columnstats.setRange(min[j], max[j]);
+            }
+            columnstats.write(outstat, j);
+        }
+        outstat.close();
+        System.out.println(tblname + ": " + numtuple + " tuples analyzed, " + sample.size() + " sampled");
+    }
+
+    private static long countDistinct(ArrayList<Tuple> sample, int j) {
+        HashSet<Object> values = new HashSet<>();
+        for (Tuple tuple : sample) {
+            values.add(tuple.dataAt(j));
+        }
+        return values.size();
+    }
+
+}
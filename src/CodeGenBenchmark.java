@@ -0,0 +1,147 @@
+/**
+ * Compares the generated and the interpreted filter, projection and sort comparator
+ **/
+
+import qp.utils.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Runs each path on the same in memory tuples, after a warm up so that
+ * * both are compiled by the JIT, and prints the time per tuple
+ */
+public class CodeGenBenchmark {
+
+    static final int NUMTUPLES = 1 << 16;  // Tuples per page set
+    static final int PAGESIZE = 64;        // Tuples per page
+    static final int ROUNDS = 20;          // Measured rounds per path
+
+    static volatile long sink;             // Keeps the results alive
+
+    public static void main(String[] args) {
+        ArrayList<Attribute> attrs = new ArrayList<>();
+        attrs.add(new Attribute("T", "a", Attribute.INT));
+        attrs.add(new Attribute("T", "b", Attribute.INT));
+        attrs.add(new Attribute("T", "c", Attribute.REAL));
+        attrs.add(new Attribute("T", "d", Attribute.STRING));
+        Schema schema = new Schema(attrs);
+        TupleLayout layout = TupleLayout.of(schema);
+
+        Random random = new Random(42);
+        ArrayList<Batch> pages = new ArrayList<>();
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < NUMTUPLES; i += PAGESIZE) {
+            Batch page = new Batch(PAGESIZE);
+            for (int j = 0; j < PAGESIZE; ++j) {
+                PrimitiveTuple t = new PrimitiveTuple(layout);
+                t.setInt(0, random.nextInt(1000));
+                t.setInt(1, random.nextInt(1000));
+                t.setFloat(2, random.nextFloat() * 100);
+                t.setString(3, Integer.toString(random.nextInt(100000), 36));
+                page.add(t);
+                tuples.add(t);
+            }
+            pages.add(page);
+        }
+
+        /** a > 100 AND b <= 800 AND c < 90.0 AND d != "zz" **/
+        Condition[] conditions = {
+                new Condition(attrs.get(0), Condition.GREATERTHAN, "100"),
+                new Condition(attrs.get(1), Condition.LTOE, "800"),
+                new Condition(attrs.get(2), Condition.LESSTHAN, "90.0"),
+                new Condition(attrs.get(3), Condition.NOTEQUAL, "zz")};
+        Predicate[] predicates = new Predicate[conditions.length];
+        for (int i = 0; i < conditions.length; ++i) {
+            predicates[i] = Predicate.compile(conditions[i], schema);
+        }
+        CodeGen.Filter filter = CodeGen.filter(predicates);
+
+        int[] attrIndex = {3, 0, 2};
+        ArrayList<Attribute> projected = new ArrayList<>();
+        for (int index : attrIndex) {
+            projected.add(attrs.get(index));
+        }
+        TupleLayout outLayout = TupleLayout.of(schema.subSchema(projected));
+        CodeGen.Projector projector = CodeGen.projector(outLayout, attrIndex);
+
+        ArrayList<Integer> sortKeys = new ArrayList<>();
+        sortKeys.add(1);
+        sortKeys.add(3);
+        Comparator<Tuple> interpreted = new TupleComparator(schema, sortKeys);
+        Comparator<Tuple> generated = CodeGen.comparator(schema, sortKeys);
+
+        int[] sel = new int[PAGESIZE];
+        runFilter(pages, predicates, null, sel);
+        long expected = sink;
+        runFilter(pages, null, filter, sel);
+        if (sink != expected) {
+            System.out.println("CodeGenBenchmark: generated filter selected " + sink + " tuples instead of " + expected);
+            System.exit(1);
+        }
+
+        for (int warmup = 0; warmup < 3; ++warmup) {
+            boolean print = warmup == 2;
+            report(print, "filter      interpreted", () -> runFilter(pages, predicates, null, sel));
+            report(print, "filter      generated  ", () -> runFilter(pages, null, filter, sel));
+            report(print, "project     interpreted", () -> runProject(tuples, outLayout, attrIndex, null));
+            report(print, "project     generated  ", () -> runProject(tuples, outLayout, attrIndex, projector));
+            report(print, "sort        interpreted", () -> runSort(tuples, interpreted));
+            report(print, "sort        generated  ", () -> runSort(tuples, generated));
+        }
+    }
+
+    static void report(boolean print, String name, Runnable body) {
+        long start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; ++r) {
+            body.run();
+        }
+        double perTuple = (double) (System.nanoTime() - start) / ROUNDS / NUMTUPLES;
+        if (print) {
+            System.out.printf("%s %8.2f ns/tuple%n", name, perTuple);
+        }
+    }
+
+    static void runFilter(ArrayList<Batch> pages, Predicate[] predicates, CodeGen.Filter filter, int[] sel) {
+        long count = 0;
+        for (Batch page : pages) {
+            int n = page.size();
+            for (int i = 0; i < n; ++i) {
+                sel[i] = i;
+            }
+            if (filter != null) {
+                n = filter.filter(page, sel, n);
+            } else {
+                for (int p = 0; p < predicates.length && n > 0; ++p) {
+                    n = predicates[p].filter(page, sel, n);
+                }
+            }
+            count += n;
+        }
+        sink = count;
+    }
+
+    static void runProject(ArrayList<Tuple> tuples, TupleLayout outLayout, int[] attrIndex, CodeGen.Projector projector) {
+        long count = 0;
+        for (Tuple t : tuples) {
+            PrimitiveTuple out = new PrimitiveTuple(outLayout);
+            if (projector != null) {
+                projector.project(t, out);
+            } else {
+                for (int j = 0; j < attrIndex.length; ++j) {
+                    out.copyFrom(t, attrIndex[j], j);
+                }
+            }
+            count += out.getInt(1);
+        }
+        sink = count;
+    }
+
+    static void runSort(ArrayList<Tuple> tuples, Comparator<Tuple> comparator) {
+        ArrayList<Tuple> copy = new ArrayList<>(tuples);
+        Collections.sort(copy, comparator);
+        sink = copy.get(0).getInt(1);
+    }
+}
@@ -3,9 +3,12 @@
   attributes of the relation. each subsequent line represents 1
   tuple of the relation. also assume that the fields of each line
   is delimited by tabs ("\t")
+  if a page size is given, the table is written in the paged binary
+  format (see qp.utils.PageFormat) instead of serialized tuples
 */
 
 import qp.utils.Attribute;
+import qp.utils.PageWriter;
 import qp.utils.Schema;
 import qp.utils.Tuple;
 
@@ -17,17 +20,17 @@ public class ConvertTxtToTbl {
 
     public static void main(String[] args) throws IOException {
         // check the arguments
-        if (args.length != 1) {
-            System.out.println("usage: java ConvertTxtToTbl <tablename> \n creats <tablename>.tbl files");
+        if (args.length != 1 && args.length != 2) {
+            System.out.println("usage: java ConvertTxtToTbl <tablename> [pagesize] \n creats <tablename>.tbl files");
             System.exit(1);
         }
         String tblname = args[0];
         String mdfile = tblname + ".md";
         String tblfile = tblname + ".tbl";
+        boolean paged = args.length == 2;
 
-        /** open the input and output streams **/
+        /** open the input stream **/
         BufferedReader in = new BufferedReader(new FileReader(tblname + ".txt"));
-        ObjectOutputStream outtbl = new ObjectOutputStream(new FileOutputStream(tblfile));
 
         /** First Line is METADATA **/
         int linenum = 0;
@@ -41,6 +44,18 @@ public class ConvertTxtToTbl {
             System.exit(1);
         }
 
+        /** open the output as serialized tuples or as binary pages **/
+        ObjectOutputStream outtbl = null;
+        PageWriter outpages = null;
+        if (paged) {
+            outpages = new PageWriter(tblfile, schema, Integer.parseInt(args[1]));
+            if (!outpages.open()) {
+                System.exit(1);
+            }
+        } else {
+            outtbl = new ObjectOutputStream(new FileOutputStream(tblfile));
+        }
+
         boolean flag = false;
         StringTokenizer tokenizer;
         while ((line = in.readLine()) != null) {
@@ -66,9 +81,27 @@ public class ConvertTxtToTbl {
                 attrIndex++;
             }
             Tuple tuple = new Tuple(data);
-            outtbl.writeObject(tuple);
+            if (paged) {
+                try {
+                    outpages.next(tuple);
+                } catch (IllegalArgumentException e) {
+                    System.out.println("line " + linenum + ": string longer than its attribute size --- " + line);
+                    outpages.close();
+                    new File(tblfile).delete();
+                    System.exit(1);
+                }
+            } else {
+                outtbl.writeObject(tuple);
+                if (linenum % 1000 == 0) {
+                    outtbl.reset();     // else the reader of the file keeps every tuple read reachable
+                }
+            }
+        }
+        if (paged) {
+            outpages.close();
+        } else {
+            outtbl.close();
         }
-        outtbl.close();
         in.close();
     }
 
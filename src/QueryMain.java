@@ -3,8 +3,13 @@
  **/
 
 import qp.operators.Debug;
+import qp.operators.Exchange;
+import qp.operators.ExternalSort;
 import qp.operators.Operator;
+import qp.operators.PageScan;
+import qp.operators.ParallelScan;
 import qp.optimizer.BufferManager;
+import qp.optimizer.DPOptimizer;
 import qp.optimizer.PlanCost;
 import qp.optimizer.RandomOptimizer;
 import qp.parser.Scaner;
@@ -12,11 +17,13 @@ import qp.parser.parser;
 import qp.utils.*;
 
 import java.io.*;
+import java.util.Map;
 
 public class QueryMain {
 
     static PrintWriter out;
     static int numAtts;
+    static boolean vectorized = false;  // Whether the result is pulled through nextVector
 
     public static void main(String[] args) {
         if (args.length < 2) {
@@ -26,6 +33,7 @@ public class QueryMain {
 
         BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
         Batch.setPageSize(getPageSize(args, in));
+        configureExecution();
 
         SQLQuery sqlquery = getSQLQuery(args[0]);
         boolean hasGroupBy = !sqlquery.getGroupByList().isEmpty();
@@ -54,6 +62,49 @@ public class QueryMain {
         return pagesize;
     }
 
+    /**
+     * Execution options are given as system properties,
+     * * e.g. java -Dqp.mmap=true QueryMain ... memory maps paged tables
+     * * and -Dqp.vectorized=true runs the plan on columnar batches
+     * * and -Dqp.codegen=true generates bytecode for filters, projections and sort keys
+     * * and -Dqp.parallelism=<n> sorts initial runs on n threads and runs
+     * * the inputs of joins on threads of their own, scanning paged tables by
+     * * morsels, and -Dqp.ordered=true keeps morsel scans in table order
+     * * and -Dqp.asyncio=true reads and writes temporary files in the background
+     * * and -Dqp.codec=deflate[:level] compresses temporary files
+     * * and -Dqp.spilldir=<dir> puts temporary files under dir, and
+     * * -Dqp.spillquota=<bytes> limits the bytes a query keeps on disk
+     * * and -Dqp.replacement=lru|clock|lruk[:k] picks the replacement policy
+     * * of the buffer pool, which -Dqp.poolframes=<n> makes larger than the
+     * * buffers of the query, and -Dqp.dpjoins=<n> leaves queries with more
+     * * than n joins to the randomized optimizer instead of dynamic programming
+     **/
+    private static void configureExecution() {
+        PageScan.setMemoryMapped(Boolean.getBoolean("qp.mmap"));
+        vectorized = Boolean.getBoolean("qp.vectorized");
+        CodeGen.setEnabled(Boolean.getBoolean("qp.codegen"));
+        ExternalSort.setParallelism(Integer.getInteger("qp.parallelism", 1));
+        Exchange.setParallelism(Integer.getInteger("qp.parallelism", 1));
+        ParallelScan.setOrdered(Boolean.getBoolean("qp.ordered"));
+        AsyncIO.setEnabled(Boolean.getBoolean("qp.asyncio"));
+        Codec codec = Codec.forName(System.getProperty("qp.codec", "none"));
+        if (codec == null) {
+            System.out.println("unknown codec " + System.getProperty("qp.codec"));
+            System.exit(1);
+        }
+        SpillStreams.setCodec(codec);
+        SpillManager.setDirectory(System.getProperty("qp.spilldir", SpillManager.getDirectory()));
+        SpillManager.setQuota(Long.getLong("qp.spillquota", 0));
+        ReplacementPolicy policy = ReplacementPolicy.forName(System.getProperty("qp.replacement", "lru"));
+        if (policy == null) {
+            System.out.println("unknown replacement policy " + System.getProperty("qp.replacement"));
+            System.exit(1);
+        }
+        BufferPool.getPool().setPolicy(policy);
+        BufferManager.setPoolFrames(Integer.getInteger("qp.poolframes", 0));
+        DPOptimizer.setMaxJoins(Integer.getInteger("qp.dpjoins", DPOptimizer.getMaxJoins()));
+    }
+
     /**
      * Parse query from query file
      **/
@@ -111,20 +162,39 @@ public class QueryMain {
     }
 
     /**
-     * Run optimiser and get the final query plan as an Operator
+     * Run optimiser and get the final query plan as an Operator. Queries of
+     * * few joins are optimized by dynamic programming, others and those whose
+     * * tables are not all connected by joins by the randomized optimizer.
      **/
     public static Operator getQueryPlan(SQLQuery sqlquery) {
         Operator root = null;
 
-        RandomOptimizer optimizer = new RandomOptimizer(sqlquery);
-        Operator planroot = optimizer.getOptimizedPlan();
+        Operator planroot = null;
+        if (sqlquery.getNumJoin() <= DPOptimizer.getMaxJoins()) {
+            DPOptimizer optimizer = new DPOptimizer(sqlquery);
+            planroot = optimizer.getOptimizedPlan();
+        }
+        if (planroot == null) {
+            RandomOptimizer optimizer = new RandomOptimizer(sqlquery);
+            planroot = optimizer.getOptimizedPlan();
+        }
 
         if (planroot == null) {
-            System.out.println("DPOptimizer: query plan is null");
+            System.out.println("QueryMain: query plan is null");
+            System.exit(1);
+        }
+        if (new PlanCost().getCost(planroot) == Long.MAX_VALUE) {
+            /** Exchanges open the joins and sorts at the same time, which the buffers may not allow **/
+            if (Exchange.getParallelism() > 1) {
+                System.out.println("QueryMain: the buffers do not suffice to run the plan in parallel, running it on one thread");
+                Exchange.setParallelism(1);
+                return getQueryPlan(sqlquery);
+            }
+            System.out.println("QueryMain: the buffers do not suffice for any plan of the query");
             System.exit(1);
         }
 
-        root = RandomOptimizer.makeExecPlan(planroot);
+        root = RandomOptimizer.scanInParallel(RandomOptimizer.makeExecPlan(planroot));
 
         return root;
     }
@@ -157,6 +227,10 @@ public class QueryMain {
      **/
     public static double executeQuery(Operator root, String resultfile) {
         long starttime = System.currentTimeMillis();
+        PageScan.resetPageCounts();
+        SpillStreams.resetByteCounts();
+        SpillManager spills = SpillManager.begin(resultfile);
+        BufferPool.getPool().resetCounts();
         if (root.open() == false) {
             System.out.println("Root: Error in opening of root");
             System.exit(1);
@@ -174,10 +248,19 @@ public class QueryMain {
         printSchema(schema);
 
         /** Print each tuple in the result **/
-        Batch resultbatch;
-        while ((resultbatch = root.next()) != null) {
-            for (int i = 0; i < resultbatch.size(); ++i) {
-                printTuple(resultbatch.get(i));
+        if (vectorized) {
+            ColumnBatch resultvector;
+            while ((resultvector = root.nextVector()) != null) {
+                for (int i = 0; i < resultvector.numSelected(); ++i) {
+                    printTuple(resultvector.getTuple(resultvector.selectedRow(i)));
+                }
+            }
+        } else {
+            Batch resultbatch;
+            while ((resultbatch = root.next()) != null) {
+                for (int i = 0; i < resultbatch.size(); ++i) {
+                    printTuple(resultbatch.get(i));
+                }
             }
         }
         root.close();
@@ -186,6 +269,31 @@ public class QueryMain {
         long endtime = System.currentTimeMillis();
         double executiontime = (endtime - starttime) / 1000.0;
         System.out.println("Execution time = " + executiontime);
+        if (PageScan.isMemoryMapped()) {
+            System.out.println("Pages mapped = " + PageScan.getPagesMapped() + ", pages touched = " + PageScan.getPagesTouched());
+        }
+        if (SpillStreams.getLogicalBytes() > 0) {
+            System.out.println("Spilled bytes = " + SpillStreams.getLogicalBytes() + ", bytes written = "
+                    + SpillStreams.getWrittenBytes() + " (" + SpillStreams.getCodec().getName() + ")");
+        }
+        if (spills.getBytesWritten() > 0) {
+            System.out.println("Spill files: peak bytes on disk = " + spills.getPeakBytes());
+            for (Map.Entry<String, Long> owner : spills.getBytesByOperator().entrySet()) {
+                System.out.println("  " + owner.getKey() + " wrote " + owner.getValue() + " bytes");
+            }
+        }
+        spills.close();
+        BufferPool pool = BufferPool.getPool();
+        if (pool.getHits() + pool.getMisses() > 0 || pool.getShortfall() > 0) {
+            System.out.println("Buffer pool (" + pool.getPolicy().getName() + ", " + pool.getCapacity() + " frames): hits = "
+                    + pool.getHits() + ", misses = " + pool.getMisses() + ", evictions = " + pool.getEvictions()
+                    + ", buffers not granted = " + pool.getShortfall());
+        }
+        MemoryBroker broker = MemoryBroker.getBroker();
+        if (broker.getPeak() > 0) {
+            System.out.println("Memory broker (" + broker.getBudget() + " buffers): peak held = " + broker.getPeak()
+                    + ", granted beyond plan = " + broker.getExtra());
+        }
         return executiontime;
     }
 
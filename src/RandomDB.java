@@ -1,4 +1,5 @@
 import qp.utils.Attribute;
+import qp.utils.ColumnStats;
 import qp.utils.Schema;
 
 import java.io.*;
@@ -114,14 +115,22 @@ public class RandomDB {
             outmd.writeObject(schema);
             outmd.close();
 
+            /** values of each column, for the distributions in the statistics **/
+            ArrayList<ArrayList<Object>> values = new ArrayList<>();
+            for (int j = 0; j < numCol; ++j) {
+                values.add(new ArrayList<>());
+            }
+
             for (i = 0; i < numtuple; ++i) {
                 for (int j = 0; j < numCol; ++j) {
                     if (datatype[j].equals("STRING")) {
                         String temp = rdb.randString(range[j]);
                         outtbl.print(temp + "\t");
+                        values.get(j).add(temp);
                     } else if (datatype[j].equals("FLOAT")) {
                         float value = range[j] * random.nextFloat();
                         outtbl.print(value + "\t");
+                        values.get(j).add(value);
                     } else if (datatype[j].equals("INTEGER")) {
                         if (keytype[j].equals("PK")) {
                             int numb = random.nextInt(range[0]);
@@ -130,9 +139,11 @@ public class RandomDB {
                             }
                             pk[numb] = true;
                             outtbl.print(numb + "\t");
+                            values.get(j).add(numb);
                         } else {
                             int value = random.nextInt(range[j]);
                             outtbl.print(value + "\t");
+                            values.get(j).add(value);
                             if (keytype[j].equals("FK")) {
                                 fk.get(j).add(value);
                             }
@@ -167,6 +178,14 @@ public class RandomDB {
                     }
                 }
             }
+            outstat.println();
+
+            /** followed by the most common values and histogram of each column **/
+            for (i = 0; i < numCol; ++i) {
+                ColumnStats columnstats = ColumnStats.build(attrlist.get(i).getType(), values.get(i),
+                        ColumnStats.MCVS, ColumnStats.BUCKETS);
+                columnstats.write(outstat, i);
+            }
             outstat.close();
             in.close();
         } catch (IOException io) {
@@ -7,19 +7,24 @@ package qp.operators;
 import qp.utils.Attribute;
 import qp.utils.Batch;
 import qp.utils.Condition;
+import qp.utils.SpillManager;
+import qp.utils.SpillStreams;
 import qp.utils.Tuple;
+import qp.utils.TupleComparator;
 
 import java.io.*;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class BlockNestedLoopJoin extends Join {
 
-    static int filenum = 0;         // To get unique filenum for this operation
+    static AtomicInteger filenum = new AtomicInteger();  // To get unique filenum for this operation
     int batchsize;                  // Number of tuples per out batch
     ArrayList<Integer> leftindex;   // Indices of the join attributes in left table
     ArrayList<Integer> rightindex;  // Indices of the join attributes in right table
+    TupleComparator comparator;     // Compares the join attributes of left and right tuples
     String rfname;                  // The file name where the right table is materialized
     Batch outbatch;                 // Buffer page for output
     List<Batch> leftblock
@@ -29,6 +34,7 @@ public class BlockNestedLoopJoin extends Join {
                                     // process when comparing each left batch tuple with each right batch tuple
     Batch rightbatch;               // Buffer page for right input stream
     ObjectInputStream in;           // File pointer to the right hand materialized file
+    boolean rescan;                 // Whether the right base table is rescanned instead of materialized
 
     int lcurs;                      // Cursor for left side buffer
     int rcurs;                      // Cursor for right side buffer
@@ -51,7 +57,7 @@ public class BlockNestedLoopJoin extends Join {
         /** select number of tuples per batch **/
         int tuplesize = schema.getTupleSize();
         /** batchsize = number of records in a page **/
-        batchsize = Batch.getPageSize() / tuplesize;
+        batchsize = Math.max(1, Batch.getPageSize() / tuplesize);
         /** initialize new Linked List for left input pages with every open()**/
         leftblock = new LinkedList<Batch>();
 
@@ -64,6 +70,7 @@ public class BlockNestedLoopJoin extends Join {
             leftindex.add(left.getSchema().indexOf(leftattr));
             rightindex.add(right.getSchema().indexOf(rightattr));
         }
+        comparator = new TupleComparator(left.getSchema(), leftindex, rightindex);
         Batch rightpage; // Buffer page for right input stream
 
         /** initialize the cursors of input buffers **/
@@ -81,17 +88,24 @@ public class BlockNestedLoopJoin extends Join {
         /** Right hand side table is to be materialized
          ** for the Block Nested Loop Join to perform
          **/
+        rescan = right instanceof PageScan;
         if (!right.open()) {
             return false;
+        } else if (rescan) {
+            /** A paged base table is served from its mapping or from the
+             ** buffer pool. Every pass reads its pages as it would read those
+             ** of a materialized copy, so scanning it again saves writing the
+             ** copy, which PlanCost charges to joins that cannot rescan
+             **/
+            right.close();
         } else {
             /** If the right operator is not a base table then
              ** Materialize the intermediate result from right
              ** into a file
              **/
-            filenum++;
-            rfname = "BNJtemp-" + String.valueOf(filenum);
+            rfname = SpillManager.allocate("BNJtemp-" + filenum.incrementAndGet());
             try {
-                ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(rfname));
+                ObjectOutputStream out = SpillStreams.openOutput(rfname);
                 while ((rightpage = right.next()) != null) {
                     out.writeObject(rightpage);
                 }
@@ -103,6 +117,12 @@ public class BlockNestedLoopJoin extends Join {
             if (!right.close())
                 return false;
         }
+        /** The right input is done with its buffers, the left block takes
+         ** all but two of the buffers granted
+         **/
+        if (!reserveBuffers(numBuff, 3)) {
+            return false;
+        }
         if (left.open())
             return true;
         else
@@ -148,12 +168,20 @@ public class BlockNestedLoopJoin extends Join {
                 /** Whenever a new leftblock of left input pages comes,
                  ** we have to start scanning the right table from the top
                  **/
-                try {
-                    in = new ObjectInputStream(new FileInputStream(rfname));
+                if (rescan) {
+                    if (!right.open()) {
+                        System.err.println("BlockNestedLoopJoin: error in rescanning the right table");
+                        System.exit(1);
+                    }
                     eosr = false;
-                } catch (IOException io) {
-                    System.err.println("BlockNestedLoopJoin: error in reading the file");
-                    System.exit(1);
+                } else {
+                    try {
+                        in = SpillStreams.openInput(rfname);
+                        eosr = false;
+                    } catch (IOException io) {
+                        System.err.println("BlockNestedLoopJoin: error in reading the file");
+                        System.exit(1);
+                    }
                 }
 
             }
@@ -163,7 +191,7 @@ public class BlockNestedLoopJoin extends Join {
             while (!eosr) {
                 try {
                     if (rcurs == 0 && lcurs == 0) {
-                        rightbatch = (Batch) in.readObject();
+                        rightbatch = nextRightBatch();
                     }
                     /** In each iteration, each tuple of the leftblock is compared with all
                      ** tuples from the rightbatch. Total no. of iterations = |left| / (numBuff - 2)
@@ -173,22 +201,22 @@ public class BlockNestedLoopJoin extends Join {
                             Tuple lefttuple = leftTuples.get(i);
                             Tuple righttuple = rightbatch.get(j);
                             // compare lefttuple and righttuple to see if join conditions are satisfied
-                            if (lefttuple.checkJoin(righttuple, leftindex, rightindex)) {
+                            if (comparator.equal(lefttuple, righttuple)) {
                                 Tuple outtuple = lefttuple.joinWith(righttuple);
                                 outbatch.add(outtuple);
                                 if (outbatch.isFull()) {
                                     //case 1 both leftbatch and rightbatch fully scanned
-                                    if (i == leftblock.size() - 1 && j == rightbatch.size() - 1) {
+                                    if (i == leftTuples.size() - 1 && j == rightbatch.size() - 1) {
                                         lcurs = 0;
                                         rcurs = 0;
                                     }
                                     //case 2: rightbatch fully scanned
-                                    else if (i != leftblock.size() - 1 && j == rightbatch.size() - 1) {
+                                    else if (i != leftTuples.size() - 1 && j == rightbatch.size() - 1) {
                                         lcurs = i + 1;
                                         rcurs = 0;
                                     }
                                     //case 3: next tuple in rightbatch
-                                    else if (i == leftblock.size() - 1 && j != rightbatch.size() - 1) {
+                                    else if (i == leftTuples.size() - 1 && j != rightbatch.size() - 1) {
                                         lcurs = i;
                                         rcurs = j + 1;
                                     }
@@ -208,7 +236,11 @@ public class BlockNestedLoopJoin extends Join {
                     lcurs = 0;
                 } catch (EOFException e) {
                     try {
-                        in.close();
+                        if (rescan) {
+                            right.close();
+                        } else {
+                            in.close();
+                        }
                     } catch (IOException io) {
                         System.out.println("BlockNestedLoopJoin: Error in reading temporary file");
                     }
@@ -226,10 +258,10 @@ public class BlockNestedLoopJoin extends Join {
     }
 
     /**
-     * load (numBuff - 2) batches into leftblock from left table
+     * load (buffers - 2) batches into leftblock from left table
      **/
     private void load_left_block() {
-        for (int i = 0; i < (numBuff - 2); i++) {
+        for (int i = 0; i < (buffers - 2); i++) {
             Batch batch = left.next(); // get next batch of data
             if (batch != null) {
                 leftblock.add(batch);
@@ -250,12 +282,30 @@ public class BlockNestedLoopJoin extends Join {
         }
     }
 
+    /**
+     * Reads the next page of the right input, either from the materialized
+     * * file or from the rescanned base table. Throws EOFException at the end
+     **/
+    private Batch nextRightBatch() throws IOException, ClassNotFoundException {
+        if (rescan) {
+            Batch batch = right.next();
+            if (batch == null) {
+                throw new EOFException();
+            }
+            return batch;
+        }
+        return (Batch) in.readObject();
+    }
+
     /**
      * Close the operator
      */
     public boolean close() {
-        File f = new File(rfname);
-        f.delete();
+        releaseBuffers();
+        if (rescan) {
+            return right.close();
+        }
+        SpillManager.delete(rfname);
         return true;
     }
 
@@ -0,0 +1,35 @@
+/**
+ * Broadcast exchange: sends every page of one producer to all outputs
+ **/
+
+package qp.operators;
+
+import qp.utils.Batch;
+import qp.utils.Schema;
+
+/**
+ * Runs the base subtree on a thread of its own and passes each of its
+ * * pages to every output, e.g. to give the small input of a join to all
+ * * the workers joining a partition of the large input. The outputs share
+ * * the pages, which are not modified by the consumers.
+ */
+public class Broadcast extends Repartition {
+
+    public Broadcast(Operator base, int numOutputs) {
+        super(base, null, numOutputs);
+    }
+
+    protected void route(Batch batch, Batch[] pending) {
+        for (Output output : outputs) {
+            put(output.queue, batch, output);
+        }
+    }
+
+    public Object clone() {
+        Operator newbase = (Operator) base.clone();
+        Broadcast newcast = new Broadcast(newbase, outputs.length);
+        newcast.setSchema((Schema) newbase.getSchema().clone());
+        return newcast;
+    }
+
+}
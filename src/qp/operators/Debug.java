@@ -6,6 +6,8 @@ package qp.operators;
 
 import qp.utils.*;
 
+import java.util.ArrayList;
+
 public class Debug {
 
     /**
@@ -92,6 +94,12 @@ public class Debug {
                 case JoinType.SORTMERGE:
                     System.out.print("SortMerge(");
                     break;
+                case JoinType.HASHJOIN:
+                    System.out.print("HashJoin(");
+                    break;
+                case JoinType.GRACEHASH:
+                    System.out.print("GraceHash(");
+                    break;
             }
             PPrint(((Join) node).getLeft());
             System.out.print("  [");
@@ -109,7 +117,11 @@ public class Debug {
             System.out.print("Select(");
             PPrint(((Select) node).getBase());
             System.out.print("  '");
-            PPrint(((Select) node).getCondition());
+            ArrayList<Condition> conditions = ((Select) node).getConditionList();
+            for (int i = 0; i < conditions.size(); ++i) {
+                if (i > 0) System.out.print(" & ");
+                PPrint(conditions.get(i));
+            }
             System.out.print(")");
 
         } else if (optype == OpType.PROJECT) {
@@ -124,6 +136,26 @@ public class Debug {
             System.out.print("GroupBy(");
             PPrint(((GroupBy) node).getBase());
             System.out.print(")");
+
+        } else if (node instanceof ParallelScan) {
+            System.out.print("ParallelScan(");
+            PPrint(((ParallelScan) node).getBase());
+            System.out.print(")");
+
+        } else if (node instanceof Gather) {
+            System.out.print("Gather(");
+            ArrayList<Operator> producers = ((Gather) node).getProducers();
+            for (int i = 0; i < producers.size(); ++i) {
+                if (i > 0) System.out.print(", ");
+                PPrint(producers.get(i));
+            }
+            System.out.print(")");
+
+        } else if (node instanceof Repartition.Output) {
+            Repartition exchange = ((Repartition.Output) node).getExchange();
+            System.out.print(exchange instanceof Broadcast ? "Broadcast(" : "Repartition(");
+            PPrint(exchange.getBase());
+            System.out.print(")[" + ((Repartition.Output) node).getIndex() + "]");
         }
     }
 
@@ -2,6 +2,7 @@ package qp.operators;
 
 import qp.utils.Batch;
 import qp.utils.Tuple;
+import qp.utils.TupleComparator;
 
 public class Distinct extends Operator {
     Operator base;
@@ -12,24 +13,25 @@ public class Distinct extends Operator {
 
     Tuple uniqueTuple;
     ExternalSort sortedOperator;
-    ExternalSort.TupleSortComparator comparator;
+    TupleComparator comparator;
 
     boolean eos;                   // Whether end of stream is reached
 
     public Distinct(Operator base) {
         super(OpType.DISTINCT);
         this.base = base;
-        this.batchsize = Batch.getPageSize() / base.getSchema().getTupleSize();
+        this.batchsize = Math.max(1, Batch.getPageSize() / base.getSchema().getTupleSize());
     }
 
     public Operator getBase() {
         return base;
     }
 
-    public void setOperation(Operator base, int numBuff) {
+    public void setOperation(Operator base, int numBuff, int prefBuff) {
         this.base = base;
         sortedOperator = new ExternalSort(base, numBuff, OpType.DISTINCT);
-        comparator = new ExternalSort.TupleSortComparator(sortedOperator.getAttributeList());
+        sortedOperator.setPreferredBuffers(prefBuff);
+        comparator = new TupleComparator(base.getSchema(), sortedOperator.getAttributeList());
     }
 
     public void setBase(Operator base) {
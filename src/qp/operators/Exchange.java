@@ -0,0 +1,121 @@
+/**
+ * Base of the exchange operators, which move pages between threads
+ **/
+
+package qp.operators;
+
+import qp.utils.Batch;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exchange - runs the subtree below it on threads of its own. Producer
+ * * threads pull pages from their subtree and pass them to the consumers
+ * * through bounded queues, so a producer runs at most queueSize pages
+ * * ahead of its consumer. Gather merges the pages of several producers
+ * * into one stream, Repartition and Broadcast split one producer into
+ * * several outputs. The pages passed on are not modified by the consumers.
+ */
+public abstract class Exchange extends Operator {
+
+    static int parallelism = 1;  // Number of threads the optimizer may give to a plan
+    static int queueSize = 4;    // Pages buffered between a producer and a consumer
+
+    /** Put in a queue after the last page of a producer **/
+    static final Batch EOS = new Batch(0);
+
+    /** Put in a queue when a producer could not open its subtree **/
+    static final Batch FAILED = new Batch(0);
+
+    public Exchange() {
+        super(OpType.EXCHANGE);
+    }
+
+    public static void setParallelism(int threads) {
+        parallelism = Math.max(1, threads);
+    }
+
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    public static void setQueueSize(int pages) {
+        queueSize = Math.max(1, pages);
+    }
+
+    public static int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Starts a producer thread. The threads are daemons, an abandoned
+     * * producer never keeps the JVM alive.
+     **/
+    static Thread start(String name, Runnable producer) {
+        Thread thread = new Thread(producer, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Blocks until the page is in the queue, unless the consumer
+     * * stops reading. Returns false if the page was dropped.
+     **/
+    static <T> boolean put(BlockingQueue<T> queue, T item, Stoppable consumer) {
+        try {
+            while (!consumer.isStopped()) {
+                if (queue.offer(item, 10, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Takes the next page from the queue, exits if a producer failed
+     **/
+    static Batch take(BlockingQueue<Batch> queue) {
+        Batch batch;
+        try {
+            batch = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return EOS;
+        }
+        if (batch == FAILED) {
+            System.out.println("Exchange: error in opening the producer");
+            System.exit(1);
+        }
+        return batch;
+    }
+
+    /**
+     * Waits for the producer threads to finish
+     **/
+    static void join(Thread[] threads) {
+        if (threads == null) {
+            return;
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * A consumer that may stop reading before the end of the stream
+     **/
+    interface Stoppable {
+        boolean isStopped();
+    }
+
+}
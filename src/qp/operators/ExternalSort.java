@@ -2,23 +2,56 @@ package qp.operators;
 
 import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.CodeGen;
+import qp.utils.IndexedPageReader;
+import qp.utils.MemoryBroker;
+import qp.utils.SpillManager;
+import qp.utils.SpillStreams;
 import qp.utils.Tuple;
+import qp.utils.TupleComparator;
+import qp.utils.TupleWriter;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.lang.Math.min;
 
 public class ExternalSort extends Operator{
+    private static AtomicInteger sortnum = new AtomicInteger(); // number of sorts opened so far, keeps the temp files of nested sorts apart.
+    private static int parallelism = 1; // number of threads sorting runs.
+    private static ForkJoinPool sortPool; // threads sorting and writing runs, only when parallelism > 1.
+    // threads reading the next pages of the runs being merged, they never keep the JVM alive.
+    private static final ExecutorService prefetcher = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "ExternalSort-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
     private Operator base;
-    public int bufferNum;
-    private int filenum;
+    public int bufferNum; // buffers of the sort, those granted by the memory broker while open.
+    private int plannedBuffers; // buffers given by the plan.
+    private int preferredBuffers; // buffers the sort could put to use, 0 if not known.
+    private boolean lent; // whether the buffers are lent by the owner of the sort instead of acquired.
+    private int reserved; // buffers held from the memory broker.
+    private String prefix; // prefix of the temp files of this sort.
     private int batchSize; // num of tuples in a single batch.
     private Comparator<Tuple> comparator;
     private List<File> sortedRunsFile;
-    private ObjectInputStream resultStream;
+    private PageSource resultPages; // pages of the sorted file being read.
+    private int resultIndex; // index of the sorted file read by resultPages.
+    private Map<String, List<Tuple>> pageBoundaries; // first tuple of every page of each run, by file name.
+    private Map<String, long[]> pageOffsets; // where every page of each run starts, by file name, if parallel.
     private ArrayList<Integer> attrIndex;
     private String identifier;
+    private Batch inputBatch; // page of the base operator being read during run generation.
+    private int inputCursor;
+    private boolean inputDone;
 
 
     public ExternalSort(Operator base, int bufferNum, int opType) {
@@ -26,6 +59,7 @@ public class ExternalSort extends Operator{
 //        System.out.print("External sort schema");
         this.base = base;
         this.bufferNum = bufferNum;
+        this.plannedBuffers = bufferNum;
         this.identifier = "";
     }
 
@@ -35,10 +69,24 @@ public class ExternalSort extends Operator{
 //        Debug.PPrint(base.getSchema());
         this.base = base;
         this.bufferNum = buffernum;
+        this.plannedBuffers = buffernum;
         this.attrIndex = attrIndex;
         this.identifier = identifier;
     }
 
+    // Sets the number of threads sorting initial runs, 1 generates runs by replacement selection on the calling thread.
+    public static void setParallelism(int threads) {
+        parallelism = Math.max(1, threads);
+        if (sortPool != null) {
+            sortPool.shutdown();
+        }
+        sortPool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    public static int getParallelism() {
+        return parallelism;
+    }
+
     public Operator getBase() {
         return base;
     }
@@ -47,6 +95,17 @@ public class ExternalSort extends Operator{
         this.base = base;
     }
 
+    // Lets the broker grant the sort more than planned, up to the given buffers, when it has buffers to spare.
+    public void setPreferredBuffers(int buffers) {
+        this.preferredBuffers = buffers;
+    }
+
+    // The sort runs with buffers already granted to its owner, which it neither acquires nor returns.
+    public void lendBuffers(int buffers) {
+        this.plannedBuffers = buffers;
+        this.lent = true;
+    }
+
     @Override
     // open() for pre-processing.
     public boolean open() {
@@ -54,22 +113,57 @@ public class ExternalSort extends Operator{
             System.out.println("(External Sort) Failed to open External sort");
             return false;
         }
+        // the operators below are open and hold their buffers, the sort takes what the broker has left for it.
+        releaseBuffers();
+        if (lent) {
+            this.bufferNum = Math.max(3, this.plannedBuffers);
+        } else {
+            this.reserved = MemoryBroker.getBroker().acquire(3, this.plannedBuffers, this.preferredBuffers);
+            this.bufferNum = this.reserved;
+            if (this.reserved == 0) {
+                System.out.println("(External Sort) Fewer than 3 buffers are free");
+                return false;
+            }
+        }
 
-        this.filenum = 0;
+        this.prefix = "ExternalSort" + sortnum.getAndIncrement() + identifier;
         this.sortedRunsFile = new ArrayList<>();
-        this.comparator = new TupleSortComparator(getAttributeList());
-        this.batchSize = Batch.getPageSize() / this.base.getSchema().getTupleSize();
+        this.pageBoundaries = new ConcurrentHashMap<>();
+        this.pageOffsets = new ConcurrentHashMap<>();
+        this.inputBatch = null;
+        this.inputCursor = 0;
+        this.inputDone = false;
+        if (CodeGen.isEnabled()) {
+            this.comparator = CodeGen.comparator(base.getSchema(), getAttributeList());
+        } else {
+            this.comparator = new TupleComparator(base.getSchema(), getAttributeList());
+        }
+        this.batchSize = Math.max(1, Batch.getPageSize() / this.base.getSchema().getTupleSize());
 
-        generateSortedRuns();
+        if (parallelism > 1) {
+            generateSortedRunsInParallel();
+        } else {
+            generateSortedRuns();
+        }
         mergeRuns();
+        // the sorted output is read one page at a time, the other buffers go back to the broker.
+        if (this.reserved > 1) {
+            MemoryBroker.getBroker().release(this.reserved - 1);
+            this.reserved = 1;
+        }
 
-        // At the end, after the merging process, we should only have 1 run left.
-        if (sortedRunsFile.size() != 1) {
+        // At the end, after the merging process, we should only have 1 run left, or one run for each key range
+        // when the last merge ran in parallel.
+        if (sortedRunsFile.isEmpty()) {
             return false;
         }
+        this.resultIndex = 0;
+        return openResult();
+    }
 
+    private boolean openResult() {
         try {
-            resultStream = new ObjectInputStream(new FileInputStream(sortedRunsFile.get(0)));
+            resultPages = openPages(sortedRunsFile.get(resultIndex), 0);
         } catch (IOException e) {
             System.out.println("IO Error when writing sorted file onto stream");
             return false;
@@ -92,115 +186,297 @@ public class ExternalSort extends Operator{
 
     @Override
     public Batch next() {
-        return nextBatchFromStream(resultStream);
+        Batch batch = resultPages.nextPage();
+        // the sorted files of the key ranges are read one after the other.
+        while (batch == null && resultIndex + 1 < sortedRunsFile.size()) {
+            resultPages.close();
+            resultIndex++;
+            if (!openResult()) {
+                return null;
+            }
+            batch = resultPages.nextPage();
+        }
+        return batch;
     }
 
     @Override
     public boolean close() {
-        try {
+        releaseBuffers();
+        if (sortedRunsFile != null) {
             for (File file : sortedRunsFile) {
-                file.delete();
+                SpillManager.delete(file.getPath());
             }
-            resultStream.close();
-        } catch (IOException e) {
-            System.out.println("Error in closing result file stream.");
+        }
+        if (resultPages != null) {
+            resultPages.close();
+            resultPages = null;
         }
         return true;
     }
 
-    private File writeFile(List<Batch> batchesToWrite) {
-        try {
-            File tempBatchFile = new File("ExternalSort" + "-" + this.filenum  + identifier);
+    private void releaseBuffers() {
+        MemoryBroker.getBroker().release(this.reserved);
+        this.reserved = 0;
+    }
 
-            ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(tempBatchFile));
-            for (Batch batch : batchesToWrite) {
-                out.writeObject(batch);
+    // Replacement selection: a heap holding bufferNum - 1 pages of tuples (the last page buffers the output)
+    // repeatedly writes out the smallest tuple that can still extend the current run and takes in the next
+    // input tuple in its place. An input tuple smaller than the last one written has to wait for the next run.
+    // Runs are 2 * (bufferNum - 1) pages long on average for random input, sorted input gives a single run.
+    private void generateSortedRuns() {
+        int heapCapacity = Math.max(1, this.bufferNum - 1) * this.batchSize;
+        PriorityQueue<RunEntry> heap = new PriorityQueue<>(heapCapacity, (a, b) -> {
+            if (a.run != b.run) {
+                return Integer.compare(a.run, b.run);
             }
-            this.filenum++;
-            // initialize files for temp batches
-            out.close();
-            return tempBatchFile;
-        } catch(IOException e) {
-            System.out.println("Error in writing external sort batches to files");
+            return this.comparator.compare(a.tuple, b.tuple);
+        });
+
+        // fill the heap, all of these tuples belong to the first run.
+        Tuple tuple;
+        while (heap.size() < heapCapacity && (tuple = nextInputTuple()) != null) {
+            heap.add(new RunEntry(0, tuple));
         }
-        return null;
-    }
 
-    private void generateSortedRuns() {
-        // current batch
-        Batch currentBatch = this.base.next();
-        while (currentBatch != null) {
-            // Initialize the buffer according to the amount of buffer we have.
-            ArrayList<Batch> run = new ArrayList<>();
-            for (int i = 0; i < this.bufferNum; i++) {
-                if (currentBatch == null) {
-                    break;
-                } else {
-                    run.add(currentBatch);
-                    currentBatch = this.base.next();
-                }
+        int currentRun = -1;
+        TupleWriter run = null;
+        while (!heap.isEmpty()) {
+            RunEntry smallest = heap.poll();
+            if (smallest.run != currentRun) {
+                // all tuples of the current run are written, start the next run.
+                closeRun(run);
+                run = openRun();
+                currentRun = smallest.run;
             }
+            write(run, smallest.tuple);
 
-            List<Tuple> tuples = new ArrayList<>();
-            for (Batch batch : run) {
-                // for each batch, append tuples to a list of tuples.
-                for (int j = 0; j < batch.size(); j++) {
-                    tuples.add(batch.get(j));
+            tuple = nextInputTuple();
+            if (tuple != null) {
+                if (this.comparator.compare(tuple, smallest.tuple) < 0) {
+                    smallest.run++;
                 }
+                smallest.tuple = tuple;
+                heap.add(smallest);
             }
-            Collections.sort(tuples, this.comparator);
+        }
 
-            // after sorting, append back to the batches.
-            List<Batch> batchesFromBuffer = new ArrayList<>();
-            Batch newCurrentBatch = new Batch(this.batchSize);
-            for (Tuple tuple : tuples) {
-                newCurrentBatch.add(tuple);
-                if (newCurrentBatch.isFull()) {
-                    batchesFromBuffer.add(newCurrentBatch);
-                    newCurrentBatch = new Batch(this.batchSize);
+        // an empty input is sorted into a single empty run.
+        if (run == null) {
+            run = openRun();
+        }
+        closeRun(run);
+    }
+
+    // Parallel run generation: the calling thread fills a load of bufferNum - 1 pages from the base operator,
+    // the sort pool sorts a slice of the load on each thread, and the sorted slices are merged into one run
+    // through the last page. The threads share the buffers of the sort, so the runs are as long as a single
+    // thread sorting whole loads would make them, bufferNum - 1 pages.
+    private void generateSortedRunsInParallel() {
+        int loadPages = Math.max(1, this.bufferNum - 1);
+        boolean eos = false;
+        while (!eos) {
+            ArrayList<Tuple> load = new ArrayList<>(loadPages * this.batchSize);
+            for (int page = 0; page < loadPages; page++) {
+                Batch batch = this.base.next();
+                if (batch == null) {
+                    eos = true;
+                    break;
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    load.add(batch.get(i));
                 }
             }
+            // an empty input is sorted into a single empty run.
+            if (load.isEmpty() && !this.sortedRunsFile.isEmpty()) {
+                break;
+            }
+            TupleWriter run = openRun();
+            writeSorted(run, load.toArray(new Tuple[0]));
+            closeRun(run);
+        }
+    }
 
-            // last page may not always be full.
-            if (!newCurrentBatch.isEmpty()) {
-                batchesFromBuffer.add(newCurrentBatch);
+    // sorts the slices of the tuples in parallel and writes them to the run in order.
+    private void writeSorted(TupleWriter run, Tuple[] tuples) {
+        int slices = Math.max(1, min(parallelism, tuples.length / Math.max(1, this.batchSize)));
+        int[] cursor = new int[slices];
+        int[] end = new int[slices];
+        List<Future<?>> sorts = new ArrayList<>();
+        for (int slice = 0; slice < slices; slice++) {
+            int from = (int) ((long) slice * tuples.length / slices);
+            int to = (int) ((long) (slice + 1) * tuples.length / slices);
+            cursor[slice] = from;
+            end[slice] = to;
+            sorts.add(sortPool.submit(() -> Arrays.sort(tuples, from, to, this.comparator)));
+        }
+        for (Future<?> sort : sorts) {
+            try {
+                sort.get();
+            } catch (InterruptedException | ExecutionException e) {
+                System.out.println("Error in writing external sort batches to files");
+                System.exit(1);
             }
+        }
 
-            // write sorted runs (NewCurrentBatch) to temp file.
-            if (batchesFromBuffer.size() < 1) {
-//                System.out.println("NOT writing files");
-                return;
-            } else {
-                File tempBatchFile = writeFile(batchesFromBuffer);
-                this.sortedRunsFile.add(tempBatchFile);
+        PriorityQueue<Integer> heads = new PriorityQueue<>(slices,
+                (a, b) -> this.comparator.compare(tuples[cursor[a]], tuples[cursor[b]]));
+        for (int slice = 0; slice < slices; slice++) {
+            if (cursor[slice] < end[slice]) {
+                heads.add(slice);
+            }
+        }
+        while (!heads.isEmpty()) {
+            int slice = heads.poll();
+            write(run, tuples[cursor[slice]++]);
+            if (cursor[slice] < end[slice]) {
+                heads.add(slice);
             }
         }
     }
 
+    private TupleWriter openRun() {
+        TupleWriter run = new TupleWriter(SpillManager.allocate(prefix), this.batchSize, parallelism > 1);
+        if (!run.open()) {
+            System.out.println("Error in writing external sort batches to files");
+            System.exit(1);
+        }
+        return run;
+    }
+
+    // writes the tuple to the run, remembering the first tuple of each page as a sample of the run's keys.
+    private void write(TupleWriter run, Tuple tuple) {
+        if (run.getNumTuple() % this.batchSize == 0) {
+            this.pageBoundaries.computeIfAbsent(run.getFileName(), name -> new ArrayList<>()).add(tuple);
+        }
+        run.next(tuple);
+    }
+
+    private void closeRun(TupleWriter run) {
+        if (run != null) {
+            run.close();
+            recordPages(run);
+            this.sortedRunsFile.add(new File(run.getFileName()));
+        }
+    }
+
+    // remembers where the pages of a closed run start if it was indexed, so that the merge of a key range
+    // can start reading the run at the range.
+    private void recordPages(TupleWriter run) {
+        long[] offsets = run.getPageOffsets();
+        if (offsets != null) {
+            this.pageOffsets.put(run.getFileName(), offsets);
+        }
+    }
+
+    // the next tuple of the base operator, reading its pages one at a time.
+    private Tuple nextInputTuple() {
+        while (this.inputBatch == null || this.inputCursor >= this.inputBatch.size()) {
+            if (this.inputDone) {
+                return null;
+            }
+            this.inputBatch = this.base.next();
+            this.inputCursor = 0;
+            if (this.inputBatch == null) {
+                this.inputDone = true;
+                return null;
+            }
+        }
+        return this.inputBatch.get(this.inputCursor++);
+    }
+
+    // a tuple in the replacement selection heap, tagged with the run it will be written to.
+    private static class RunEntry {
+        int run;
+        Tuple tuple;
+
+        RunEntry(int run, Tuple tuple) {
+            this.run = run;
+            this.tuple = tuple;
+        }
+    }
+
     private void mergeRuns() {
         int AvailableBuffers = this.bufferNum - 1;
-        int numOfMergeRuns = 0;
 
         while (this.sortedRunsFile.size() > 1) {
+            // every worker of a parallel merge needs a page of each run and an output page.
+            int workers = min(parallelism, this.bufferNum / (this.sortedRunsFile.size() + 1));
+            if (workers > 1 && this.sortedRunsFile.size() <= AvailableBuffers) {
+                mergeRunsInParallel(workers);
+                return;
+            }
             List<File> sortedRunsThisRound = new ArrayList<>();
             for (int numOfMerges = 0; numOfMerges * AvailableBuffers < this.sortedRunsFile.size(); numOfMerges++) {
                 int end = min((numOfMerges + 1) * AvailableBuffers, sortedRunsFile.size());
                 List<File> extractRuns = this.sortedRunsFile.subList(numOfMerges * AvailableBuffers, end);
-                File resultantRun = mergeSortedRuns(extractRuns, numOfMergeRuns, numOfMerges);
+                File resultantRun = mergeSortedRuns(extractRuns);
                 sortedRunsThisRound.add(resultantRun);
             }
-            for (File file : this.sortedRunsFile) {
-                file.delete();
+            deleteRuns();
+            this.sortedRunsFile = sortedRunsThisRound;
+        }
+    }
+
+    // The last merge split into key ranges: splitters are picked from the first tuples of the pages of all runs,
+    // so that each range covers about the same number of pages, and every range of all runs is merged by a
+    // separate worker into its own file. The files of the ranges, in order, make up the sorted output.
+    // Each worker starts reading every run at the page holding the start of its range and holds its share
+    // of the buffers, so the workers together read the runs about once and stay within bufferNum pages.
+    private void mergeRunsInParallel(int workers) {
+        List<Tuple> samples = new ArrayList<>();
+        for (File file : this.sortedRunsFile) {
+            samples.addAll(this.pageBoundaries.getOrDefault(file.getPath(), Collections.emptyList()));
+        }
+        samples.sort(this.comparator);
+
+        List<Tuple> splitters = new ArrayList<>();
+        for (int i = 1; i < workers; i++) {
+            int at = (int) ((long) i * samples.size() / workers);
+            if (at == 0 || at >= samples.size()) {
+                continue;
+            }
+            Tuple splitter = samples.get(at);
+            if (splitters.isEmpty() || this.comparator.compare(splitters.get(splitters.size() - 1), splitter) < 0) {
+                splitters.add(splitter);
             }
+        }
 
-            numOfMergeRuns++;
-            this.sortedRunsFile = sortedRunsThisRound;
+        List<File> runs = this.sortedRunsFile;
+        List<Future<File>> ranges = new ArrayList<>();
+        for (int range = 0; range <= splitters.size(); range++) {
+            Tuple low = range == 0 ? null : splitters.get(range - 1);
+            Tuple high = range == splitters.size() ? null : splitters.get(range);
+            String fileName = SpillManager.allocate(prefix);
+            int share = this.bufferNum / (splitters.size() + 1);
+            ranges.add(sortPool.submit(() -> mergeRange(runs, fileName, low, high, share)));
+        }
+
+        List<File> sortedRanges = new ArrayList<>();
+        for (Future<File> range : ranges) {
+            try {
+                sortedRanges.add(range.get());
+            } catch (InterruptedException | ExecutionException e) {
+                System.out.println("Error in writing to output file during merging.");
+                System.exit(1);
+            }
+        }
+        deleteRuns();
+        this.sortedRunsFile = sortedRanges;
+    }
+
+    private void deleteRuns() {
+        for (File file : this.sortedRunsFile) {
+            SpillManager.delete(file.getPath());
+            this.pageBoundaries.remove(file.getPath());
+            this.pageOffsets.remove(file.getPath());
         }
     }
 
     // input: files of sorted runs, each with a certain number of batches.
     // output: one single file of merged runs.
-    private File mergeSortedRuns(List<File> sortedRuns, int numOfMergeRuns, int numOfMerges) {
+    // The runs are merged through a loser tree, so each output tuple costs log(k) comparisons,
+    // and every run reads its next page in the background if there are buffers to spare for it.
+    private File mergeSortedRuns(List<File> sortedRuns) {
         int numOfInputBuff = this.bufferNum - 1;
         if (sortedRuns.isEmpty()) {
             System.out.println("Sorted run is empty, nothing to sort here.");
@@ -211,87 +487,240 @@ public class ExternalSort extends Operator{
             return null;
         }
 
-        ArrayList<Batch> inputBatches = new ArrayList<>();
-        List<ObjectInputStream> inputs = new ArrayList<>();
+        return mergeRange(sortedRuns, SpillManager.allocate(prefix), null, null, this.bufferNum);
+    }
 
-        // Generated and input stream of sorted runs.
-        for (File file : sortedRuns) {
+    // merges the tuples of the runs from low (inclusive) to high (exclusive) into the named file,
+    // a null bound leaves that side of the range open. Reading ahead takes a second page per run,
+    // so the runs only read ahead when the buffers hold two pages of every run and the output page.
+    private File mergeRange(List<File> sortedRuns, String fileName, Tuple low, Tuple high, int buffers) {
+        RunReader[] runs = new RunReader[sortedRuns.size()];
+        boolean readAhead = 2 * runs.length + 1 <= buffers;
+        for (int i = 0; i < runs.length; i++) {
             try {
-                ObjectInputStream input = new ObjectInputStream(new FileInputStream(file));
-                inputs.add(input);
+                runs[i] = new RunReader(openPages(sortedRuns.get(i), firstPage(sortedRuns.get(i), low)), readAhead);
             } catch (IOException e) {
                 System.out.println("Error reading file into input stream.");
+                System.exit(1);
+            }
+            while (low != null && runs[i].current != null && this.comparator.compare(runs[i].current, low) < 0) {
+                runs[i].advance();
             }
         }
 
-        // Feed in new batch into inputBatches.
-        for (int sortedRunNum = 0; sortedRunNum < sortedRuns.size(); sortedRunNum++) {
-            Batch nextBatch = nextBatchFromStream(inputs.get(sortedRunNum));
-            while (nextBatch != null) {
-                inputBatches.add(nextBatch);
-                nextBatch = nextBatchFromStream(inputs.get(sortedRunNum));
-            }
+        // A single output buffer to store the sorted tuples. When it is full, the writer spills it over to file.
+        TupleWriter result = new TupleWriter(fileName, this.batchSize, parallelism > 1);
+        if (!result.open()) {
+            System.out.println("Error in writing to output file during merging.");
+            System.exit(1);
         }
 
-        // Write all the tuples in inputBatches into the array of tuples. At the end, clear the tuples from
-        // inputBatches.
-        ArrayList<Tuple> inputTuples = new ArrayList<>();
-        for (Batch batch : inputBatches) {
-            if (batch == null) {
-                continue;
-            }
-            while (!batch.isEmpty()) {
-                Tuple tuple = batch.remove(batch.size() - 1);
-                inputTuples.add(tuple);
+        // In each iteration we take out the smallest tuple of all runs and replace it with the next one of its run.
+        LoserTree tree = new LoserTree(runs);
+        int winner;
+        while ((winner = tree.winner()) >= 0) {
+            if (high != null && this.comparator.compare(runs[winner].current, high) >= 0) {
+                break;
             }
+            write(result, runs[winner].current);
+            runs[winner].advance();
+            tree.replay(winner);
         }
 
-        // Sort the array of tuples in desc order.
-        inputTuples.sort(this.comparator.reversed());
+        result.close();
+        recordPages(result);
+        for (RunReader run : runs) {
+            run.close();
+        }
+        return new File(result.getFileName());
+    }
 
+    // the last page of the run whose first tuple is below low, where the tuples from low on start,
+    // found by binary search over the first tuples of its pages. Runs without an index start at 0.
+    private int firstPage(File file, Tuple low) {
+        List<Tuple> fences = this.pageBoundaries.get(file.getPath());
+        if (low == null || fences == null || !this.pageOffsets.containsKey(file.getPath())) {
+            return 0;
+        }
+        int page = 0;
+        int lo = 0;
+        int hi = fences.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this.comparator.compare(fences.get(mid), low) < 0) {
+                page = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return page;
+    }
 
-        // A single output buffer to store the sorted tuples. When it is full, we will spill it over to file.
-        Batch outputBuffer = new Batch(this.batchSize);
-        // The result file to store the merged sorted runs.
-        File resultFile = new File("ExternalSort_sortedRuns" + "_" + numOfMergeRuns + "_" + numOfMerges + identifier);
-        ObjectOutputStream resultFileStream;
-        try {
-            resultFileStream = new ObjectOutputStream(new FileOutputStream(resultFile, true));
-        } catch (FileNotFoundException e) {
-            System.out.println("Unable to find file for output stream.");
-            return null;
-        } catch (IOException e) {
-            System.out.println("IO error occurred while creating output stream.");
-            return null;
+    // the pages of a sorted file from the given page on. Indexed runs are read from that page, the others
+    // are read through a stream from their first page.
+    private PageSource openPages(File file, int firstPage) throws IOException {
+        long[] offsets = this.pageOffsets.get(file.getPath());
+        if (offsets == null) {
+            ObjectInputStream stream = SpillStreams.openInput(file);
+            return new PageSource() {
+                public Batch nextPage() {
+                    return nextBatchFromStream(stream);
+                }
+
+                public void close() {
+                    try {
+                        stream.close();
+                    } catch (IOException e) {
+                        System.out.println("Error in closing sorted run stream.");
+                    }
+                }
+            };
         }
+        IndexedPageReader reader = new IndexedPageReader(file.getPath(), offsets);
+        if (!reader.open()) {
+            throw new IOException("cannot open " + file);
+        }
+        return new PageSource() {
+            private int page = firstPage;
 
-        // In each iteration we pop out the smallest element and add it into the output buffer
-        // Once the buffer is filled write it into disk.
-        while (!inputTuples.isEmpty()) {
-            Tuple currentTuple = inputTuples.remove(inputTuples.size() - 1);
-            outputBuffer.add(currentTuple);
-            if (outputBuffer.isFull()) {
+            public Batch nextPage() {
                 try {
-                    resultFileStream.writeObject(outputBuffer);
-                    resultFileStream.reset();
+                    Batch batch = reader.readPage(page++);
+                    return batch == null || batch.isEmpty() ? null : batch;
                 } catch (IOException e) {
-                    System.out.println("Error in writing to output file during merging.");
+                    System.out.println("Error in reading sorted run during merging.");
+                    System.exit(1);
                     return null;
                 }
-                outputBuffer.clear();
             }
+
+            public void close() {
+                reader.close();
+            }
+        };
+    }
+
+    // the pages of a sorted file, one after the other.
+    private interface PageSource {
+        Batch nextPage(); // null at the end of the file.
+
+        void close();
+    }
+
+    // Tournament tree over the current tuples of the runs. The leaves are the runs, every inner node remembers
+    // the loser of the match played there and the overall winner is kept at the root, so when the winning run
+    // moves on to its next tuple only the matches on its path to the root are replayed.
+    private class LoserTree {
+        private RunReader[] runs;
+        private int[] tree; // tree[0] is the winning run, tree[1..k-1] the losers of the inner nodes.
+
+        LoserTree(RunReader[] runs) {
+            int k = runs.length;
+            this.runs = runs;
+            this.tree = new int[k];
+            // play the initial tournament bottom up, winners[k + i] is the leaf of run i.
+            int[] winners = new int[2 * k];
+            for (int i = 0; i < k; i++) {
+                winners[k + i] = i;
+            }
+            for (int node = k - 1; node >= 1; node--) {
+                int left = winners[2 * node];
+                int right = winners[2 * node + 1];
+                if (beats(left, right)) {
+                    winners[node] = left;
+                    tree[node] = right;
+                } else {
+                    winners[node] = right;
+                    tree[node] = left;
+                }
+            }
+            tree[0] = k == 1 ? 0 : winners[1];
+        }
+
+        // the run holding the smallest tuple, -1 once all runs are exhausted.
+        int winner() {
+            return runs[tree[0]].current == null ? -1 : tree[0];
+        }
+
+        // replays the matches from the leaf of the given run up to the root.
+        void replay(int run) {
+            int winner = run;
+            for (int node = (run + runs.length) / 2; node >= 1; node /= 2) {
+                if (beats(tree[node], winner)) {
+                    int loser = winner;
+                    winner = tree[node];
+                    tree[node] = loser;
+                }
+            }
+            tree[0] = winner;
+        }
+
+        // exhausted runs lose every match, ties go to the earlier run.
+        private boolean beats(int a, int b) {
+            Tuple first = runs[a].current;
+            Tuple second = runs[b].current;
+            if (first == null) {
+                return false;
+            }
+            if (second == null) {
+                return true;
+            }
+            int order = comparator.compare(first, second);
+            return order < 0 || (order == 0 && a < b);
+        }
+    }
+
+    // Reads a sorted run one page at a time. When reading ahead, the next page is read in the background
+    // while the current one is merged.
+    private class RunReader {
+        private PageSource source;
+        private boolean ahead; // whether the next page is read in the background.
+        private Batch page; // page being merged.
+        private int cursor;
+        private Future<Batch> nextPage; // page being read ahead, null at the end of the run or if not reading ahead.
+        Tuple current; // current tuple of the run, null at the end of the run.
+
+        RunReader(PageSource source, boolean ahead) {
+            this.source = source;
+            this.ahead = ahead;
+            this.page = source.nextPage();
+            this.cursor = 0;
+            readAhead();
+            this.current = page == null ? null : page.get(0);
         }
 
-        if (!outputBuffer.isEmpty()) {
+        void advance() {
+            cursor++;
+            if (cursor >= page.size()) {
+                page = ahead ? awaitPage() : source.nextPage();
+                cursor = 0;
+                readAhead();
+            }
+            current = page == null ? null : page.get(cursor);
+        }
+
+        private void readAhead() {
+            nextPage = page == null || !ahead ? null : prefetcher.submit(source::nextPage);
+        }
+
+        private Batch awaitPage() {
+            if (nextPage == null) {
+                return null;
+            }
             try {
-                resultFileStream.writeObject(outputBuffer);
-                resultFileStream.reset();
-            } catch (IOException e) {
-                System.out.println("Error in writing to output file during merging.");
+                return nextPage.get();
+            } catch (InterruptedException | ExecutionException e) {
+                System.out.println("Error in reading sorted run during merging.");
+                System.exit(1);
                 return null;
             }
         }
-        return resultFile;
+
+        void close() {
+            awaitPage();
+            source.close();
+        }
     }
 
     protected Batch nextBatchFromStream(ObjectInputStream stream) {
@@ -308,22 +737,4 @@ public class ExternalSort extends Operator{
             return null;
         }
     }
-
-    static class TupleSortComparator implements Comparator<Tuple>{
-        private ArrayList<Integer> index_sort;
-        TupleSortComparator(ArrayList<Integer> index_sort_in) {
-            this.index_sort = index_sort_in;
-        }
-
-        @Override
-        public int compare(Tuple firstTuple, Tuple secondTuple) {
-            for (int index : this.index_sort) {
-                int compareValue = Tuple.compareTuples(firstTuple, secondTuple, index);
-                if (compareValue != 0) {
-                    return compareValue;
-                }
-            }
-            return 0;
-        }
-    }
 }
@@ -0,0 +1,121 @@
+/**
+ * Gather exchange: merges the pages of several producers
+ **/
+
+package qp.operators;
+
+import qp.utils.Batch;
+import qp.utils.Schema;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runs each producer subtree on a thread of its own and returns their
+ * * pages in the order they arrive. With a single producer the subtree
+ * * simply runs ahead of the consumer on another thread. Every open()
+ * * starts the producers again, so the consumer may rescan the input.
+ */
+public class Gather extends Exchange implements Exchange.Stoppable {
+
+    ArrayList<Operator> producers;  // Subtrees producing the pages
+    BlockingQueue<Batch> queue;     // Pages not yet returned, shared by all producers
+    Thread[] threads;               // Thread of each producer
+    int numFinished;                // Number of producers that reached their end
+    volatile boolean stopped;       // Whether the consumer closed the exchange
+
+    public Gather(Operator base) {
+        this.producers = new ArrayList<>();
+        producers.add(base);
+        setSchema(base.getSchema());
+    }
+
+    public Gather(ArrayList<Operator> producers) {
+        this.producers = producers;
+        setSchema(producers.get(0).getSchema());
+    }
+
+    /** The first producer, the only one unless the input was split **/
+    public Operator getBase() {
+        return producers.get(0);
+    }
+
+    public void setBase(Operator base) {
+        producers.set(0, base);
+    }
+
+    public ArrayList<Operator> getProducers() {
+        return producers;
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Starts the producers, each opens its subtree on its own thread
+     **/
+    public boolean open() {
+        stopped = false;
+        numFinished = 0;
+        queue = new ArrayBlockingQueue<>(queueSize * producers.size());
+        threads = new Thread[producers.size()];
+        for (int i = 0; i < threads.length; ++i) {
+            Operator producer = producers.get(i);
+            threads[i] = start("Gather-" + i, () -> produce(producer));
+        }
+        return true;
+    }
+
+    private void produce(Operator producer) {
+        if (!producer.open()) {
+            put(queue, FAILED, this);
+            return;
+        }
+        Batch batch;
+        while (!stopped && (batch = producer.next()) != null) {
+            if (!batch.isEmpty() && !put(queue, batch, this)) {
+                break;
+            }
+        }
+        producer.close();
+        put(queue, EOS, this);
+    }
+
+    public Batch next() {
+        while (numFinished < producers.size()) {
+            Batch batch = take(queue);
+            if (batch == EOS) {
+                numFinished++;
+            } else {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stops the producers that are still running and waits for them
+     **/
+    public boolean close() {
+        stopped = true;
+        join(threads);
+        threads = null;
+        if (queue != null) {
+            queue.clear();
+        }
+        return true;
+    }
+
+    public Object clone() {
+        ArrayList<Operator> newproducers = new ArrayList<>();
+        for (Operator producer : producers) {
+            newproducers.add((Operator) producer.clone());
+        }
+        Gather newgather = new Gather(newproducers);
+        newgather.setSchema((Schema) newproducers.get(0).getSchema().clone());
+        return newgather;
+    }
+
+}
@@ -0,0 +1,455 @@
+/**
+ * Hybrid Grace Hash Join algorithm
+ **/
+
+package qp.operators;
+
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.Condition;
+import qp.utils.SpillManager;
+import qp.utils.Tuple;
+import qp.utils.TupleReader;
+import qp.utils.TupleWriter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Partitions both inputs on the hash of the join key into temporary files
+ * * and joins each pair of partitions with an in-memory hash table built on
+ * * the right partition. Partitions that are still too big for the buffers
+ * * are partitioned again with a different hash function.
+ * * A right input fitting in the buffers but two is not partitioned at all,
+ * * it is held in one hash table and the left input probes it as it is read.
+ * * Otherwise the first partition of the right input is kept in memory (hybrid hash join),
+ * * so the left tuples falling into it are joined while the left input is read.
+ * * If it outgrows its share of the buffers it is spilled like the others.
+ **/
+public class GraceHashJoin extends Join {
+
+    static final int MAXLEVEL = 4;  // Give up repartitioning skewed partitions after this many levels
+
+    static AtomicInteger filenum = new AtomicInteger();  // To get unique filenum for this operation
+    int batchsize;                  // Number of tuples per out batch
+    int leftbatchsize;              // Number of tuples per page of the left input
+    int rightbatchsize;             // Number of tuples per page of the right input
+    ArrayList<Integer> leftindex;   // Indices of the join attributes in left table
+    ArrayList<Integer> rightindex;  // Indices of the join attributes in right table
+    String prefix;                  // Prefix of the partition files of this join
+
+    int numPartitions;              // Number of partitions of the first level, partition 0 is resident
+    boolean partitioned;            // Whether the right input outgrew the buffers and was partitioned
+    int inMemoryLimit;              // Number of right tuples held without partitioning
+    HashMap<Object, ArrayList<Tuple>> resident;  // In-memory first partition of the right input, null if spilled
+    int residentTuples;             // Number of tuples in the resident partition
+    int residentLimit;              // Number of tuples the resident partition may hold
+    TupleWriter[] leftwriters;      // Left partitions being written while the left input is read
+    TupleWriter[] rightwriters;     // Right partitions written in open()
+    ArrayDeque<Partition> pending;  // Partition pairs still to be joined
+
+    HashMap<Object, ArrayList<Tuple>> probetable;  // Hash table the left tuples are probed against
+    TupleReader probereader;        // Left partition being probed, null while reading the left input
+    Partition current;              // Partition pair being probed
+    Batch outbatch;                 // Buffer page for output
+    Batch leftbatch;                // Buffer page for left input stream
+    int lcurs;                      // Cursor for left side buffer
+    Tuple lefttuple;                // Left tuple being probed
+    ArrayList<Tuple> matches;       // Right tuples matching lefttuple
+    int mcurs;                      // Cursor in matches
+    boolean eosl;                   // Whether end of stream (left table) is reached
+    boolean done;                   // Whether all partitions are joined
+
+    public GraceHashJoin(Join jn) {
+        super(jn.getLeft(), jn.getRight(), jn.getConditionList(), jn.getOpType());
+        schema = jn.getSchema();
+        jointype = jn.getJoinType();
+        numBuff = jn.getNumBuff();
+    }
+
+    /**
+     * During open finds the index of the join attributes
+     * * Partitions the right input, keeping the first partition in memory
+     * * Opens the connections
+     **/
+    public boolean open() {
+        /** select number of tuples per batch **/
+        batchsize = Math.max(1, Batch.getPageSize() / schema.getTupleSize());
+        leftbatchsize = Math.max(1, Batch.getPageSize() / left.getSchema().getTupleSize());
+        rightbatchsize = Math.max(1, Batch.getPageSize() / right.getSchema().getTupleSize());
+
+        /** find indices attributes of join conditions **/
+        leftindex = new ArrayList<>();
+        rightindex = new ArrayList<>();
+        for (Condition con : conditionList) {
+            Attribute leftattr = con.getLhs();
+            Attribute rightattr = (Attribute) con.getRhs();
+            leftindex.add(left.getSchema().indexOf(leftattr));
+            rightindex.add(right.getSchema().indexOf(rightattr));
+        }
+
+        prefix = "GHJtemp-" + filenum.incrementAndGet();
+        pending = new ArrayDeque<>();
+        leftbatch = null;
+        lcurs = 0;
+        matches = null;
+        mcurs = 0;
+        eosl = false;
+        done = false;
+        probereader = null;
+        current = null;
+
+        /** The right input is held whole while it fits in the buffers but the input
+         ** and output buffer. Beyond that one buffer reads the input, half of the rest
+         ** are output buffers of the spilled partitions, but never more than all of
+         ** the rest, and those left over but the output buffer hold the resident partition
+         **/
+        if (!reserveBuffers(numBuff, 3)) {
+            return false;
+        }
+        numPartitions = Math.min(buffers - 1, Math.max(2, (buffers - 1) / 2) + 1);
+        residentLimit = Math.max(0, buffers - numPartitions - 1) * rightbatchsize;
+        inMemoryLimit = Math.max(0, buffers - 2) * rightbatchsize;
+        partitioned = false;
+        resident = new HashMap<>();
+        residentTuples = 0;
+
+        if (!right.open()) {
+            return false;
+        }
+        rightwriters = new TupleWriter[numPartitions];
+        Batch rightpage;
+        while ((rightpage = right.next()) != null) {
+            for (int i = 0; i < rightpage.size(); ++i) {
+                Tuple righttuple = rightpage.get(i);
+                Object key = HashJoin.joinKey(righttuple, rightindex);
+                if (!partitioned) {
+                    addToTable(resident, key, righttuple);
+                    if (++residentTuples > inMemoryLimit) {
+                        startPartitioning();
+                    }
+                } else {
+                    addRight(key, righttuple);
+                }
+            }
+        }
+        if (!right.close())
+            return false;
+        for (TupleWriter w : rightwriters) {
+            if (w != null) w.close();
+        }
+        leftwriters = new TupleWriter[numPartitions];
+        probetable = resident;
+        return left.open();
+    }
+
+    /**
+     * Probes the hash tables with the left tuples
+     * * And returns a page of output tuples
+     **/
+    public Batch next() {
+        if (done) {
+            return null;
+        }
+        outbatch = new Batch(batchsize);
+        while (!outbatch.isFull()) {
+            /** emit the remaining matches of the current left tuple **/
+            if (matches != null && mcurs < matches.size()) {
+                outbatch.add(lefttuple.joinWith(matches.get(mcurs++)));
+                continue;
+            }
+            lefttuple = nextProbeTuple();
+            if (lefttuple == null) {
+                done = true;
+                releaseBuffers();
+                break;
+            }
+            matches = probetable.get(HashJoin.joinKey(lefttuple, leftindex));
+            mcurs = 0;
+        }
+        if (outbatch.isEmpty()) {
+            return null;
+        }
+        return outbatch;
+    }
+
+    /**
+     * Returns the next left tuple to probe against probetable.
+     * * While the left input is read, tuples of spilled partitions are written out
+     * * and only tuples of the resident partition are returned. Afterwards the
+     * * partition pairs are joined one at a time. Returns null when the join is done.
+     **/
+    private Tuple nextProbeTuple() {
+        while (!eosl) {
+            if (leftbatch == null || lcurs >= leftbatch.size()) {
+                leftbatch = left.next();
+                lcurs = 0;
+                if (leftbatch == null) {
+                    finishLeftInput();
+                }
+                continue;
+            }
+            Tuple tuple = leftbatch.get(lcurs++);
+            Object key = HashJoin.joinKey(tuple, leftindex);
+            if (!partitioned) {
+                return tuple;
+            }
+            int p = partition(key, 0, numPartitions);
+            if (p == 0 && resident != null) {
+                return tuple;
+            } else if (rightwriters[p] != null) {
+                /** no need to keep left tuples whose right partition is empty **/
+                leftwriters[p] = write(leftwriters[p], tuple, leftbatchsize);
+            }
+        }
+        while (true) {
+            if (probereader != null) {
+                Tuple tuple = probereader.next();
+                if (tuple != null) {
+                    return tuple;
+                }
+                probereader.close();
+                current.delete();
+                probereader = null;
+                current = null;
+            }
+            if (pending.isEmpty()) {
+                return null;
+            }
+            Partition part = pending.pop();
+            if (part.rightpages > buffers - 2 && part.level < MAXLEVEL) {
+                repartition(part);
+            } else {
+                probetable = buildTable(part.rightfile);
+                probereader = openReader(part.leftfile, leftbatchsize);
+                current = part;
+            }
+        }
+    }
+
+    /**
+     * The left input is fully partitioned, queue the spilled partition pairs
+     **/
+    private void finishLeftInput() {
+        eosl = true;
+        left.close();
+        for (int p = 0; p < numPartitions; ++p) {
+            if (leftwriters[p] != null) {
+                leftwriters[p].close();
+            }
+            if (leftwriters[p] != null && rightwriters[p] != null) {
+                pending.push(new Partition(leftwriters[p], rightwriters[p], 1));
+            } else {
+                if (leftwriters[p] != null) SpillManager.delete(leftwriters[p].getFileName());
+                if (rightwriters[p] != null) SpillManager.delete(rightwriters[p].getFileName());
+            }
+        }
+        resident = null;
+        probetable = null;
+    }
+
+    /**
+     * The right input does not fit in the buffers, the tuples held so far
+     * * are divided into the partitions like those still to come
+     **/
+    private void startPartitioning() {
+        HashMap<Object, ArrayList<Tuple>> held = resident;
+        partitioned = true;
+        resident = residentLimit > 0 ? new HashMap<>() : null;
+        residentTuples = 0;
+        for (ArrayList<Tuple> bucket : held.values()) {
+            for (Tuple tuple : bucket) {
+                addRight(HashJoin.joinKey(tuple, rightindex), tuple);
+            }
+        }
+    }
+
+    /**
+     * Adds a right tuple to its partition, in memory if it is the resident one
+     **/
+    private void addRight(Object key, Tuple tuple) {
+        int p = partition(key, 0, numPartitions);
+        if (p == 0 && resident != null) {
+            addToTable(resident, key, tuple);
+            if (++residentTuples > residentLimit) {
+                spillResident();
+            }
+        } else {
+            rightwriters[p] = write(rightwriters[p], tuple, rightbatchsize);
+        }
+    }
+
+    /**
+     * The resident partition does not fit in its buffers, it is written
+     * * out and joined later like the other partitions
+     **/
+    private void spillResident() {
+        for (ArrayList<Tuple> bucket : resident.values()) {
+            for (Tuple tuple : bucket) {
+                rightwriters[0] = write(rightwriters[0], tuple, rightbatchsize);
+            }
+        }
+        resident = null;
+    }
+
+    /**
+     * Splits a partition pair that is too big into buffers - 1 smaller pairs
+     * * using the hash function of the next level
+     **/
+    private void repartition(Partition part) {
+        int fanout = Math.max(2, buffers - 1);
+        TupleWriter[] rightparts = split(part.rightfile, rightindex, rightbatchsize, part.level, fanout);
+        TupleWriter[] leftparts = split(part.leftfile, leftindex, leftbatchsize, part.level, fanout);
+        part.delete();
+        for (int p = 0; p < fanout; ++p) {
+            if (leftparts[p] != null && rightparts[p] != null) {
+                pending.push(new Partition(leftparts[p], rightparts[p], part.level + 1));
+            } else {
+                if (leftparts[p] != null) SpillManager.delete(leftparts[p].getFileName());
+                if (rightparts[p] != null) SpillManager.delete(rightparts[p].getFileName());
+            }
+        }
+    }
+
+    private TupleWriter[] split(String filename, ArrayList<Integer> index, int pagesize, int level, int fanout) {
+        TupleWriter[] writers = new TupleWriter[fanout];
+        TupleReader reader = openReader(filename, pagesize);
+        Tuple tuple;
+        while ((tuple = reader.next()) != null) {
+            int p = partition(HashJoin.joinKey(tuple, index), level, fanout);
+            writers[p] = write(writers[p], tuple, pagesize);
+        }
+        reader.close();
+        for (TupleWriter w : writers) {
+            if (w != null) w.close();
+        }
+        return writers;
+    }
+
+    /**
+     * Reads a right partition into an in-memory hash table
+     **/
+    private HashMap<Object, ArrayList<Tuple>> buildTable(String filename) {
+        HashMap<Object, ArrayList<Tuple>> table = new HashMap<>();
+        TupleReader reader = openReader(filename, rightbatchsize);
+        Tuple tuple;
+        while ((tuple = reader.next()) != null) {
+            addToTable(table, HashJoin.joinKey(tuple, rightindex), tuple);
+        }
+        reader.close();
+        return table;
+    }
+
+    private static void addToTable(HashMap<Object, ArrayList<Tuple>> table, Object key, Tuple tuple) {
+        ArrayList<Tuple> bucket = table.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<>();
+            table.put(key, bucket);
+        }
+        bucket.add(tuple);
+    }
+
+    private TupleReader openReader(String filename, int pagesize) {
+        TupleReader reader = new TupleReader(filename, pagesize);
+        if (!reader.open()) {
+            System.out.println("GraceHashJoin: Error reading temporary file");
+            System.exit(1);
+        }
+        return reader;
+    }
+
+    /**
+     * Appends the tuple to a partition file, opening the file on first use
+     **/
+    private TupleWriter write(TupleWriter writer, Tuple tuple, int pagesize) {
+        if (writer == null) {
+            writer = new TupleWriter(SpillManager.allocate(prefix), pagesize);
+            if (!writer.open()) {
+                System.out.println("GraceHashJoin: Error writing to temporary file");
+                System.exit(1);
+            }
+        }
+        writer.next(tuple);
+        return writer;
+    }
+
+    /**
+     * Partition of a join key, each level mixes the hash with a different seed
+     * * so that a partition is split differently than its parent
+     **/
+    static int partition(Object key, int level, int fanout) {
+        int h = key.hashCode() ^ (level * 0x9E3779B9);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, fanout);
+    }
+
+    /**
+     * Close the operator and remove the partition files left behind
+     */
+    public boolean close() {
+        releaseBuffers();
+        if (!eosl) {
+            left.close();
+            eosl = true;
+        }
+        if (leftwriters != null) {
+            for (TupleWriter w : leftwriters) {
+                if (w != null) {
+                    w.close();
+                    SpillManager.delete(w.getFileName());
+                }
+            }
+        }
+        if (rightwriters != null) {
+            for (TupleWriter w : rightwriters) {
+                if (w != null) SpillManager.delete(w.getFileName());
+            }
+        }
+        if (probereader != null) {
+            probereader.close();
+            probereader = null;
+        }
+        if (current != null) {
+            current.delete();
+            current = null;
+        }
+        if (pending != null) {
+            while (!pending.isEmpty()) {
+                pending.pop().delete();
+            }
+        }
+        resident = null;
+        probetable = null;
+        done = true;
+        return true;
+    }
+
+    /**
+     * A pair of left and right partition files still to be joined
+     **/
+    static class Partition {
+        String leftfile;
+        String rightfile;
+        int rightpages;  // Number of pages of the right partition
+        int level;       // Number of times the inputs have been partitioned
+
+        Partition(TupleWriter leftwriter, TupleWriter rightwriter, int level) {
+            this.leftfile = leftwriter.getFileName();
+            this.rightfile = rightwriter.getFileName();
+            this.rightpages = rightwriter.getNumBatch();
+            this.level = level;
+        }
+
+        void delete() {
+            SpillManager.delete(leftfile);
+            SpillManager.delete(rightfile);
+        }
+    }
+
+}
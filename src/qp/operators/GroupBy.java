@@ -28,7 +28,7 @@ public class GroupBy extends Operator {
         this.projectlist = projectlist;
         this.groupbylist = groupbylist;
         /** batchsize = number of records in a page **/
-        this.batchsize = Batch.getPageSize() / base.getSchema().getTupleSize();
+        this.batchsize = Math.max(1, Batch.getPageSize() / base.getSchema().getTupleSize());
     }
 
     public void setBase(Operator base) {
@@ -40,9 +40,10 @@ public class GroupBy extends Operator {
     }
 
     /** Preprocessing method to derive the sorted operator to carry out GroupBy function on **/
-    public void setOperation(Operator base, int numBuff) {
+    public void setOperation(Operator base, int numBuff, int prefBuff) {
         this.base = base;
         sortedOperator = new ExternalSort(base, numBuff, OpType.GROUPBY);
+        sortedOperator.setPreferredBuffers(prefBuff);
     }
 
     @Override
@@ -102,6 +103,8 @@ public class GroupBy extends Operator {
     }
 
     public boolean close() {
+        /** the sort returns its buffers and deletes its runs **/
+        sortedOperator.close();
         return base.close();
     }
 
@@ -0,0 +1,161 @@
+/**
+ * In-memory Hash Join algorithm
+ **/
+
+package qp.operators;
+
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.Condition;
+import qp.utils.Tuple;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Builds a hash table on the right input and probes it with the left input.
+ * * The optimizer only picks this join when the right input fits in the
+ * * buffers of the join, commuting the inputs puts the smaller one on the right.
+ **/
+public class HashJoin extends Join {
+
+    int batchsize;                  // Number of tuples per out batch
+    ArrayList<Integer> leftindex;   // Indices of the join attributes in left table
+    ArrayList<Integer> rightindex;  // Indices of the join attributes in right table
+    HashMap<Object, ArrayList<Tuple>> hashtable;  // Right tuples by their join key
+    Batch outbatch;                 // Buffer page for output
+    Batch leftbatch;                // Buffer page for left input stream
+
+    int lcurs;                      // Cursor for left side buffer
+    Tuple lefttuple;                // Left tuple being probed
+    ArrayList<Tuple> matches;       // Right tuples matching lefttuple
+    int mcurs;                      // Cursor in matches
+    boolean eosl;                   // Whether end of stream (left table) is reached
+
+    public HashJoin(Join jn) {
+        super(jn.getLeft(), jn.getRight(), jn.getConditionList(), jn.getOpType());
+        schema = jn.getSchema();
+        jointype = jn.getJoinType();
+        numBuff = jn.getNumBuff();
+    }
+
+    /**
+     * During open finds the index of the join attributes
+     * * Builds the hash table on the right input
+     * * Opens the connections
+     **/
+    public boolean open() {
+        /** select number of tuples per batch **/
+        int tuplesize = schema.getTupleSize();
+        batchsize = Math.max(1, Batch.getPageSize() / tuplesize);
+
+        /** find indices attributes of join conditions **/
+        leftindex = new ArrayList<>();
+        rightindex = new ArrayList<>();
+        for (Condition con : conditionList) {
+            Attribute leftattr = con.getLhs();
+            Attribute rightattr = (Attribute) con.getRhs();
+            leftindex.add(left.getSchema().indexOf(leftattr));
+            rightindex.add(right.getSchema().indexOf(rightattr));
+        }
+
+        /** initialize the cursors of input buffers **/
+        leftbatch = null;
+        lcurs = 0;
+        matches = null;
+        mcurs = 0;
+        eosl = false;
+
+        /** Build phase: the whole right input is hashed on its join key,
+         ** the optimizer only picks this join when it fits in the buffers
+         **/
+        if (!reserveBuffers(numBuff, 3)) {
+            return false;
+        }
+        if (!right.open()) {
+            return false;
+        }
+        hashtable = new HashMap<>();
+        Batch rightpage;
+        while ((rightpage = right.next()) != null) {
+            for (int i = 0; i < rightpage.size(); ++i) {
+                Tuple righttuple = rightpage.get(i);
+                Object key = joinKey(righttuple, rightindex);
+                ArrayList<Tuple> bucket = hashtable.get(key);
+                if (bucket == null) {
+                    bucket = new ArrayList<>();
+                    hashtable.put(key, bucket);
+                }
+                bucket.add(righttuple);
+            }
+        }
+        if (!right.close())
+            return false;
+
+        return left.open();
+    }
+
+    /**
+     * Probes the hash table with the left tuples
+     * * And returns a page of output tuples
+     **/
+    public Batch next() {
+        if (eosl) {
+            return null;
+        }
+        outbatch = new Batch(batchsize);
+        while (!outbatch.isFull()) {
+            /** emit the remaining matches of the current left tuple **/
+            if (matches != null && mcurs < matches.size()) {
+                outbatch.add(lefttuple.joinWith(matches.get(mcurs++)));
+                continue;
+            }
+            /** new left page is to be fetched **/
+            if (leftbatch == null || lcurs >= leftbatch.size()) {
+                leftbatch = left.next();
+                lcurs = 0;
+                if (leftbatch == null) {
+                    /** the hash table is no longer needed **/
+                    eosl = true;
+                    hashtable = null;
+                    releaseBuffers();
+                    break;
+                }
+                continue;
+            }
+            lefttuple = leftbatch.get(lcurs++);
+            matches = hashtable.get(joinKey(lefttuple, leftindex));
+            mcurs = 0;
+        }
+        if (outbatch.isEmpty()) {
+            return null;
+        }
+        return outbatch;
+    }
+
+    /**
+     * The join key of a tuple, the value itself for a single join attribute
+     * * otherwise the list of values, both hash and compare by their data
+     **/
+    static Object joinKey(Tuple tuple, ArrayList<Integer> index) {
+        if (index.size() == 1) {
+            return tuple.dataAt(index.get(0));
+        }
+        ArrayList<Object> key = new ArrayList<>(index.size());
+        for (int i : index) {
+            key.add(tuple.dataAt(i));
+        }
+        return key;
+    }
+
+    /**
+     * Close the operator
+     */
+    public boolean close() {
+        releaseBuffers();
+        hashtable = null;
+        left.close();
+        return true;
+    }
+
+}
@@ -5,6 +5,7 @@
 package qp.operators;
 
 import qp.utils.Condition;
+import qp.utils.MemoryBroker;
 import qp.utils.Schema;
 
 import java.util.ArrayList;
@@ -14,7 +15,9 @@ public class Join extends Operator {
     Operator left;                       // Left child
     Operator right;                      // Right child
     ArrayList<Condition> conditionList;  // List of join conditions
-    int numBuff;                         // Number of buffers available
+    int numBuff;                         // Number of buffers planned for the join
+    int prefBuff;                        // Number of buffers the join could put to use, 0 if not known
+    int buffers;                         // Buffers granted by the memory broker while open
     int jointype;                        // JoinType.NestedJoin/SortMerge/HashJoin
     int nodeIndex;                       // Each join node is given a number
 
@@ -48,6 +51,44 @@ public class Join extends Operator {
         this.numBuff = num;
     }
 
+    public int getPrefBuff() {
+        return prefBuff;
+    }
+
+    public void setPrefBuff(int num) {
+        this.prefBuff = num;
+    }
+
+    /**
+     * Acquires the buffers of the join from the memory broker when it opens.
+     * * The broker grants more than planned up to prefBuff when buffers are
+     * * to spare, and the buffer pool fewer when its frames are taken, but
+     * * never fewer than minimum; returns false if the pool has not minimum
+     * * frames free, and the join must then fail to open.
+     **/
+    boolean reserveBuffers(int planned, int minimum) {
+        releaseBuffers();
+        buffers = MemoryBroker.getBroker().acquire(minimum, planned, prefBuff);
+        if (buffers == 0) {
+            System.out.println("Join: fewer than " + minimum + " buffers are free");
+            return false;
+        }
+        return true;
+    }
+
+    /** Returns all but keep of the buffers when the join needs no more **/
+    void shrinkBuffers(int keep) {
+        if (buffers > keep) {
+            MemoryBroker.getBroker().release(buffers - keep);
+            buffers = keep;
+        }
+    }
+
+    /** Returns the buffers of the join when it is done or closes **/
+    void releaseBuffers() {
+        shrinkBuffers(0);
+    }
+
     public int getNodeIndex() {
         return nodeIndex;
     }
@@ -115,6 +156,7 @@ public class Join extends Operator {
         jn.setJoinType(jointype);
         jn.setNodeIndex(nodeIndex);
         jn.setNumBuff(numBuff);
+        jn.setPrefBuff(prefBuff);
         return jn;
     }
 
@@ -11,8 +11,10 @@ public class JoinType {
     public static final int SORTMERGE = 0;
     public static final int BLOCKNESTED = 1;
     public static final int NESTEDJOIN = 2;
+    public static final int HASHJOIN = 3;
+    public static final int GRACEHASH = 4;
 
     public static int numJoinTypes() {
-        return 3;
+        return 5;
     }
 }
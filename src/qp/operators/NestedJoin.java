@@ -7,22 +7,28 @@ package qp.operators;
 import qp.utils.Attribute;
 import qp.utils.Batch;
 import qp.utils.Condition;
+import qp.utils.SpillManager;
+import qp.utils.SpillStreams;
 import qp.utils.Tuple;
+import qp.utils.TupleComparator;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class NestedJoin extends Join {
 
-    static int filenum = 0;         // To get unique filenum for this operation
+    static AtomicInteger filenum = new AtomicInteger();  // To get unique filenum for this operation
     int batchsize;                  // Number of tuples per out batch
     ArrayList<Integer> leftindex;   // Indices of the join attributes in left table
     ArrayList<Integer> rightindex;  // Indices of the join attributes in right table
+    TupleComparator comparator;     // Compares the join attributes of left and right tuples
     String rfname;                  // The file name where the right table is materialized
     Batch outbatch;                 // Buffer page for output
     Batch leftbatch;                // Buffer page for left input stream
     Batch rightbatch;               // Buffer page for right input stream
     ObjectInputStream in;           // File pointer to the right hand materialized file
+    boolean rescan;                 // Whether the right base table is rescanned instead of materialized
 
     int lcurs;                      // Cursor for left side buffer
     int rcurs;                      // Cursor for right side buffer
@@ -44,7 +50,7 @@ public class NestedJoin extends Join {
     public boolean open() {
         /** select number of tuples per batch **/
         int tuplesize = schema.getTupleSize();
-        batchsize = Batch.getPageSize() / tuplesize;
+        batchsize = Math.max(1, Batch.getPageSize() / tuplesize);
 
         /** find indices attributes of join conditions **/
         leftindex = new ArrayList<>();
@@ -55,7 +61,12 @@ public class NestedJoin extends Join {
             leftindex.add(left.getSchema().indexOf(leftattr));
             rightindex.add(right.getSchema().indexOf(rightattr));
         }
+        comparator = new TupleComparator(left.getSchema(), leftindex, rightindex);
         Batch rightpage;
+        /** one buffer for each input and one for the output **/
+        if (!reserveBuffers(3, 3)) {
+            return false;
+        }
 
         /** initialize the cursors of input buffers **/
         lcurs = 0;
@@ -69,17 +80,24 @@ public class NestedJoin extends Join {
         /** Right hand side table is to be materialized
          ** for the Nested join to perform
          **/
+        rescan = right instanceof PageScan;
         if (!right.open()) {
             return false;
+        } else if (rescan) {
+            /** A paged base table is served from its mapping or from the
+             ** buffer pool. Every pass reads its pages as it would read those
+             ** of a materialized copy, so scanning it again saves writing the
+             ** copy, which PlanCost charges to joins that cannot rescan
+             **/
+            right.close();
         } else {
             /** If the right operator is not a base table then
              ** Materialize the intermediate result from right
              ** into a file
              **/
-            filenum++;
-            rfname = "NJtemp-" + String.valueOf(filenum);
+            rfname = SpillManager.allocate("NJtemp-" + filenum.incrementAndGet());
             try {
-                ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(rfname));
+                ObjectOutputStream out = SpillStreams.openOutput(rfname);
                 while ((rightpage = right.next()) != null) {
                     out.writeObject(rightpage);
                 }
@@ -118,25 +136,33 @@ public class NestedJoin extends Join {
                 /** Whenever a new left page came, we have to start the
                  ** scanning of right table
                  **/
-                try {
-                    in = new ObjectInputStream(new FileInputStream(rfname));
+                if (rescan) {
+                    if (!right.open()) {
+                        System.err.println("NestedJoin:error in rescanning the right table");
+                        System.exit(1);
+                    }
                     eosr = false;
-                } catch (IOException io) {
-                    System.err.println("NestedJoin:error in reading the file");
-                    System.exit(1);
+                } else {
+                    try {
+                        in = SpillStreams.openInput(rfname);
+                        eosr = false;
+                    } catch (IOException io) {
+                        System.err.println("NestedJoin:error in reading the file");
+                        System.exit(1);
+                    }
                 }
 
             }
             while (eosr == false) {
                 try {
                     if (rcurs == 0 && lcurs == 0) {
-                        rightbatch = (Batch) in.readObject();
+                        rightbatch = nextRightBatch();
                     }
                     for (i = lcurs; i < leftbatch.size(); ++i) {
                         for (j = rcurs; j < rightbatch.size(); ++j) {
                             Tuple lefttuple = leftbatch.get(i);
                             Tuple righttuple = rightbatch.get(j);
-                            if (lefttuple.checkJoin(righttuple, leftindex, rightindex)) {
+                            if (comparator.equal(lefttuple, righttuple)) {
                                 Tuple outtuple = lefttuple.joinWith(righttuple);
                                 outbatch.add(outtuple);
                                 if (outbatch.isFull()) {
@@ -162,7 +188,11 @@ public class NestedJoin extends Join {
                     lcurs = 0;
                 } catch (EOFException e) {
                     try {
-                        in.close();
+                        if (rescan) {
+                            right.close();
+                        } else {
+                            in.close();
+                        }
                     } catch (IOException io) {
                         System.out.println("NestedJoin: Error in reading temporary file");
                     }
@@ -179,12 +209,30 @@ public class NestedJoin extends Join {
         return outbatch;
     }
 
+    /**
+     * Reads the next page of the right input, either from the materialized
+     * * file or from the rescanned base table. Throws EOFException at the end
+     **/
+    private Batch nextRightBatch() throws IOException, ClassNotFoundException {
+        if (rescan) {
+            Batch batch = right.next();
+            if (batch == null) {
+                throw new EOFException();
+            }
+            return batch;
+        }
+        return (Batch) in.readObject();
+    }
+
     /**
      * Close the operator
      */
     public boolean close() {
-        File f = new File(rfname);
-        f.delete();
+        releaseBuffers();
+        if (rescan) {
+            return right.close();
+        }
+        SpillManager.delete(rfname);
         return true;
     }
 
@@ -12,4 +12,5 @@ public class OpType {
     public static final int JOIN = 3;
     public static final int DISTINCT = 4;
     public static final int GROUPBY = 5;
+    public static final int EXCHANGE = 6;
 }
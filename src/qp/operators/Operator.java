@@ -4,12 +4,15 @@
 package qp.operators;
 
 import qp.utils.Batch;
+import qp.utils.ColumnBatch;
 import qp.utils.Schema;
+import qp.utils.TupleLayout;
 
 public class Operator {
 
     int optype;     // Whether it is OpType.SELECT/ Optype.PROJECT/OpType.JOIN
     Schema schema;  // Schema of the result at this operator
+    TupleLayout vectorLayout;  // Layout of the columns returned by nextVector
 
     public Operator(int type) {
         this.optype = type;
@@ -21,6 +24,7 @@ public class Operator {
 
     public void setSchema(Schema schm) {
         this.schema = schm;
+        this.vectorLayout = null;
     }
 
     public int getOpType() {
@@ -48,6 +52,26 @@ public class Operator {
         return null;
     }
 
+    /**
+     * Vectorized next: returns the next page as columns, null at the end of
+     * * the stream. A returned batch has at least one selected row but may
+     * * be less than full. Operators without a columnar implementation
+     * * convert the pages returned by next(). A consumer calls either next()
+     * * or nextVector() on an operator, never both.
+     **/
+    public ColumnBatch nextVector() {
+        Batch batch;
+        while ((batch = next()) != null) {
+            if (!batch.isEmpty()) {
+                if (vectorLayout == null) {
+                    vectorLayout = TupleLayout.of(schema);
+                }
+                return ColumnBatch.fromBatch(batch, vectorLayout);
+            }
+        }
+        return null;
+    }
+
     public boolean close() {
         return true;
     }
@@ -0,0 +1,373 @@
+/**
+ * Scans a base table stored in the paged binary format
+ **/
+
+package qp.operators;
+
+import qp.utils.Batch;
+import qp.utils.BufferPool;
+import qp.utils.ColumnBatch;
+import qp.utils.PageFormat;
+import qp.utils.Schema;
+import qp.utils.Tuple;
+import qp.utils.TupleLayout;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageScan operator - reads whole pages of the table file and decodes
+ * * them directly from the bytes instead of deserializing every tuple
+ * * In memory mapped mode the file is mapped once through FileChannel.map
+ * * and pages are decoded straight from the OS page cache, so rescans of
+ * * the same table do not copy the file through read buffers again.
+ * * Otherwise the pages are read into frames of the buffer pool, where
+ * * they stay cached for later scans of the table.
+ */
+public class PageScan extends Scan implements BufferPool.PageIO {
+
+    static boolean memoryMapped = false;  // Whether table files are memory mapped
+    static HashMap<String, MappedTable> mappedTables = new HashMap<>();  // Mappings shared by all scans
+    static AtomicLong pagesMapped = new AtomicLong();   // Number of pages mapped so far
+    static AtomicLong pagesTouched = new AtomicLong();  // Number of mapped pages decoded so far
+
+    FileChannel channel;       // Table file being scanned
+    PageFormat format;         // Layout of the pages in the file
+    String pageKey;            // Name of the file version in the buffer pool
+    BufferPool.Frame frame;    // Frame holding the current page, null if none is pinned
+    ArrayList<Tuple> decoded;  // Tuples of the current page not yet returned
+    int cursor;                // Position of the next tuple in decoded
+    MappedTable mapped;        // Mapping of the table file, null if the file is read
+    int pagenum;               // Next page to decode
+    int numPages;              // Number of pages in the file, known once opened
+    int firstPage = 0;         // First page scanned
+    int endPage = -1;          // Page after the last page scanned, -1 to scan to the end of the file
+
+    public PageScan(String tabname, int type) {
+        super(tabname, type);
+    }
+
+    /**
+     * Restricts the scan to the pages first to end - 1 of the file,
+     * * e.g. to a morsel of a parallel scan. Takes effect on open().
+     **/
+    public void setPageRange(int first, int end) {
+        firstPage = first;
+        endPage = end;
+    }
+
+    /** Number of pages in the table file, valid once the scan is open **/
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /** Chooses whether table files are read or memory mapped **/
+    public static void setMemoryMapped(boolean flag) {
+        memoryMapped = flag;
+    }
+
+    public static boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /** Number of pages mapped since the counters were reset **/
+    public static long getPagesMapped() {
+        return pagesMapped.get();
+    }
+
+    /** Number of mapped pages decoded since the counters were reset **/
+    public static long getPagesTouched() {
+        return pagesTouched.get();
+    }
+
+    public static void resetPageCounts() {
+        pagesMapped.set(0);
+        pagesTouched.set(0);
+    }
+
+    /**
+     * Open file and read the header to find the layout of the pages
+     */
+    public boolean open() {
+        int tuplesize = schema.getTupleSize();
+        batchsize = Math.max(1, Batch.getPageSize() / tuplesize);
+        eos = false;
+        if (memoryMapped) {
+            return openMapped();
+        }
+        try {
+            File file = new File(filename);
+            /** A rewritten file must not be served the pages cached for the old one **/
+            pageKey = filename + "@" + file.lastModified() + "/" + file.length();
+            channel = new FileInputStream(file).getChannel();
+            ByteBuffer header = ByteBuffer.allocate(PageFormat.HEADER_SIZE);
+            /** A file too short for its header is no table file **/
+            format = null;
+            if (readFully(header, 0)) {
+                header.flip();
+                format = PageFormat.readHeader(header, schema);
+            }
+            if (format != null) {
+                numPages = (int) ((channel.size() - PageFormat.HEADER_SIZE) / format.getPageSize());
+                pagenum = Math.min(firstPage, numPages);
+            }
+        } catch (IOException e) {
+            System.err.println(" Error reading " + filename);
+            close();
+            return false;
+        }
+        if (format == null) {
+            System.err.println("PageScan: " + filename + " is not a table file of the schema");
+            close();
+            return false;
+        }
+        decoded = new ArrayList<>(format.getTuplesPerPage());
+        cursor = 0;
+        return true;
+    }
+
+    /**
+     * Looks up or creates the mapping of the table file
+     **/
+    private boolean openMapped() {
+        try {
+            mapped = getMappedTable(filename, schema);
+        } catch (IOException e) {
+            System.err.println(" Error mapping " + filename);
+            return false;
+        }
+        if (mapped == null) {
+            System.err.println("PageScan: " + filename + " is not a table file of the schema");
+            return false;
+        }
+        format = mapped.format;
+        decoded = new ArrayList<>(format.getTuplesPerPage());
+        cursor = 0;
+        numPages = mapped.numPages;
+        pagenum = Math.min(firstPage, numPages);
+        return true;
+    }
+
+    /**
+     * Mappings are kept for the lifetime of the process and reused by every
+     * * scan of the same file as long as the file has not been rewritten
+     **/
+    static synchronized MappedTable getMappedTable(String filename, Schema schema) throws IOException {
+        File file = new File(filename);
+        MappedTable table = mappedTables.get(filename);
+        if (table != null && table.length == file.length() && table.modified == file.lastModified()) {
+            return table;
+        }
+        table = MappedTable.map(file, schema);
+        if (table != null) {
+            mappedTables.put(filename, table);
+            pagesMapped.addAndGet(table.numPages);
+        }
+        return table;
+    }
+
+    /**
+     * Next operator - get a batch of tuples decoded from the pages of the file
+     **/
+    public Batch next() {
+        if (eos) {
+            close();
+            return null;
+        }
+        Batch tuples = new Batch(batchsize);
+        while (!tuples.isFull()) {
+            if (cursor == decoded.size() && !readPage()) {
+                /** At this point incomplete page is sent and at next call it considered
+                 ** as end of file
+                 **/
+                eos = true;
+                return tuples;
+            }
+            tuples.add(decoded.get(cursor++));
+        }
+        return tuples;
+    }
+
+    /**
+     * Vectorized next - decodes one page of the file straight into columns
+     **/
+    public ColumnBatch nextVector() {
+        if (eos) {
+            close();
+            return null;
+        }
+        if (vectorLayout == null) {
+            vectorLayout = TupleLayout.of(schema);
+        }
+        ByteBuffer buf;
+        while ((buf = nextPage()) != null) {
+            ColumnBatch columns = new ColumnBatch(vectorLayout, format.getTuplesPerPage());
+            format.decodePage(buf, columns);
+            releasePage();
+            if (columns.size() > 0) {
+                return columns;
+            }
+        }
+        eos = true;
+        close();
+        return null;
+    }
+
+    /**
+     * Reads and decodes the next page of the file,
+     * * returns false when there are no more pages
+     **/
+    private boolean readPage() {
+        decoded.clear();
+        cursor = 0;
+        ByteBuffer buf = nextPage();
+        if (buf == null) {
+            return false;
+        }
+        format.decodePage(buf, decoded);
+        releasePage();
+        return true;
+    }
+
+    /**
+     * The next page of the file positioned at its first byte,
+     * * null when there are no more pages. A page of the buffer pool
+     * * stays pinned until releasePage().
+     **/
+    private ByteBuffer nextPage() {
+        if (pagenum == numPages || pagenum == endPage) {
+            return null;
+        }
+        if (mapped != null) {
+            pagesTouched.incrementAndGet();
+            return mapped.page(pagenum++);
+        }
+        try {
+            frame = BufferPool.getPool().pin(pageKey, pagenum++, this);
+        } catch (IOException e) {
+            System.err.println("PageScan:Error reading " + filename);
+            System.exit(1);
+        }
+        return frame.getData();
+    }
+
+    /** Unpins the current page once it is decoded **/
+    private void releasePage() {
+        if (frame != null) {
+            BufferPool.getPool().unpin(frame, false);
+            frame = null;
+        }
+    }
+
+    public int pageSize() {
+        return format.getPageSize();
+    }
+
+    /** Reads a page into a frame of the buffer pool **/
+    public void read(int num, ByteBuffer buf) throws IOException {
+        if (!readFully(buf, PageFormat.HEADER_SIZE + (long) num * format.getPageSize())) {
+            throw new EOFException();
+        }
+    }
+
+    /** Table files are only read **/
+    public void write(int num, ByteBuffer buf) throws IOException {
+        throw new IOException("PageScan: " + filename + " is read only");
+    }
+
+    /**
+     * Fills the buffer from the file starting at the given position,
+     * * returns false if the file ended first
+     **/
+    private boolean readFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position);
+            if (n < 0) {
+                return false;
+            }
+            position += n;
+        }
+        return true;
+    }
+
+    /**
+     * Close the file
+     **/
+    public boolean close() {
+        /** The mapping stays valid for later scans, only the position is dropped **/
+        mapped = null;
+        releasePage();
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("PageScan: Error closing " + filename);
+            return false;
+        }
+        return true;
+    }
+
+    public Object clone() {
+        String newtab = tabname;
+        PageScan newscan = new PageScan(newtab, optype);
+        newscan.setSchema((Schema) schema.clone());
+        return newscan;
+    }
+
+    /**
+     * A table file mapped in segments, since one mapping cannot exceed 2GB
+     **/
+    static class MappedTable {
+        PageFormat format;
+        long length;                  // File length when mapped
+        long modified;                // File modification time when mapped
+        int numPages;                 // Number of pages in the file
+        int pagesPerSegment;          // Number of pages in each mapped segment
+        MappedByteBuffer[] segments;  // The mapped segments of the file
+
+        static MappedTable map(File file, Schema schema) throws IOException {
+            try (FileChannel fc = new FileInputStream(file).getChannel()) {
+                MappedTable table = new MappedTable();
+                table.length = fc.size();
+                table.modified = file.lastModified();
+                if (table.length < PageFormat.HEADER_SIZE) {
+                    return null;
+                }
+                ByteBuffer header = fc.map(FileChannel.MapMode.READ_ONLY, 0, PageFormat.HEADER_SIZE);
+                table.format = PageFormat.readHeader(header, schema);
+                if (table.format == null) {
+                    return null;
+                }
+                int pagesize = table.format.getPageSize();
+                table.numPages = (int) ((table.length - PageFormat.HEADER_SIZE) / pagesize);
+                table.pagesPerSegment = Integer.MAX_VALUE / pagesize;
+                int numSegments = (table.numPages + table.pagesPerSegment - 1) / table.pagesPerSegment;
+                table.segments = new MappedByteBuffer[numSegments];
+                for (int i = 0; i < numSegments; ++i) {
+                    long first = (long) i * table.pagesPerSegment;
+                    long pages = Math.min(table.pagesPerSegment, table.numPages - first);
+                    table.segments[i] = fc.map(FileChannel.MapMode.READ_ONLY,
+                            PageFormat.HEADER_SIZE + first * pagesize, pages * pagesize);
+                }
+                return table;
+            }
+        }
+
+        /** A view of the given page, positioned at its first byte **/
+        ByteBuffer page(int pagenum) {
+            ByteBuffer buf = segments[pagenum / pagesPerSegment].duplicate();
+            buf.position((pagenum % pagesPerSegment) * format.getPageSize());
+            return buf;
+        }
+    }
+
+}
@@ -0,0 +1,244 @@
+/**
+ * Morsel driven parallel scan of a paged table
+ **/
+
+package qp.operators;
+
+import qp.utils.Batch;
+import qp.utils.Schema;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a pipeline of selections and projections over a paged table on
+ * * several workers. The table is cut into morsels of morselSize pages;
+ * * each worker runs its own copy of the pipeline on one morsel after the
+ * * other, taking the next morsel not yet scanned, so fast workers simply
+ * * scan more morsels. The pages come out as they are finished unless the
+ * * order is preserved, in which case the pages of later morsels are held
+ * * back until all earlier morsels have been returned. No worker then takes
+ * * a morsel more than 2 * numWorkers ahead of the one being returned, it
+ * * waits instead, so the pages held back stay within that many morsels.
+ */
+public class ParallelScan extends Exchange implements Exchange.Stoppable {
+
+    static boolean ordered = false;  // Whether the pages come out in table order
+    static int morselSize = 16;      // Number of pages in a morsel
+
+    Operator base;                   // The pipeline run on each morsel
+    int numWorkers;                  // Number of copies of the pipeline running at once
+
+    /**
+     * The following fields are required during execution
+     **/
+    AtomicInteger nextMorsel;        // Number of the next morsel to be scanned
+    BlockingQueue<Morsel> queue;     // Pages of the workers not yet returned
+    Thread[] threads;                // Thread of each worker
+    int numFinished;                 // Number of workers out of morsels
+    volatile boolean stopped;        // Whether the consumer closed the scan
+    HashMap<Integer, ArrayDeque<Batch>> heldBack;  // Pages of morsels after current, in order mode
+    HashSet<Integer> finished;       // Morsels all of whose pages were received, in order mode
+    int current;                     // Morsel being returned, in order mode, guarded by this
+
+    public ParallelScan(Operator base, int numWorkers) {
+        this.base = base;
+        this.numWorkers = numWorkers;
+        setSchema(base.getSchema());
+    }
+
+    /** Chooses whether the pages are returned in the order of the table **/
+    public static void setOrdered(boolean flag) {
+        ordered = flag;
+    }
+
+    public static boolean isOrdered() {
+        return ordered;
+    }
+
+    public static void setMorselSize(int pages) {
+        morselSize = Math.max(1, pages);
+    }
+
+    /**
+     * The scan at the bottom of a pipeline of selections and projections,
+     * * null if the operator is not such a pipeline over a paged table
+     **/
+    public static PageScan leafScan(Operator node) {
+        while (node.getOpType() == OpType.SELECT || node.getOpType() == OpType.PROJECT) {
+            node = node.getOpType() == OpType.SELECT ? ((Select) node).getBase() : ((Project) node).getBase();
+        }
+        return node instanceof PageScan ? (PageScan) node : null;
+    }
+
+    public Operator getBase() {
+        return base;
+    }
+
+    public int getNumWorkers() {
+        return numWorkers;
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Starts the workers, each on its own copy of the pipeline
+     **/
+    public boolean open() {
+        stopped = false;
+        numFinished = 0;
+        nextMorsel = new AtomicInteger();
+        queue = new ArrayBlockingQueue<>(queueSize * numWorkers);
+        heldBack = new HashMap<>();
+        finished = new HashSet<>();
+        current = 0;
+        threads = new Thread[numWorkers];
+        for (int i = 0; i < numWorkers; ++i) {
+            Operator pipeline = (Operator) base.clone();
+            threads[i] = start("ParallelScan-" + i, () -> work(pipeline));
+        }
+        return true;
+    }
+
+    /**
+     * Scans morsels until the table is exhausted. Every morsel taken is
+     * * followed by an end marker, also the one found past the end of the table.
+     **/
+    private void work(Operator pipeline) {
+        PageScan scan = leafScan(pipeline);
+        while (!stopped) {
+            int morsel = nextMorsel.getAndIncrement();
+            if (ordered && !awaitWindow(morsel)) {
+                break;
+            }
+            int first = morsel * morselSize;
+            scan.setPageRange(first, first + morselSize);
+            if (!pipeline.open()) {
+                put(queue, new Morsel(morsel, FAILED), this);
+                return;
+            }
+            boolean pastEnd = first >= scan.getNumPages();
+            Batch batch;
+            while (!pastEnd && !stopped && (batch = pipeline.next()) != null) {
+                if (!batch.isEmpty()) {
+                    put(queue, new Morsel(morsel, batch), this);
+                }
+            }
+            pipeline.close();
+            put(queue, new Morsel(morsel, null), this);
+            if (pastEnd) {
+                break;
+            }
+        }
+        put(queue, new Morsel(-1, EOS), this);
+    }
+
+    /**
+     * Waits until the morsel is within 2 * numWorkers of the one being
+     * * returned, false if the scan was stopped meanwhile
+     **/
+    private synchronized boolean awaitWindow(int morsel) {
+        while (!stopped && morsel >= current + 2 * numWorkers) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return !stopped;
+    }
+
+    /** The morsel being returned is done, workers waiting for the next ones may go on **/
+    private synchronized void advance() {
+        current++;
+        notifyAll();
+    }
+
+    public Batch next() {
+        while (true) {
+            if (ordered) {
+                ArrayDeque<Batch> pages = heldBack.get(current);
+                if (pages != null && !pages.isEmpty()) {
+                    return pages.poll();
+                }
+                if (finished.remove(current)) {
+                    heldBack.remove(current);
+                    advance();
+                    continue;
+                }
+            }
+            if (numFinished == numWorkers) {
+                return null;
+            }
+            Morsel item = take();
+            if (item.batch == EOS) {
+                numFinished++;
+            } else if (item.batch == FAILED) {
+                System.out.println("ParallelScan: error in opening the pipeline");
+                System.exit(1);
+            } else if (!ordered) {
+                if (item.batch != null) {
+                    return item.batch;
+                }
+            } else if (item.batch == null) {
+                finished.add(item.index);
+            } else {
+                heldBack.computeIfAbsent(item.index, k -> new ArrayDeque<>()).add(item.batch);
+            }
+        }
+    }
+
+    private Morsel take() {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Morsel(-1, EOS);
+        }
+    }
+
+    /**
+     * Stops the workers that are still running and waits for them
+     **/
+    public boolean close() {
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+        join(threads);
+        threads = null;
+        if (queue != null) {
+            queue.clear();
+        }
+        return true;
+    }
+
+    public Object clone() {
+        Operator newbase = (Operator) base.clone();
+        ParallelScan newscan = new ParallelScan(newbase, numWorkers);
+        newscan.setSchema((Schema) newbase.getSchema().clone());
+        return newscan;
+    }
+
+    /**
+     * A page of a morsel, or the end of a morsel if batch is null
+     **/
+    static class Morsel {
+        int index;
+        Batch batch;
+
+        Morsel(int index, Batch batch) {
+            this.index = index;
+            this.batch = batch;
+        }
+    }
+
+}
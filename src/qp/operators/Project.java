@@ -6,8 +6,12 @@ package qp.operators;
 
 import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.CodeGen;
+import qp.utils.ColumnBatch;
+import qp.utils.PrimitiveTuple;
 import qp.utils.Schema;
 import qp.utils.Tuple;
+import qp.utils.TupleLayout;
 
 import java.util.ArrayList;
 
@@ -30,6 +34,9 @@ public class Project extends Operator {
      **/
     int[] attrIndex;
 
+    TupleLayout outLayout;          // Layout of the projected tuples
+    CodeGen.Projector generated;    // Generated column mapping, null if not enabled
+
     public Project(Operator base, ArrayList<Attribute> as, int type) {
         super(type);
         this.base = base;
@@ -57,7 +64,7 @@ public class Project extends Operator {
     public boolean open() {
         /** set number of tuples per batch **/
         int tuplesize = schema.getTupleSize();
-        batchsize = Batch.getPageSize() / tuplesize;
+        batchsize = Math.max(1, Batch.getPageSize() / tuplesize);
 
         System.out.println("(Project) Opening in project operator");
         if (!base.open()) return false;
@@ -78,6 +85,8 @@ public class Project extends Operator {
             int index = baseSchema.indexOf(attr.getBaseAttribute());
             attrIndex[i] = index;
         }
+        outLayout = TupleLayout.of(schema);
+        generated = CodeGen.isEnabled() ? CodeGen.projector(outLayout, attrIndex) : null;
         return true;
     }
 
@@ -97,17 +106,30 @@ public class Project extends Operator {
             Tuple basetuple = inbatch.get(i);
             //Debug.PPrint(basetuple);
             //System.out.println();
-            ArrayList<Object> present = new ArrayList<>();
-            for (int j = 0; j < attrset.size(); j++) {
-                Object data = basetuple.dataAt(attrIndex[j]);
-                present.add(data);
+            PrimitiveTuple outtuple = new PrimitiveTuple(outLayout);
+            if (generated != null) {
+                generated.project(basetuple, outtuple);
+            } else {
+                for (int j = 0; j < attrIndex.length; j++) {
+                    outtuple.copyFrom(basetuple, attrIndex[j], j);
+                }
             }
-            Tuple outtuple = new Tuple(present);
             outbatch.add(outtuple);
         }
         return outbatch;
     }
 
+    /**
+     * Vectorized next - the projected batch shares the columns of the input
+     **/
+    public ColumnBatch nextVector() {
+        ColumnBatch vector = base.nextVector();
+        if (vector == null) {
+            return null;
+        }
+        return vector.project(outLayout, attrIndex);
+    }
+
     /**
      * Close the operator
      */
@@ -0,0 +1,244 @@
+/**
+ * Repartition exchange: splits one producer into several outputs by key
+ **/
+
+package qp.operators;
+
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.Schema;
+import qp.utils.Tuple;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runs the base subtree on a thread of its own and sends each tuple to
+ * * the output chosen by the hash of its key attributes, so tuples with
+ * * equal keys always reach the same output, also across two exchanges
+ * * hashing keys of the same types. Each output is an operator read by
+ * * its own consumer; the producer starts when the first output opens
+ * * and each output can be read once.
+ */
+public class Repartition extends Exchange {
+
+    Operator base;                 // Subtree producing the pages
+    ArrayList<Integer> keyIndex;   // Indices of the key attributes in the base schema
+    int[] keys;                    // Key indices resolved when the producer starts
+    int[] types;                   // Types of the key attributes
+    Output[] outputs;              // Operators returning the pages of each output
+    int batchsize;                 // Number of tuples per page sent to an output
+    Thread thread;                 // The producer, null until an output opens
+
+    public Repartition(Operator base, ArrayList<Integer> keyIndex, int numOutputs) {
+        this.base = base;
+        this.keyIndex = keyIndex;
+        setSchema(base.getSchema());
+        outputs = new Output[numOutputs];
+        for (int i = 0; i < numOutputs; ++i) {
+            outputs[i] = new Output(i);
+        }
+    }
+
+    public Operator getBase() {
+        return base;
+    }
+
+    /** The outputs return tuples of the same schema **/
+    public void setSchema(Schema schm) {
+        super.setSchema(schm);
+        if (outputs != null) {
+            for (Output output : outputs) {
+                output.setSchema(schm);
+            }
+        }
+    }
+
+    public ArrayList<Integer> getKeyIndex() {
+        return keyIndex;
+    }
+
+    public int getNumOutputs() {
+        return outputs.length;
+    }
+
+    /** The operator returning the pages sent to the given output **/
+    public Operator getOutput(int i) {
+        return outputs[i];
+    }
+
+    /**
+     * The exchange itself is not read, consumers read its outputs
+     **/
+    public boolean open() {
+        return startProducer();
+    }
+
+    private synchronized boolean startProducer() {
+        if (thread == null) {
+            batchsize = Math.max(1, Batch.getPageSize() / schema.getTupleSize());
+            keys = new int[keyIndex == null ? 0 : keyIndex.size()];
+            types = new int[keys.length];
+            for (int i = 0; i < keys.length; ++i) {
+                keys[i] = keyIndex.get(i);
+                types[i] = schema.typeOf(keys[i]);
+            }
+            thread = start(getClass().getSimpleName(), this::produce);
+        }
+        return true;
+    }
+
+    private void produce() {
+        if (!base.open()) {
+            for (Output output : outputs) {
+                put(output.queue, FAILED, output);
+            }
+            return;
+        }
+        Batch[] pending = new Batch[outputs.length];
+        Batch batch;
+        while (!allStopped() && (batch = base.next()) != null) {
+            if (!batch.isEmpty()) {
+                route(batch, pending);
+            }
+        }
+        base.close();
+        for (int i = 0; i < outputs.length; ++i) {
+            if (pending[i] != null && !pending[i].isEmpty()) {
+                put(outputs[i].queue, pending[i], outputs[i]);
+            }
+            put(outputs[i].queue, EOS, outputs[i]);
+        }
+    }
+
+    /**
+     * Sends the tuples of the page to their outputs, a page is passed
+     * * on once it is full
+     **/
+    protected void route(Batch batch, Batch[] pending) {
+        for (int t = 0; t < batch.size(); ++t) {
+            Tuple tuple = batch.get(t);
+            int i = outputOf(tuple);
+            if (pending[i] == null) {
+                pending[i] = new Batch(batchsize);
+            }
+            pending[i].add(tuple);
+            if (pending[i].isFull()) {
+                put(outputs[i].queue, pending[i], outputs[i]);
+                pending[i] = null;
+            }
+        }
+    }
+
+    /**
+     * The output of the tuple, equal keys of the same types always
+     * * give the same output
+     **/
+    protected int outputOf(Tuple tuple) {
+        int hash = 0;
+        for (int i = 0; i < keys.length; ++i) {
+            int h;
+            if (types[i] == Attribute.INT) {
+                h = Integer.hashCode(tuple.getInt(keys[i]));
+            } else if (types[i] == Attribute.REAL) {
+                h = Float.hashCode(tuple.getFloat(keys[i]));
+            } else {
+                h = tuple.getString(keys[i]).hashCode();
+            }
+            hash = 31 * hash + h;
+        }
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash * 0x9E3779B9, outputs.length);
+    }
+
+    private boolean allStopped() {
+        for (Output output : outputs) {
+            if (!output.stopped) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops the producer and waits for it
+     **/
+    public boolean close() {
+        for (Output output : outputs) {
+            output.close();
+        }
+        Thread producer;
+        synchronized (this) {
+            producer = thread;
+        }
+        join(producer == null ? null : new Thread[]{producer});
+        return true;
+    }
+
+    public Object clone() {
+        Operator newbase = (Operator) base.clone();
+        Repartition newpart = new Repartition(newbase, keyIndex, outputs.length);
+        newpart.setSchema((Schema) newbase.getSchema().clone());
+        return newpart;
+    }
+
+    /**
+     * One output of the exchange, read by one consumer
+     **/
+    public class Output extends Exchange implements Exchange.Stoppable {
+
+        int index;                   // Number of this output
+        BlockingQueue<Batch> queue;  // Pages sent to this output and not yet returned
+        boolean eos;                 // Whether the producer sent its last page
+        volatile boolean stopped;    // Whether the consumer closed this output
+
+        Output(int index) {
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+            setSchema(Repartition.this.getSchema());
+        }
+
+        public Repartition getExchange() {
+            return Repartition.this;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public boolean isStopped() {
+            return stopped;
+        }
+
+        public boolean open() {
+            eos = false;
+            return startProducer();
+        }
+
+        public Batch next() {
+            if (eos) {
+                return null;
+            }
+            Batch batch = take(queue);
+            if (batch == EOS) {
+                eos = true;
+                return null;
+            }
+            return batch;
+        }
+
+        /** Drops the pages not read, the producer no longer waits for this output **/
+        public boolean close() {
+            stopped = true;
+            queue.clear();
+            return true;
+        }
+
+        /** The outputs belong to their exchange and are not copied **/
+        public Object clone() {
+            return this;
+        }
+    }
+
+}
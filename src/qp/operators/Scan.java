@@ -5,8 +5,10 @@
 package qp.operators;
 
 import qp.utils.Batch;
+import qp.utils.ColumnBatch;
 import qp.utils.Schema;
 import qp.utils.Tuple;
+import qp.utils.TupleLayout;
 
 import java.io.EOFException;
 import java.io.FileInputStream;
@@ -43,7 +45,7 @@ public class Scan extends Operator {
     public boolean open() {
         /** num of tuples per batch**/
         int tuplesize = schema.getTupleSize();
-        batchsize = Batch.getPageSize() / tuplesize;
+        batchsize = Math.max(1, Batch.getPageSize() / tuplesize);
         eos = false;
         try {
             in = new ObjectInputStream(new FileInputStream(filename));
@@ -85,6 +87,39 @@ public class Scan extends Operator {
         return tuples;
     }
 
+    /**
+     * Vectorized next - reads the tuples of a page straight into columns
+     **/
+    public ColumnBatch nextVector() {
+        if (eos) {
+            close();
+            return null;
+        }
+        if (vectorLayout == null) {
+            vectorLayout = TupleLayout.of(schema);
+        }
+        ColumnBatch columns = new ColumnBatch(vectorLayout, batchsize);
+        while (!columns.isFull()) {
+            try {
+                columns.add((Tuple) in.readObject());
+            } catch (ClassNotFoundException cnf) {
+                System.err.println("Scan:Class not found for reading file  " + filename);
+                System.exit(1);
+            } catch (EOFException EOF) {
+                eos = true;
+                break;
+            } catch (IOException e) {
+                System.err.println("Scan:Error reading " + filename);
+                System.exit(1);
+            }
+        }
+        if (columns.size() == 0) {
+            close();
+            return null;
+        }
+        return columns;
+    }
+
     /**
      * Close the file.. This routine is called when the end of filed
      * * is already reached
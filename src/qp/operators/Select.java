@@ -6,20 +6,31 @@ package qp.operators;
 
 import qp.utils.*;
 
+import java.util.ArrayList;
+
+/**
+ * Selects the tuples satisfying a conjunction of selection conditions.
+ * * The conditions are compiled into predicates when the operator is opened
+ * * and each predicate filters a whole input page at a time
+ */
 public class Select extends Operator {
 
-    Operator base;  // Base operator
-    Condition con;  // Select condition
-    int batchsize;  // Number of tuples per outbatch
+    Operator base;                       // Base operator
+    ArrayList<Condition> conditionList;  // Select conditions, all of them must hold
+    int batchsize;                       // Number of tuples per outbatch
 
     /**
      * The following fields are required during
      * * execution of the select operator
      **/
-    boolean eos;     // Indicate whether end of stream is reached or not
-    Batch inbatch;   // This is the current input buffer
-    Batch outbatch;  // This is the current output buffer
-    int start;       // Cursor position in the input buffer
+    boolean eos;              // Indicate whether end of stream is reached or not
+    Batch inbatch;            // This is the current input buffer
+    Batch outbatch;           // This is the current output buffer
+    Predicate[] predicates;   // The compiled conditions
+    CodeGen.Filter generated; // Generated code evaluating all the conditions, null if not enabled
+    int[] selected;           // Indices of the tuples of inbatch satisfying the conditions
+    int numSelected;          // Number of entries used in selected
+    int start;                // Cursor position in selected
 
     /**
      * constructor
@@ -27,7 +38,14 @@ public class Select extends Operator {
     public Select(Operator base, Condition con, int type) {
         super(type);
         this.base = base;
-        this.con = con;
+        this.conditionList = new ArrayList<>();
+        conditionList.add(con);
+    }
+
+    public Select(Operator base, ArrayList<Condition> conditionList, int type) {
+        super(type);
+        this.base = base;
+        this.conditionList = conditionList;
     }
 
     public Operator getBase() {
@@ -38,12 +56,22 @@ public class Select extends Operator {
         this.base = base;
     }
 
+    /** The first condition, the only one unless selections were merged **/
     public Condition getCondition() {
-        return con;
+        return conditionList.get(0);
     }
 
     public void setCondition(Condition cn) {
-        this.con = cn;
+        conditionList = new ArrayList<>();
+        conditionList.add(cn);
+    }
+
+    public ArrayList<Condition> getConditionList() {
+        return conditionList;
+    }
+
+    public void setConditionList(ArrayList<Condition> conditionList) {
+        this.conditionList = conditionList;
     }
 
     /**
@@ -51,11 +79,19 @@ public class Select extends Operator {
      **/
     public boolean open() {
         eos = false;  // Since the stream is just opened
-        start = 0;    // Set the cursor to starting position in input buffer
+        start = 0;    // Set the cursor to starting position in selected
+        numSelected = 0;
 
         /** Set number of tuples per page**/
         int tuplesize = schema.getTupleSize();
-        batchsize = Batch.getPageSize() / tuplesize;
+        batchsize = Math.max(1, Batch.getPageSize() / tuplesize);
+
+        /** Resolve the attributes and constants once for all tuples **/
+        predicates = new Predicate[conditionList.size()];
+        for (int i = 0; i < predicates.length; ++i) {
+            predicates[i] = Predicate.compile(conditionList.get(i), schema);
+        }
+        generated = CodeGen.isEnabled() ? CodeGen.filter(predicates) : null;
 
         if (base.open())
             return true;
@@ -69,7 +105,6 @@ public class Select extends Operator {
      * * NOTE: This operation is performed on the fly
      **/
     public Batch next() {
-        int i = 0;
         if (eos) {
             close();
             return null;
@@ -82,147 +117,98 @@ public class Select extends Operator {
          ** the output buffer is full
          **/
         while (!outbatch.isFull()) {
-            if (start == 0) {
+            if (start == numSelected) {
                 inbatch = base.next();
                 /** There is no more incoming pages from base operator **/
                 if (inbatch == null) {
                     eos = true;
                     return outbatch;
                 }
+                filterBatch();
             }
 
-            /** Continue this for loop until this page is fully observed
-             ** or the output buffer is full
+            /** Copy the selected tuples until this page is fully
+             ** observed or the output buffer is full
              **/
-            for (i = start; i < inbatch.size() && (!outbatch.isFull()); ++i) {
-                Tuple present = inbatch.get(i);
-                /** If the condition is satisfied then
-                 ** this tuple is added tot he output buffer
-                 **/
-                if (checkCondition(present))
-                    outbatch.add(present);
+            while (start < numSelected && !outbatch.isFull()) {
+                outbatch.add(inbatch.get(selected[start++]));
             }
-
-            /** Modify the cursor to the position requierd
-             ** when the base operator is called next time;
-             **/
-            if (i == inbatch.size())
-                start = 0;
-            else
-                start = i;
         }
         return outbatch;
     }
 
     /**
-     * closes the output connection
-     * * i.e., no more pages to output
+     * Runs every predicate over the new input page, leaving the
+     * * indices of the tuples satisfying all of them in selected
      **/
-    public boolean close() {
-        base.close();    // Added base.close
-        return true;
+    private void filterBatch() {
+        int n = inbatch.size();
+        if (selected == null || selected.length < n) {
+            selected = new int[n];
+        }
+        for (int i = 0; i < n; ++i) {
+            selected[i] = i;
+        }
+        if (generated != null) {
+            n = generated.filter(inbatch, selected, n);
+        } else {
+            for (int p = 0; p < predicates.length && n > 0; ++p) {
+                n = predicates[p].filter(inbatch, selected, n);
+            }
+        }
+        numSelected = n;
+        start = 0;
     }
 
     /**
-     * To check whether the selection condition is satisfied for
-     * * the present tuple
+     * Vectorized next - filters the columns of the incoming pages into
+     * * a selection vector, the rows themselves are never copied
      **/
-    protected boolean checkCondition(Tuple tuple) {
-        Attribute attr = con.getLhs();
-        int index = schema.indexOf(attr);
-        int datatype = schema.typeOf(attr);
-        Object srcValue = tuple.dataAt(index);
-        int exprtype = con.getExprType();
-
-        if (datatype == Attribute.INT) {
-            int srcVal = ((Integer) srcValue).intValue();
-            int checkVal = 0;
-            if (con.getRhs() instanceof String) {
-                checkVal = Integer.parseInt((String) con.getRhs());
-            } else if (con.getRhs() instanceof Attribute) {
-                checkVal = ((Integer) tuple.dataAt(schema.indexOf((Attribute) con.getRhs()))).intValue();
-            } else {
-                System.out.println("Select: Malformed condition");
-            }
-            if (exprtype == Condition.LESSTHAN) {
-                if (srcVal < checkVal)
-                    return true;
-            } else if (exprtype == Condition.GREATERTHAN) {
-                if (srcVal > checkVal)
-                    return true;
-            } else if (exprtype == Condition.LTOE) {
-                if (srcVal <= checkVal)
-                    return true;
-            } else if (exprtype == Condition.GTOE) {
-                if (srcVal >= checkVal)
-                    return true;
-            } else if (exprtype == Condition.EQUAL) {
-                if (srcVal == checkVal)
-                    return true;
-            } else if (exprtype == Condition.NOTEQUAL) {
-                if (srcVal != checkVal)
-                    return true;
-            } else {
-                System.out.println("Select: Incorrect condition operator");
-            }
-        } else if (datatype == Attribute.STRING) {
-            String srcVal = (String) srcValue;
-            int flag = 0;
-            if (con.getRhs() instanceof String) {
-                flag = srcVal.compareTo((String) con.getRhs());
-            } else if (con.getRhs() instanceof Attribute) {
-                flag = srcVal.compareTo(((String) tuple.dataAt(schema.indexOf((Attribute) con.getRhs()))));
-            } else {
-                System.out.println("Select: Malformed condition");
+    public ColumnBatch nextVector() {
+        ColumnBatch vector;
+        while ((vector = base.nextVector()) != null) {
+            filterVector(vector);
+            if (vector.numSelected() > 0) {
+                return vector;
             }
-            if (exprtype == Condition.LESSTHAN) {
-                if (flag < 0) return true;
-            } else if (exprtype == Condition.GREATERTHAN) {
-                if (flag > 0) return true;
-            } else if (exprtype == Condition.LTOE) {
-                if (flag <= 0) return true;
-            } else if (exprtype == Condition.GTOE) {
-                if (flag >= 0) return true;
-            } else if (exprtype == Condition.EQUAL) {
-                if (flag == 0) return true;
-            } else if (exprtype == Condition.NOTEQUAL) {
-                if (flag != 0) return true;
-            } else {
-                System.out.println("Select: Incorrect condition operator");
-            }
-        } else if (datatype == Attribute.REAL) {
-            float srcVal = ((Float) srcValue).floatValue();
-            float checkVal = 0;
-            if (con.getRhs() instanceof String) {
-                checkVal = Float.parseFloat((String) con.getRhs());
-            } else if (con.getRhs() instanceof Attribute) {
-                checkVal = ((Float) tuple.dataAt(schema.indexOf((Attribute) con.getRhs()))).floatValue();
-            } else {
-                System.out.println("Select: Malformed condition");
-            }
-            if (exprtype == Condition.LESSTHAN) {
-                if (srcVal < checkVal) return true;
-            } else if (exprtype == Condition.GREATERTHAN) {
-                if (srcVal > checkVal) return true;
-            } else if (exprtype == Condition.LTOE) {
-                if (srcVal <= checkVal) return true;
-            } else if (exprtype == Condition.GTOE) {
-                if (srcVal >= checkVal) return true;
-            } else if (exprtype == Condition.EQUAL) {
-                if (srcVal == checkVal) return true;
-            } else if (exprtype == Condition.NOTEQUAL) {
-                if (srcVal != checkVal) return true;
-            } else {
-                System.out.println("Select: Incorrect condition operator");
+        }
+        return null;
+    }
+
+    /**
+     * Narrows the selection vector of the batch to the rows satisfying the conditions
+     **/
+    protected void filterVector(ColumnBatch vector) {
+        int n = vector.numSelected();
+        int[] sel = vector.getSelection();
+        if (sel == null) {
+            sel = new int[n];
+            for (int i = 0; i < n; ++i) {
+                sel[i] = i;
             }
         }
-        return false;
+        for (int p = 0; p < predicates.length && n > 0; ++p) {
+            n = predicates[p].filter(vector, sel, n);
+        }
+        vector.setSelection(sel, n);
+    }
+
+    /**
+     * closes the output connection
+     * * i.e., no more pages to output
+     **/
+    public boolean close() {
+        base.close();    // Added base.close
+        return true;
     }
 
     public Object clone() {
         Operator newbase = (Operator) base.clone();
-        Condition newcon = (Condition) con.clone();
-        Select newsel = new Select(newbase, newcon, optype);
+        ArrayList<Condition> newconds = new ArrayList<>();
+        for (Condition con : conditionList) {
+            newconds.add((Condition) con.clone());
+        }
+        Select newsel = new Select(newbase, newconds, optype);
         newsel.setSchema((Schema) newbase.getSchema().clone());
         return newsel;
     }
@@ -2,6 +2,7 @@ package qp.operators;
 import qp.utils.Attribute;
 import qp.utils.Batch;
 import qp.utils.Tuple;
+import qp.utils.TupleComparator;
 
 import java.util.ArrayList;
 import qp.utils.Condition;
@@ -14,6 +15,7 @@ public class SortMergeJoin extends Join {
     private ArrayList<Integer> leftindex = new ArrayList<>();
     private ArrayList<Integer> rightindex = new ArrayList<>();
     private ArrayList<Tuple> backup = new ArrayList<>();
+    private TupleComparator comparator;
 
     private Batch leftbatch;
     private Batch rightbatch;
@@ -31,7 +33,7 @@ public class SortMergeJoin extends Join {
     @Override
     public boolean open() {
         int tupleSize = schema.getTupleSize();
-        this.batchsize = Batch.getPageSize() / tupleSize;
+        this.batchsize = Math.max(1, Batch.getPageSize() / tupleSize);
 
         // find index attribute of join conditions
         for (Condition con : this.conditionList) {
@@ -40,14 +42,22 @@ public class SortMergeJoin extends Join {
             this.leftindex.add(left.getSchema().indexOf(leftattr));
             this.rightindex.add(right.getSchema().indexOf(rightattr));
         }
-        // sort according to the attributes
-        leftsort = new ExternalSort(left, numBuff, leftindex, "left", OpType.JOIN);
-        rightsort = new ExternalSort(right, numBuff, rightindex, "right", OpType.JOIN);
+        comparator = new TupleComparator(left.getSchema(), leftindex, rightindex);
+        // sort according to the attributes, one input after the other with all buffers of the join
+        if (!reserveBuffers(numBuff, 3)) {
+            return false;
+        }
+        leftsort = new ExternalSort(left, buffers, leftindex, "left", OpType.JOIN);
+        rightsort = new ExternalSort(right, buffers, rightindex, "right", OpType.JOIN);
+        leftsort.lendBuffers(buffers);
+        rightsort.lendBuffers(buffers);
 
         if (!leftsort.open() || !rightsort.open()) {
             System.out.println("(SortMerge) Failed to open left or right");
             return false;
         }
+        // merging reads a page of each sorted input and fills a page of output
+        shrinkBuffers(3);
         leftbatch = leftsort.next();
         rightbatch = rightsort.next();
 
@@ -58,39 +68,39 @@ public class SortMergeJoin extends Join {
     public Batch next() {
         Batch outbatch = new Batch(batchsize);
 
-        while (leftbatch != null && rightbatch != null) {
+        while (leftbatch != null) {
             Tuple lefttuple = leftbatch.get(leftcursor);
             Tuple righttuple = getRightTuple();
 
             if (fallbackcursor == -1) {
+                // the right input is done and no group of it is left to match again
+                if (righttuple == null) break;
                 // advance left and right until they are equal
-//                Debug.PPrint(leftsort.getBase().getSchema());
-//                System.out.println("Left data: " + lefttuple._data + " for " + leftindex);
-//                System.out.println("Right data: " + righttuple._data + " for " + rightindex);
-                while (Tuple.compareTuples(lefttuple, righttuple, leftindex, rightindex) < 0) {
+                while (comparator.compare(lefttuple, righttuple) < 0) {
                     advanceLeft();
                     if (leftbatch == null) break;
                     lefttuple = leftbatch.get(leftcursor);
                 }
-                while (Tuple.compareTuples(lefttuple, righttuple, leftindex, rightindex) > 0) {
+                if (leftbatch == null) break;
+                while (comparator.compare(lefttuple, righttuple) > 0) {
                     advanceRight();
-                    if (rightbatch == null) break;
                     righttuple = getRightTuple();
+                    if (righttuple == null) break;
                 }
+                if (righttuple == null) break;
                 markFallbackCursorToRight();
             }
 
-            if (Tuple.compareTuples(lefttuple, righttuple, leftindex, rightindex) == 0) {
+            if (righttuple != null && comparator.compare(lefttuple, righttuple) == 0) {
                 outbatch.add(lefttuple.joinWith(righttuple));
                 advanceRight();
-                if (rightbatch == null) break;
                 if (outbatch.isFull()) {
                     return outbatch;
                 }
             } else {
+                // the next left tuple may match the same group of right tuples
                 rightcursor = fallbackcursor;
                 advanceLeft();
-                if (leftbatch == null) break;
                 fallbackcursor = -1;
             }
         }
@@ -105,20 +115,20 @@ public class SortMergeJoin extends Join {
 
     @Override
     public boolean close() {
+        releaseBuffers();
         leftsort.close();
         rightsort.close();
         return true;
     }
 
+    // the right tuples are those kept in backup followed by those of rightbatch, null past the end of the input
     private Tuple getRightTuple() {
-        if (backup.size() == 0) {
-            return rightbatch.get(rightcursor);
+        if (rightcursor < backup.size()) {
+            return backup.get(rightcursor);
+        } else if (rightbatch == null) {
+            return null;
         } else {
-            if (rightcursor < backup.size()) {
-                return backup.get(rightcursor);
-            } else {
-                return rightbatch.get(rightcursor - backup.size());
-            }
+            return rightbatch.get(rightcursor - backup.size());
         }
     }
 
@@ -141,20 +151,23 @@ public class SortMergeJoin extends Join {
     }
 
     private void markFallbackCursorToRight() {
-        // mark fall back cursor with position of right cursor
+        // mark fall back cursor with position of right cursor, only the backup tuples before it can be dropped
         if (rightcursor >= backup.size()) {
             rightcursor -= backup.size();
+            backup.clear();
+        } else {
+            backup.subList(0, rightcursor).clear();
+            rightcursor = 0;
         }
         fallbackcursor = rightcursor;
-        backup.clear();
     }
 
     private void printStatus() {
         if (leftbatch == null || rightbatch == null) {
             return;
         }
-        System.out.println("Left " + leftcursor + ": " + leftbatch.get(leftcursor)._data +
-                " Right " + rightcursor + ": " + getRightTuple()._data);
+        System.out.println("Left " + leftcursor + ": " + leftbatch.get(leftcursor).data() +
+                " Right " + rightcursor + ": " + getRightTuple().data());
     }
 }
 
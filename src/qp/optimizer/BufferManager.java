@@ -1,19 +1,26 @@
 /**
- * simple buffer manager that distributes the buffers equally among all the join operators
+ * buffer manager that holds the number of buffers of the query, which the
+ * memory broker divides among the joins and sorts of the plan
  **/
 
 package qp.optimizer;
 
+import qp.operators.Exchange;
+import qp.utils.BufferPool;
+
 public class BufferManager {
 
     public static int numBuffer;
     public static int numJoin;
 
-    public static int buffPerJoin;
+    public static int buffPerJoin;  // Equal share of the buffers per join, sizes the workers of partitioned joins
+
+    static int poolFrames = 0;  // Frames of the buffer pool, never fewer than numBuffer
 
     public BufferManager(int numBuffer, int numJoin) {
         BufferManager.numBuffer = numBuffer;
         BufferManager.numJoin = numJoin;
+        BufferPool.getPool().setCapacity(Math.max(poolFrames, numBuffer));
         if (numJoin == 0) {
             buffPerJoin = 3;
         } else {
@@ -21,8 +28,25 @@ public class BufferManager {
         }
     }
 
+    /**
+     * Gives the buffer pool more frames than the buffers of the query, the
+     * * frames not reserved by operators cache pages of the tables
+     **/
+    public static void setPoolFrames(int frames) {
+        poolFrames = Math.max(0, frames);
+    }
+
     public static int getBuffersPerJoin() {
         return buffPerJoin;
     }
 
+    /**
+     * Number of workers an equijoin is split into, each joining one hash
+     * * partition of both inputs with its share of the join's buffers.
+     * * Every worker keeps the 3 buffers a join needs at least.
+     **/
+    public static int getWorkersPerJoin() {
+        return Math.max(1, Math.min(Exchange.getParallelism(), buffPerJoin / 3));
+    }
+
 }
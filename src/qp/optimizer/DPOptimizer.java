@@ -0,0 +1,246 @@
+/**
+ * performs dynamic programming optimization of the join order, as in System R
+ **/
+
+package qp.optimizer;
+
+import qp.operators.*;
+import qp.utils.Attribute;
+import qp.utils.Condition;
+import qp.utils.SQLQuery;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class DPOptimizer {
+
+    static int maxJoins = 10;  // Most joins a query may have to be optimized by dynamic programming
+
+    SQLQuery sqlquery;         // Vector of Vectors of Select + From + Where + GroupBy
+    ArrayList<String> tables;  // Tables of the from list, table i is bit i of a subset
+    Operator[] leaves;         // Scan of each table with its selections
+    ArrayList<Condition> joinlist;  // Join conditions of the query
+    PlanCost pc;
+
+    /**
+     * Best plans of each subset of the tables that can be joined without a
+     * * cartesian product: the cheapest plan, keyed by the empty string, and
+     * * the cheapest plan returning its tuples sorted on an attribute that a
+     * * later join may use, keyed by the attribute
+     **/
+    HashMap<Integer, HashMap<String, Entry>> memo;
+
+    public DPOptimizer(SQLQuery sqlquery) {
+        this.sqlquery = sqlquery;
+    }
+
+    /**
+     * Queries with more joins are left to the randomized optimizer
+     **/
+    public static void setMaxJoins(int joins) {
+        maxJoins = joins;
+    }
+
+    public static int getMaxJoins() {
+        return maxJoins;
+    }
+
+    /**
+     * Enumerates the join trees bottom up, left deep and bushy, and returns
+     * * the cheapest plan, or null if the tables cannot all be joined by the
+     * * join conditions
+     **/
+    public Operator getOptimizedPlan() {
+        System.out.println("\n(DPOptimizer) <getOptimizedPlan>");
+        Enumerator plan = new Enumerator(sqlquery);
+        Operator root = plan.prepareInitialPlan();
+        if (plan.numJoin != 0 && plan.best == null) {
+            return null;
+        }
+        /** the operators above the joins still have the schema of the initial plan **/
+        RandomOptimizer.modifySchema(root);
+        return root;
+    }
+
+    /**
+     * Builds the plan of the query as the random initial plan does, with
+     * * the joins found by the enumeration
+     **/
+    private class Enumerator extends RandomInitialPlan {
+
+        Operator best;  // Cheapest join tree of all tables
+
+        Enumerator(SQLQuery sqlquery) {
+            super(sqlquery);
+        }
+
+        public void createJoinOp() {
+            tables = fromlist;
+            leaves = new Operator[tables.size()];
+            for (int i = 0; i < leaves.length; ++i) {
+                leaves[i] = tab_op_hash.get(tables.get(i));
+            }
+            DPOptimizer.this.joinlist = joinlist;
+            best = enumerate();
+            if (best != null) {
+                root = best;
+            }
+        }
+    }
+
+    private Operator enumerate() {
+        int n = tables.size();
+        pc = new PlanCost();
+        memo = new HashMap<>();
+        for (int i = 0; i < n; ++i) {
+            HashMap<String, Entry> plans = new HashMap<>();
+            plans.put("", new Entry(leaves[i], 0));
+            memo.put(1 << i, plans);
+        }
+
+        /** Subsets in order of their size, each from pairs of smaller ones **/
+        int all = (1 << n) - 1;
+        for (int size = 2; size <= n; ++size) {
+            for (int set = 1; set <= all; ++set) {
+                if (Integer.bitCount(set) != size) {
+                    continue;
+                }
+                for (int left = (set - 1) & set; left > 0; left = (left - 1) & set) {
+                    int right = set & ~left;
+                    if (memo.containsKey(left) && memo.containsKey(right)) {
+                        joinPlans(set, left, right);
+                    }
+                }
+            }
+        }
+        HashMap<String, Entry> plans = memo.get(all);
+        if (plans == null) {
+            System.out.println("(DPOptimizer) the join conditions do not connect all tables");
+            return null;
+        }
+        Operator root = plans.get("").plan;
+        numberJoins(root, 0);
+        return root;
+    }
+
+    /**
+     * Joins the plans of the left subset with those of the right subset by
+     * * every join method, keeping the cheapest plans of the union
+     **/
+    private void joinPlans(int set, int left, int right) {
+        ArrayList<Condition> conditions = conditionsBetween(left, right);
+        if (conditions.isEmpty()) {
+            return;
+        }
+        for (Entry leftplan : memo.get(left).values()) {
+            for (Entry rightplan : memo.get(right).values()) {
+                for (int method = 0; method < JoinType.numJoinTypes(); ++method) {
+                    ArrayList<Condition> joinconditions = new ArrayList<>();
+                    for (Condition con : conditions) {
+                        joinconditions.add((Condition) con.clone());
+                    }
+                    Join join = new Join(leftplan.plan, rightplan.plan, joinconditions, OpType.JOIN);
+                    join.setSchema(leftplan.plan.getSchema().joinWith(rightplan.plan.getSchema()));
+                    join.setJoinType(method);
+                    long cost = pc.getCost(join, buffersOf(set));
+                    if (cost == Long.MAX_VALUE) {
+                        continue;
+                    }
+                    keep(set, "", join, cost);
+                    if (method == JoinType.SORTMERGE) {
+                        Condition con = join.getCondition();
+                        keepOrder(set, con.getLhs(), join, cost);
+                        keepOrder(set, (Attribute) con.getRhs(), join, cost);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The buffers a plan of the subset gets once it is part of the plan of
+     * * all tables: an equal share per join of the joins in the subset
+     **/
+    private int buffersOf(int set) {
+        if (set == (1 << tables.size()) - 1) {
+            return BufferManager.numBuffer;
+        }
+        int joins = Integer.bitCount(set) - 1;
+        return Math.min(BufferManager.numBuffer, joins * BufferManager.getBuffersPerJoin());
+    }
+
+    /**
+     * A plan sorted on an attribute is kept only while a join with the
+     * * tables outside the subset may use the order
+     **/
+    private void keepOrder(int set, Attribute attr, Join join, long cost) {
+        for (Condition con : joinlist) {
+            Attribute lhs = con.getLhs();
+            Attribute rhs = (Attribute) con.getRhs();
+            boolean inleft = (set & bitOf(lhs)) != 0;
+            boolean inright = (set & bitOf(rhs)) != 0;
+            if (inleft != inright && (attr.equals(lhs) || attr.equals(rhs))) {
+                keep(set, attr.toString(), join, cost);
+                return;
+            }
+        }
+    }
+
+    private void keep(int set, String order, Operator plan, long cost) {
+        HashMap<String, Entry> plans = memo.computeIfAbsent(set, k -> new HashMap<>());
+        Entry entry = plans.get(order);
+        if (entry == null || cost < entry.cost) {
+            plans.put(order, new Entry(plan, cost));
+        }
+    }
+
+    /**
+     * The join conditions with one table on each side, turned around when
+     * * their left hand side is in the right subset
+     **/
+    private ArrayList<Condition> conditionsBetween(int left, int right) {
+        ArrayList<Condition> conditions = new ArrayList<>();
+        for (Condition con : joinlist) {
+            int lhs = bitOf(con.getLhs());
+            int rhs = bitOf((Attribute) con.getRhs());
+            if ((left & lhs) != 0 && (right & rhs) != 0) {
+                conditions.add(con);
+            } else if ((right & lhs) != 0 && (left & rhs) != 0) {
+                conditions.add(con.getFlippedCondition());
+            }
+        }
+        return conditions;
+    }
+
+    private int bitOf(Attribute attr) {
+        int i = tables.indexOf(attr.getTabName());
+        return i < 0 ? 0 : 1 << i;
+    }
+
+    /**
+     * Numbers the joins of the plan in preorder, returns the next number
+     **/
+    private int numberJoins(Operator node, int num) {
+        if (node.getOpType() != OpType.JOIN) {
+            return num;
+        }
+        Join join = (Join) node;
+        join.setNodeIndex(num);
+        num = numberJoins(join.getLeft(), num + 1);
+        return numberJoins(join.getRight(), num);
+    }
+
+    /**
+     * A plan of a subset and its cost
+     **/
+    static class Entry {
+        final Operator plan;
+        final long cost;
+
+        Entry(Operator plan, long cost) {
+            this.plan = plan;
+            this.cost = cost;
+        }
+    }
+
+}
@@ -8,15 +8,17 @@ package qp.optimizer;
 import qp.operators.*;
 import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.Catalog;
+import qp.utils.ColumnStats;
 import qp.utils.Condition;
+import qp.utils.MemoryBroker;
 import qp.utils.Schema;
 
 import javax.swing.*;
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.StringTokenizer;
+import java.util.IdentityHashMap;
 
 import static java.lang.Math.ceil;
 import static java.lang.Math.log;
@@ -39,9 +41,35 @@ public class PlanCost {
      **/
     HashMap<Attribute, Long> ht;
 
+    /**
+     * Distribution of the values of the attributes of the tables scanned,
+     * * for those whose table was analyzed
+     **/
+    HashMap<Attribute, ColumnStats> columns;
+
+    /**
+     * The buffers asked for by the joins and sorts of the plan,
+     * * and the buffers granted to them once divided
+     **/
+    IdentityHashMap<Operator, MemoryBroker.Demand> demands;
+    boolean divided;
+    int budget;  // Buffers divided among the demands of the plan
+
+    /**
+     * Estimates of the subtrees costed before, keyed by their signature:
+     * * the optimizers cost many plans that share most of their subtrees,
+     * * whose statistics are then looked up instead of computed again
+     **/
+    HashMap<String, Estimate> estimates;
+    IdentityHashMap<Operator, String> signatures;  // Signature of each node of the plan being costed
+
 
     public PlanCost() {
         ht = new HashMap<>();
+        columns = new HashMap<>();
+        demands = new IdentityHashMap<>();
+        estimates = new HashMap<>();
+        signatures = new IdentityHashMap<>();
         cost = 0;
     }
 
@@ -49,12 +77,39 @@ public class PlanCost {
      * Returns the cost of the plan
      **/
     public long getCost(Operator root) {
+        return getCost(root, BufferManager.numBuffer);
+    }
+
+    /**
+     * Returns the cost of the plan run with the given number of buffers,
+     * * such as the share of the query's buffers a subplan will get
+     **/
+    public long getCost(Operator root, int buffers) {
         cost = 0;
         isFeasible = true;
+        budget = buffers;
         System.out.println("\n(PlanCost) <getCost>");
         System.out.println("(PlanCost) <getCost> Find Plan's Optype: " + root.getOpType());
 
-        numtuple = calculateCost(root);
+        /** The first pass estimates the inputs of the joins and sorts and
+         ** what they ask for, the buffers of the query are divided among
+         ** them, and the second pass costs the plan with the grants
+         **/
+        demands = new IdentityHashMap<>();
+        signatures = new IdentityHashMap<>();
+        divided = false;
+        ht.clear();
+        calculateCost(root);
+        if (isFeasible && heldTogether(root, new IdentityHashMap<>())[0] > budget) {
+            isFeasible = false;
+        }
+        if (isFeasible && !MemoryBroker.divide(budget, new ArrayList<>(demands.values()))) {
+            isFeasible = false;
+        }
+        divided = true;
+        cost = 0;
+        ht.clear();
+        numtuple = isFeasible ? calculateCost(root) : 0;
         System.out.println("(PlanCost) <getCost> Find numtuples: " + numtuple);
 
         if (isFeasible) {
@@ -72,11 +127,70 @@ public class PlanCost {
         return numtuple;
     }
 
+    /**
+     * The buffers asked for by a join or sort of the last plan costed
+     * * and granted to it, null for other operators
+     **/
+    public MemoryBroker.Demand getDemand(Operator node) {
+        return demands.get(node);
+    }
 
     /**
-     * Returns number of tuples in the root
+     * Number of buffers granted to the joins and sorts of the last plan costed
+     **/
+    public int getPlannedBuffers() {
+        int planned = 0;
+        for (MemoryBroker.Demand demand : demands.values()) {
+            planned += demand.getGrant();
+        }
+        return planned;
+    }
+
+
+    /**
+     * Returns number of tuples in the root. A subtree estimated before is
+     * * not walked again: its statistics are restored and the buffers its
+     * * joins and sorts ask for registered, and once the buffers are divided
+     * * its cost is reused if they got the same grants as before.
      **/
     protected long calculateCost(Operator node) {
+        String sig = signature(node);
+        Estimate est = sig == null ? null : estimates.get(sig);
+        String grants = null;
+        if (est != null && !divided) {
+            registerDemands(node);
+            ht.putAll(est.distinct);
+            columns.putAll(est.columns);
+            return est.tuples;
+        } else if (est != null) {
+            StringBuilder key = new StringBuilder();
+            appendGrants(node, key);
+            grants = key.toString();
+            Long subtreecost = est.costs.get(grants);
+            if (subtreecost != null) {
+                ht.putAll(est.distinct);
+                columns.putAll(est.columns);
+                cost = cost + subtreecost;
+                return est.tuples;
+            }
+        }
+
+        long costBefore = cost;
+        long tuples = estimate(node);
+        if (sig != null && isFeasible) {
+            if (!divided) {
+                estimates.put(sig, new Estimate(tuples, distinctValues(node.getSchema()), distributions(node.getSchema()), demands.get(node)));
+            } else if (est != null) {
+                est.costs.put(grants, cost - costBefore);
+            }
+        }
+        return tuples;
+    }
+
+    /**
+     * Dispatches on the type of the operator
+     **/
+    private long estimate(Operator node) {
         if (node.getOpType() == OpType.JOIN) {
             return getStatistics((Join) node);
         } else if (node.getOpType() == OpType.DISTINCT) {
@@ -90,12 +204,263 @@ public class PlanCost {
         } else if (node.getOpType() == OpType.GROUPBY) {
             System.out.println("(PlanCost) <calculateCost> Entered OpType.GROUPBY if branch");
             return getStatistics((GroupBy) node);
+        } else if (node.getOpType() == OpType.EXCHANGE) {
+            return getStatistics((Exchange) node);
         }
         System.out.println("operator is not supported");
         isFeasible = false;
         return 0;
     }
 
+    /**
+     * The signature of a subtree: its operators, their conditions, join
+     * * methods and attributes, and the tables scanned, so that subtrees of
+     * * different plans computing the same result the same way get the same
+     * * signature. Subtrees with exchanges have none and are not reused.
+     **/
+    private String signature(Operator node) {
+        if (signatures.containsKey(node)) {
+            return signatures.get(node);
+        }
+        StringBuilder sig = new StringBuilder();
+        int optype = node.getOpType();
+        if (optype == OpType.SCAN) {
+            sig.append("scan ").append(((Scan) node).getTabName());
+        } else if (optype == OpType.SELECT) {
+            sig.append("select");
+            appendConditions(((Select) node).getConditionList(), sig);
+        } else if (optype == OpType.PROJECT) {
+            sig.append("project");
+            appendAttributes(((Project) node).getProjAttr(), sig);
+        } else if (optype == OpType.JOIN) {
+            sig.append("join ").append(((Join) node).getJoinType());
+            appendConditions(((Join) node).getConditionList(), sig);
+        } else if (optype == OpType.DISTINCT) {
+            sig.append("distinct");
+        } else if (optype == OpType.GROUPBY) {
+            sig.append("groupby");
+            appendAttributes(node.getSchema().getAttList(), sig);
+        } else {
+            signatures.put(node, null);
+            return null;
+        }
+        sig.append('(');
+        for (Operator input : inputs(node)) {
+            String inputsig = signature(input);
+            if (inputsig == null) {
+                signatures.put(node, null);
+                return null;
+            }
+            sig.append(inputsig).append(',');
+        }
+        sig.append(')');
+        signatures.put(node, sig.toString());
+        return sig.toString();
+    }
+
+    private void appendConditions(ArrayList<Condition> conditions, StringBuilder sig) {
+        for (Condition con : conditions) {
+            sig.append(' ').append(con.getLhs()).append(' ').append(con.getExprType()).append(' ');
+            if (con.getRhs() instanceof Attribute) {
+                sig.append('@').append(con.getRhs());
+            } else {
+                /** The length keeps constants containing a space apart from the next condition **/
+                String value = String.valueOf(con.getRhs());
+                sig.append(value.length()).append(':').append(value);
+            }
+        }
+    }
+
+    private void appendAttributes(ArrayList<Attribute> attrs, StringBuilder sig) {
+        for (Attribute attr : attrs) {
+            sig.append(' ').append(attr);
+        }
+    }
+
+    private static Operator[] inputs(Operator node) {
+        int optype = node.getOpType();
+        if (optype == OpType.JOIN) {
+            return new Operator[]{((Join) node).getLeft(), ((Join) node).getRight()};
+        } else if (optype == OpType.SELECT) {
+            return new Operator[]{((Select) node).getBase()};
+        } else if (optype == OpType.PROJECT) {
+            return new Operator[]{((Project) node).getBase()};
+        } else if (optype == OpType.DISTINCT) {
+            return new Operator[]{((Distinct) node).getBase()};
+        } else if (optype == OpType.GROUPBY) {
+            return new Operator[]{((GroupBy) node).getBase()};
+        }
+        return new Operator[0];
+    }
+
+    /**
+     * The buffers the joins and sorts of a subtree hold when each gets its
+     * * minimum: the most held at once while it opens and produces, and
+     * * those still held once it is open. A join reserves its buffers
+     * * before it opens its inputs and reads the right one to its end
+     * * first, except the block nested join, which reserves after that.
+     * * Sort merge and the sorts read their inputs to the end as they open,
+     * * the sorts then keep a single buffer. Exchanges run their input on
+     * * threads of their own, at the same time as anything else, so it may
+     * * hold its peak all along; the input of a repartition is counted
+     * * once for all its outputs.
+     **/
+    private long[] heldTogether(Operator node, IdentityHashMap<Operator, Boolean> counted) {
+        MemoryBroker.Demand demand = demands.get(node);
+        long own = demand == null ? 0 : demand.getMinimum();
+        int optype = node.getOpType();
+        if (optype == OpType.JOIN) {
+            Join join = (Join) node;
+            long[] left = joinInput(join.getLeft(), counted);
+            long[] right = joinInput(join.getRight(), counted);
+            if (workersOf(join) > 1) {
+                long peak = own + left[0] + right[0];
+                return new long[]{peak, peak};
+            } else if (join.getJoinType() == JoinType.SORTMERGE) {
+                return new long[]{own + Math.max(left[0], right[0]), own};
+            } else if (join.getJoinType() == JoinType.BLOCKNESTED) {
+                return new long[]{Math.max(right[0], own + left[0]), own + left[1]};
+            }
+            return new long[]{own + Math.max(left[0], right[0]), own + left[1]};
+        } else if (optype == OpType.DISTINCT || optype == OpType.GROUPBY) {
+            long[] base = heldTogether(inputs(node)[0], counted);
+            return new long[]{Math.max(base[0], own + base[1]), Math.min(own, 1)};
+        } else if (optype == OpType.EXCHANGE) {
+            ArrayList<Operator> producers = new ArrayList<>();
+            if (node instanceof Gather) {
+                producers.addAll(((Gather) node).getProducers());
+            } else if (node instanceof ParallelScan) {
+                producers.add(((ParallelScan) node).getBase());
+            } else {
+                Repartition split = ((Repartition.Output) node).getExchange();
+                if (counted.put(split, Boolean.TRUE) == null) {
+                    producers.add(split.getBase());
+                }
+            }
+            long peak = 0;
+            for (Operator producer : producers) {
+                peak += heldTogether(producer, counted)[0];
+            }
+            return new long[]{peak, peak};
+        }
+        long[] held = {own, own};
+        for (Operator input : inputs(node)) {
+            long[] in = heldTogether(input, counted);
+            held[0] += in[0];
+            held[1] += in[1];
+        }
+        return held;
+    }
+
+    /**
+     * With more than one thread the execution plan runs the inputs of a
+     * * join that are not paged tables behind an exchange
+     **/
+    private long[] joinInput(Operator input, IdentityHashMap<Operator, Boolean> counted) {
+        long[] held = heldTogether(input, counted);
+        if (Exchange.getParallelism() > 1 && !(input instanceof PageScan) && input.getOpType() != OpType.EXCHANGE) {
+            return new long[]{held[0], held[0]};
+        }
+        return held;
+    }
+
+    /**
+     * Number of workers a join is partitioned into, 1 if it is not
+     **/
+    private long workersOf(Join node) {
+        if (!(node.getLeft() instanceof Repartition.Output) && RandomOptimizer.isEquiJoin(node)) {
+            return BufferManager.getWorkersPerJoin();
+        }
+        return 1;
+    }
+
+    /**
+     * Registers the buffers asked for by the joins and sorts of a subtree
+     * * estimated before, as the same operators of the earlier plan did
+     **/
+    private void registerDemands(Operator node) {
+        Estimate est = estimates.get(signature(node));
+        if (est.minimum > 0) {
+            demands.put(node, demand(est.minimum, est.preferred));
+        }
+        for (Operator input : inputs(node)) {
+            registerDemands(input);
+        }
+    }
+
+    /**
+     * The grants of the joins and sorts of a subtree in preorder
+     **/
+    private void appendGrants(Operator node, StringBuilder key) {
+        MemoryBroker.Demand demand = demands.get(node);
+        if (demand != null) {
+            key.append(demand.getGrant()).append(',');
+        }
+        for (Operator input : inputs(node)) {
+            appendGrants(input, key);
+        }
+    }
+
+    /**
+     * The distinct values of the attributes of the schema as estimated so far
+     **/
+    private HashMap<Attribute, Long> distinctValues(Schema schema) {
+        HashMap<Attribute, Long> distinct = new HashMap<>();
+        for (int i = 0; i < schema.getNumCols(); ++i) {
+            Attribute attr = schema.getAttribute(i);
+            Long values = ht.get(attr);
+            if (values != null) {
+                distinct.put(attr, values);
+            }
+        }
+        return distinct;
+    }
+
+    /**
+     * The distributions of the attributes of the schema as estimated so far
+     **/
+    private HashMap<Attribute, ColumnStats> distributions(Schema schema) {
+        HashMap<Attribute, ColumnStats> stats = new HashMap<>();
+        for (int i = 0; i < schema.getNumCols(); ++i) {
+            Attribute attr = schema.getAttribute(i);
+            ColumnStats column = columns.get(attr);
+            if (column != null) {
+                stats.put(attr, column);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Exchanges only move pages between threads, they pass on the
+     * * statistics of their input at no cost. The outputs of a split
+     * * exchange share its input, whose cost is counted by the first
+     * * output; each output gets its share of the tuples.
+     **/
+    protected long getStatistics(Exchange node) {
+        if (node instanceof ParallelScan) {
+            return calculateCost(((ParallelScan) node).getBase());
+        }
+        if (node instanceof Gather) {
+            long tuples = 0;
+            for (Operator producer : ((Gather) node).getProducers()) {
+                tuples += calculateCost(producer);
+            }
+            return tuples;
+        }
+        Repartition.Output output = (Repartition.Output) node;
+        Repartition split = output.getExchange();
+        long costBefore = cost;
+        long tuples = calculateCost(split.getBase());
+        if (output.getIndex() > 0) {
+            cost = costBefore;
+        }
+        if (split instanceof Broadcast) {
+            return tuples;
+        }
+        return (long) ceil(tuples / (double) split.getNumOutputs());
+    }
+
     /**
      * Projection will not change any statistics
      * * No cost involved as done on the fly
@@ -138,10 +503,19 @@ public class PlanCost {
             leftjoinAttr = leftschema.getAttribute(leftattrind);
             rightjoinAttr = rightschema.getAttribute(rightattrind);
 
-            /** Number of distinct values of left and right join attribute **/
+            /** Number of distinct values of left and right join attribute,
+             ** and the distributions of their values if their tables were
+             ** analyzed, from which equi-joins are estimated
+             **/
             long leftattrdistn = ht.get(leftjoinAttr);
             long rightattrdistn = ht.get(rightjoinAttr);
-            tuples /= (double) Math.max(leftattrdistn, rightattrdistn);
+            ColumnStats leftstats = columns.get(leftjoinAttr);
+            ColumnStats rightstats = columns.get(rightjoinAttr);
+            if (con.getExprType() == Condition.EQUAL && leftstats != null && rightstats != null) {
+                tuples *= ColumnStats.joinFraction(leftstats, leftattrdistn, rightstats, rightattrdistn);
+            } else {
+                tuples /= (double) Math.max(leftattrdistn, rightattrdistn);
+            }
             long mindistinct = Math.min(leftattrdistn, rightattrdistn);
             ht.put(leftjoinAttr, mindistinct);
             ht.put(rightjoinAttr, mindistinct);
@@ -150,27 +524,56 @@ public class PlanCost {
 
         /** Calculate the cost of the operation **/
         int joinType = node.getJoinType();
-        long numbuff = BufferManager.getBuffersPerJoin();
         long joincost;
 
+        /** A partitioned join runs as workers joining a partition of both
+         ** inputs with their share of the join's buffers. In the execution
+         ** plan the workers are joins of their own with their own grants.
+         **/
+        long workers = workersOf(node);
+        if (workers > 1) {
+            leftpages = (long) ceil(leftpages / (double) workers);
+            rightpages = (long) ceil(rightpages / (double) workers);
+        }
+        if (!divided) {
+            demands.put(node, joinDemand(joinType, leftpages, rightpages, workers));
+            return outtuples;
+        }
+        long numbuff = demands.get(node).getGrant() / workers;
+
         switch (joinType) {
             case JoinType.NESTEDJOIN:
-                joincost = SNLJCost(leftpages, leftuplesize, rightpages);
+                joincost = SNLJCost(leftpages, leftuplesize, rightpages) + materializeCost(node, rightpages, workers);
 //                joincost = 0;
                 break;
             case JoinType.BLOCKNESTED:
-                joincost = BNLJCost(leftpages, rightpages, numbuff);
+                joincost = BNLJCost(leftpages, rightpages, numbuff) + materializeCost(node, rightpages, workers);
 //                joincost = 0;
                 break;
             case JoinType.SORTMERGE:
-                joincost = SMJCost(leftpages, rightpages, numbuff);
+                boolean leftsorted = workers == 1 && isSortedOn(node.getLeft(), node.getCondition().getLhs());
+                boolean rightsorted = workers == 1 && isSortedOn(node.getRight(), (Attribute) node.getCondition().getRhs());
+                joincost = SMJCost(leftpages, rightpages, numbuff, leftsorted, rightsorted);
 //                joincost = 0;
                 break;
+            case JoinType.HASHJOIN:
+                /** The right input is the build side and has to fit in the
+                 ** join's buffers, leaving one page for input and one for output
+                 **/
+                if (rightpages > numbuff - 2) {
+                    isFeasible = false;
+                    return 0;
+                }
+                joincost = HJCost(leftpages, rightpages);
+                break;
+            case JoinType.GRACEHASH:
+                joincost = GHJCost(leftpages, rightpages, numbuff);
+                break;
             default:
                 System.out.println("join type is not supported");
                 return 0;
         }
-        cost = cost + joincost;
+        cost = cost + workers * joincost;
 
         return outtuples;
     }
@@ -187,8 +590,18 @@ public class PlanCost {
             return Long.MAX_VALUE;
         }
 
-        Condition con = node.getCondition();
-        Schema schema = node.getSchema();
+        /** Merged selections apply their conditions one after the other **/
+        long outtuples = intuples;
+        for (Condition con : node.getConditionList()) {
+            outtuples = getStatistics(node.getSchema(), con, outtuples);
+        }
+        return outtuples;
+    }
+
+    /**
+     * Number of the incoming tuples satisfying a single selection condition
+     **/
+    private long getStatistics(Schema schema, Condition con, long intuples) {
         Attribute attr = con.getLhs();
         int index = schema.indexOf(attr);
         Attribute fullattr = schema.getAttribute(index);
@@ -200,8 +613,23 @@ public class PlanCost {
         numdistinct = temp.longValue();
 
         long outtuples;
-        /** Calculate the number of tuples in result **/
-        if (exprtype == Condition.EQUAL) {
+        /** Calculate the number of tuples in result, from the distribution
+         ** of the values of the attribute if its table was analyzed
+         **/
+        ColumnStats stats = columns.get(fullattr);
+        Object value = null;
+        if (stats != null && !(con.getRhs() instanceof Attribute)) {
+            try {
+                value = stats.parseValue((String) con.getRhs());
+            } catch (NumberFormatException e) {
+                value = null;
+            }
+        }
+        if (value != null) {
+            outtuples = (long) ceil(intuples * stats.selectivity(exprtype, value, numdistinct));
+            /** joins above see only the values the condition let through **/
+            columns.put(fullattr, stats.select(exprtype, value));
+        } else if (exprtype == Condition.EQUAL) {
             outtuples = (long) ceil((double) intuples / (double) numdistinct);
         } else if (exprtype == Condition.NOTEQUAL) {
             outtuples = (long) ceil(intuples - ((double) intuples / (double) numdistinct));
@@ -209,43 +637,117 @@ public class PlanCost {
             outtuples = (long) ceil(0.5 * intuples);
         }
 
-        /** Modify the number of distinct values of each attribute
-         ** Assuming the values are distributed uniformly along entire
-         ** relation
+        /** Modify the number of distinct values of each attribute: no
+         ** more than the tuples left, and one of the attribute compared
+         ** for equality with a constant
          **/
         for (int i = 0; i < schema.getNumCols(); ++i) {
             Attribute attri = schema.getAttribute(i);
             long oldvalue = ht.get(attri);
-            long newvalue = (long) ceil(((double) outtuples / (double) intuples) * oldvalue);
-            ht.put(attri, outtuples);
+            long newvalue = Math.max(1, Math.min(oldvalue, outtuples));
+            if (attri.equals(fullattr) && exprtype == Condition.EQUAL && !(con.getRhs() instanceof Attribute)) {
+                newvalue = 1;
+            }
+            ht.put(attri, newvalue);
         }
         return outtuples;
     }
 
+    /**
+     * Distinct and group by sort their input with the buffers granted
+     **/
     protected long getStatistics(Distinct node) {
-        long pages = calculateCost(node.getBase()) / Batch.getPageSize();
-        int numOfBuffer = BufferManager.numBuffer;
-        long distinctCost = externalSortCost(pages, numOfBuffer);
+        long tuples = calculateCost(node.getBase());
+        long pages = numPages(tuples, node.getBase().getSchema());
+        if (!divided) {
+            demands.put(node, sortDemand(pages));
+            return tuples;
+        }
+        long distinctCost = externalSortCost(pages, demands.get(node).getGrant());
         cost = cost + distinctCost;
-        return calculateCost(node.getBase());
+        return tuples;
     }
 
     protected long getStatistics(GroupBy node) {
         System.out.println("(Plan Cost) <getStatistics(GroupBy node)>");
         System.out.println("(Plan Cost) <getStatistics(GroupBy node)>: " + node.getBase().getOpType());
-        long pages = calculateCost(node.getBase()) / Batch.getPageSize();
+        long tuples = calculateCost(node.getBase());
+        long pages = numPages(tuples, node.getBase().getSchema());
         System.out.println("(Plan Cost) <getStatistics(GroupBy node)> Num Pages: " + pages);
-        int numOfBuffer = BufferManager.numBuffer;
+        if (!divided) {
+            demands.put(node, sortDemand(pages));
+            return tuples;
+        }
+        int numOfBuffer = demands.get(node).getGrant();
         System.out.println("(Plan Cost) <getStatistics(GroupBy node)> Num Buffers: " + numOfBuffer);
         long groupbyCost = externalSortCost(pages, numOfBuffer);
         System.out.println("(Plan Cost) <getStatistics(GroupBy node)> GroupBy Cost: " + groupbyCost);
         cost = cost + groupbyCost;
-        return calculateCost(node.getBase());
-}
+        return tuples;
+    }
+
+    private long numPages(long tuples, Schema schema) {
+        long capacity = Math.max(1, Batch.getPageSize() / schema.getTupleSize());
+        return (long) ceil(tuples / (double) capacity);
+    }
+
+    /**
+     * Buffers a join needs at least and those it could put to use, for
+     * * all its workers. A block nested join would read its left input in
+     * * one block, scanning its right input once as BNLJCost counts, a hash
+     * * join has to hold its right input and a hybrid hash join would like
+     * * to, sort merge sorts both inputs.
+     **/
+    protected MemoryBroker.Demand joinDemand(int joinType, long leftpages, long rightpages, long workers) {
+        long minimum = 3;
+        long preferred;
+        switch (joinType) {
+            case JoinType.BLOCKNESTED:
+                preferred = leftpages + 2;
+                break;
+            case JoinType.SORTMERGE:
+                preferred = sortBuffers(Math.max(leftpages, rightpages));
+                break;
+            case JoinType.HASHJOIN:
+                minimum = rightpages + 2;
+                preferred = minimum;
+                break;
+            case JoinType.GRACEHASH:
+                preferred = rightpages + 2;
+                break;
+            default:
+                preferred = 3;
+        }
+        return demand(workers * minimum, workers * preferred);
+    }
+
+    protected MemoryBroker.Demand sortDemand(long pages) {
+        return demand(3, sortBuffers(pages));
+    }
+
+    /**
+     * Replacement selection writes the whole input as one run when it has
+     * * buffers for half of its pages
+     **/
+    private long sortBuffers(long pages) {
+        return (long) ceil(pages / 2.0) + 1;
+    }
+
+    /**
+     * No operator gets more than the buffers of the query, and a plan with
+     * * an operator that needs more than the buffers divided is not feasible
+     **/
+    private MemoryBroker.Demand demand(long minimum, long preferred) {
+        if (minimum > budget) {
+            isFeasible = false;
+        }
+        long most = BufferManager.numBuffer;
+        return new MemoryBroker.Demand((int) Math.min(minimum, most), (int) Math.min(preferred, most));
+    }
 
     /**
      * The statistics file <tablename>.stat to find the statistics
-     * * about that table;
+     * * about that table, as kept by the catalog;
      * * This table contains number of tuples in the table
      * * number of distinct values of each attribute
      **/
@@ -254,45 +756,24 @@ public class PlanCost {
         String filename = tablename + ".stat";
         Schema schema = node.getSchema();
         int numAttr = schema.getNumCols();
-        BufferedReader in = null;
-        try {
-            in = new BufferedReader(new FileReader(filename));
-        } catch (IOException io) {
-            System.out.println("Error in opening file" + filename);
-            System.exit(1);
-        }
-        String line = null;
-
-        // First line = number of tuples
-        try {
-            line = in.readLine();
-        } catch (IOException io) {
-            System.out.println("Error in readin first line of " + filename);
-            System.exit(1);
-        }
-        StringTokenizer tokenizer = new StringTokenizer(line);
-        if (tokenizer.countTokens() != 1) {
-            System.out.println("incorrect format of statastics file " + filename);
-            System.exit(1);
-        }
-        String temp = tokenizer.nextToken();
-        long numtuples = Long.parseLong(temp);
+        Catalog.TableStats stats = null;
         try {
-            line = in.readLine();
+            stats = Catalog.getCatalog().getStatistics(tablename);
         } catch (IOException io) {
-            System.out.println("error in reading second line of " + filename);
+            System.out.println("Error in reading " + filename + ": " + io.getMessage());
             System.exit(1);
         }
-        tokenizer = new StringTokenizer(line);
-        if (tokenizer.countTokens() != numAttr) {
+        if (stats.getNumAttributes() != numAttr) {
             System.out.println("incorrect format of statastics file " + filename);
             System.exit(1);
         }
+        long numtuples = stats.getNumTuples();
         for (int i = 0; i < numAttr; ++i) {
             Attribute attr = schema.getAttribute(i);
-            temp = tokenizer.nextToken();
-            Long distinctValues = Long.valueOf(temp);
-            ht.put(attr, distinctValues);
+            ht.put(attr, stats.getDistinct(i));
+            if (stats.getColumn(i) != null) {
+                columns.put(attr, stats.getColumn(i));
+            }
         }
 
         /** Number of tuples per page**/
@@ -301,44 +782,132 @@ public class PlanCost {
         long numpages = (long) ceil((double) numtuples / (double) pagesize);
 
         cost = cost + numpages;
+        return numtuples;
+    }
 
-        try {
-            in.close();
-        } catch (IOException io) {
-            System.out.println("error in closing the file " + filename);
-            System.exit(1);
+    /**
+     * Nested loop joins read the right input once per pass either way, but
+     * * write it to a file first unless it is a paged table they can scan
+     * * again, which is only the case when the join is not partitioned
+     **/
+    protected long materializeCost(Join node, long rightPages, long workers) {
+        if (workers == 1 && node.getRight() instanceof PageScan) {
+            return 0;
         }
-        return numtuples;
+        return rightPages;
     }
 
     protected long SNLJCost(long leftPages, long numOfRecordPerLeftPage, long rightPages) {
         return leftPages + (leftPages * numOfRecordPerLeftPage) * rightPages;
     }
 
+    /**
+     * The left input is read in blocks of all but two of the buffers, and
+     * * the right input is scanned once per block
+     **/
     protected long BNLJCost(long leftPages, long rightPages, long numOfBuffers) {
-        long numOfIterationsForRight = (long) ceil(rightPages / (float) numOfBuffers);
+        long numOfIterationsForRight = (long) ceil(leftPages / (double) Math.max(1, numOfBuffers - 2));
         return leftPages + numOfIterationsForRight * rightPages;
     }
 
-    protected long SMJCost(long leftPages, long rightPages, long numOfBuffers) {
+    /**
+     * An input that already comes in order is written by replacement
+     * * selection as a single run, which is read back once
+     **/
+    protected long SMJCost(long leftPages, long rightPages, long numOfBuffers, boolean leftSorted, boolean rightSorted) {
         long totalPages = leftPages + rightPages;
-        return externalSortCost(leftPages, numOfBuffers) + externalSortCost(rightPages, numOfBuffers) + totalPages;
+        long leftSort = leftSorted ? 2 * leftPages : externalSortCost(leftPages, numOfBuffers);
+        long rightSort = rightSorted ? 2 * rightPages : externalSortCost(rightPages, numOfBuffers);
+        return leftSort + rightSort + totalPages;
     }
 
-    protected long externalSortCost(long pages, long numOfBuffer) {
-        long numOfPasses = (1 + (long) ceil(log(ceil(pages / (double) numOfBuffer)) / log(numOfBuffer - 1)));
-        return 2 * pages * numOfPasses;
+    /**
+     * Whether the output of the operator comes sorted on the attribute. A
+     * * sort merge join returns its tuples in the order of its first join
+     * * attribute, on either side as they are equal, unless its workers
+     * * run in parallel. Selections and projections keep the order.
+     **/
+    public static boolean isSortedOn(Operator node, Attribute attr) {
+        if (node.getOpType() == OpType.SELECT) {
+            return isSortedOn(((Select) node).getBase(), attr);
+        } else if (node.getOpType() == OpType.PROJECT) {
+            return isSortedOn(((Project) node).getBase(), attr);
+        } else if (node.getOpType() != OpType.JOIN) {
+            return false;
+        }
+        Join join = (Join) node;
+        if (join.getJoinType() != JoinType.SORTMERGE) {
+            return false;
+        }
+        if (!(join.getLeft() instanceof Repartition.Output) && RandomOptimizer.isEquiJoin(join)
+                && BufferManager.getWorkersPerJoin() > 1) {
+            return false;
+        }
+        Condition con = join.getCondition();
+        return attr.equals(con.getLhs()) || attr.equals(con.getRhs());
     }
 
-}
-
-
-
-
-
-
-
+    protected long HJCost(long leftPages, long rightPages) {
+        return leftPages + rightPages;
+    }
 
+    /**
+     * Hybrid hash join reads both inputs once and writes and reads back the
+     * * spilled partitions, i.e. 3(M+N) when nothing stays in memory.
+     * * Partitions larger than the buffers are partitioned again.
+     **/
+    protected long GHJCost(long leftPages, long rightPages, long numOfBuffers) {
+        long totalPages = leftPages + rightPages;
+        if (rightPages <= numOfBuffers - 2) {
+            return totalPages;
+        }
+        long numOfPartitions = Math.min(numOfBuffers - 1, Math.max(2, (numOfBuffers - 1) / 2) + 1);
+        long residentPages = Math.max(0, numOfBuffers - numOfPartitions - 1);
+        double partitionPages = rightPages / (double) numOfPartitions;
+        double spilledFraction = 1.0;
+        if (residentPages > 0 && partitionPages <= residentPages) {
+            spilledFraction = (numOfPartitions - 1) / (double) numOfPartitions;
+        }
+        long numOfRepartitions = 0;
+        if (partitionPages > numOfBuffers - 2) {
+            numOfRepartitions = (long) ceil(log(partitionPages / (numOfBuffers - 2)) / log(Math.max(2, numOfBuffers - 1)));
+        }
+        return totalPages + (long) ceil(2 * totalPages * spilledFraction * (1 + numOfRepartitions));
+    }
 
+    /**
+     * Replacement selection writes initial runs of about 2 * (B - 1) pages,
+     * * which are then merged B - 1 at a time. Sorting with several threads
+     * * sorts loads of B - 1 pages instead, giving runs of B - 1 pages. The
+     * * runs of a merge read ahead only when B holds two pages of each, so
+     * * read-ahead never lowers the fan-in.
+     **/
+    protected long externalSortCost(long pages, long numOfBuffer) {
+        double runPages = (ExternalSort.getParallelism() > 1 ? 1.0 : 2.0) * Math.max(1, numOfBuffer - 1);
+        long numOfRuns = Math.max(1, (long) ceil(pages / runPages));
+        long numOfPasses = 1 + (long) ceil(log(numOfRuns) / log(Math.max(2, numOfBuffer - 1)));
+        return 2 * pages * numOfPasses;
+    }
 
+    /**
+     * The statistics of a subtree, which do not depend on the buffers
+     * * granted, and its cost under each grants of its joins and sorts
+     **/
+    static class Estimate {
+        final long tuples;                        // Number of tuples in the result
+        final HashMap<Attribute, Long> distinct;  // Distinct values of the attributes of the result
+        final HashMap<Attribute, ColumnStats> columns;  // Distributions of the attributes of the result
+        final int minimum;                        // Buffers the root operator needs at least, 0 if it asks for none
+        final int preferred;                      // Buffers the root operator could put to use
+        final HashMap<String, Long> costs = new HashMap<>();  // Cost of the subtree by the grants in preorder
+
+        Estimate(long tuples, HashMap<Attribute, Long> distinct, HashMap<Attribute, ColumnStats> columns, MemoryBroker.Demand demand) {
+            this.tuples = tuples;
+            this.distinct = distinct;
+            this.columns = columns;
+            this.minimum = demand == null ? 0 : demand.getMinimum();
+            this.preferred = demand == null ? 0 : demand.getPreferred();
+        }
+    }
 
+}
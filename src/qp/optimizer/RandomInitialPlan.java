@@ -7,8 +7,6 @@ package qp.optimizer;
 import qp.operators.*;
 import qp.utils.*;
 
-import java.io.FileInputStream;
-import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.HashMap;
@@ -80,18 +78,21 @@ public class RandomInitialPlan {
         Scan tempop = null;
         for (int i = 0; i < numtab; ++i) {  // For each table in from list
             String tabname = fromlist.get(i);
-            Scan op1 = new Scan(tabname, OpType.SCAN);
+            /** Tables written in the paged binary format are decoded page by page **/
+            Scan op1;
+            if (PageFormat.isPageFile(tabname + ".tbl")) {
+                op1 = new PageScan(tabname, OpType.SCAN);
+            } else {
+                op1 = new Scan(tabname, OpType.SCAN);
+            }
             tempop = op1;
 
-            /** Read the schema of the table from tablename.md file
+            /** Get the schema of the table from tablename.md file, read once by the catalog
              ** md stands for metadata
              **/
             String filename = tabname + ".md";
             try {
-                ObjectInputStream _if = new ObjectInputStream(new FileInputStream(filename));
-                Schema schm = (Schema) _if.readObject();
-                op1.setSchema(schm);
-                _if.close();
+                op1.setSchema(Catalog.getCatalog().getSchema(tabname));
             } catch (Exception e) {
                 System.err.println("RandomInitialPlan:Error reading Schema of the table " + filename);
                 System.err.println(e);
@@ -7,6 +7,7 @@ package qp.optimizer;
 import qp.operators.*;
 import qp.utils.Attribute;
 import qp.utils.Condition;
+import qp.utils.MemoryBroker;
 import qp.utils.RandNumb;
 import qp.utils.SQLQuery;
 
@@ -41,59 +42,177 @@ public class RandomOptimizer {
     /**
      * After finding a choice of method for each operator
      * * prepare an execution plan by replacing the methods with
-     * * corresponding join operator implementation
+     * * corresponding join operator implementation. The joins and sorts
+     * * are given the buffers the cost model granted them, which the
+     * * memory broker promises them when the plan runs.
      **/
-    public static Operator makeExecPlan(Operator node) {
+    public static Operator makeExecPlan(Operator root) {
+        PlanCost pc = new PlanCost();
+        pc.getCost(root);
+        Operator plan = makeExecPlan(root, pc);
+        MemoryBroker.getBroker().begin(BufferManager.numBuffer, pc.getPlannedBuffers());
+        return plan;
+    }
+
+    private static Operator makeExecPlan(Operator node, PlanCost pc) {
         if (node.getOpType() == OpType.JOIN) {
-            Operator left = makeExecPlan(((Join) node).getLeft());
-            Operator right = makeExecPlan(((Join) node).getRight());
-            int joinType = ((Join) node).getJoinType();
-            int numbuff = BufferManager.getBuffersPerJoin();
-            switch (joinType) {
-                case JoinType.NESTEDJOIN:
-                    NestedJoin nj = new NestedJoin((Join) node);
-                    nj.setLeft(left);
-                    nj.setRight(right);
-                    nj.setNumBuff(numbuff);
-                    return nj;
-                case JoinType.BLOCKNESTED:
-                    BlockNestedLoopJoin bj = new BlockNestedLoopJoin((Join) node);
-                    bj.setLeft(left);
-                    bj.setRight(right);
-                    bj.setNumBuff(numbuff);
-                    return bj;
-                case JoinType.SORTMERGE:
-                    SortMergeJoin sm = new SortMergeJoin((Join) node);
-                    sm.setLeft(left);
-                    sm.setRight(right);
-                    sm.setNumBuff(numbuff);
-                    return sm;
-                default:
-                    return node;
+            Join join = (Join) node;
+            MemoryBroker.Demand demand = pc.getDemand(join);
+            int workers = isEquiJoin(join) ? BufferManager.getWorkersPerJoin() : 1;
+            if (workers > 1) {
+                Operator left = scanInParallel(makeExecPlan(join.getLeft(), pc));
+                Operator right = scanInParallel(makeExecPlan(join.getRight(), pc));
+                return makePartitionedJoin(join, left, right, demand, workers);
             }
+            Operator left = exchange(makeExecPlan(join.getLeft(), pc));
+            Operator right = exchange(makeExecPlan(join.getRight(), pc));
+            return makeJoin(join, left, right, demand.getGrant(), demand.getPreferred());
         } else if (node.getOpType() == OpType.DISTINCT) {
             Distinct distinctOp = ((Distinct) node);
-            Operator base = makeExecPlan(distinctOp.getBase());
-            distinctOp.setOperation(base, BufferManager.numBuffer);
+            MemoryBroker.Demand demand = pc.getDemand(distinctOp);
+            Operator base = scanInParallel(makeExecPlan(distinctOp.getBase(), pc));
+            distinctOp.setOperation(base, demand.getGrant(), demand.getPreferred());
             return node;
         } else if (node.getOpType() == OpType.SELECT) {
-            Operator base = makeExecPlan(((Select) node).getBase());
-            ((Select) node).setBase(base);
+            Select select = (Select) node;
+            Operator base = makeExecPlan(select.getBase(), pc);
+            /** Adjacent selections are evaluated together as one conjunction **/
+            if (base.getOpType() == OpType.SELECT) {
+                ArrayList<Condition> conditions = new ArrayList<>(((Select) base).getConditionList());
+                conditions.addAll(select.getConditionList());
+                select.setConditionList(conditions);
+                base = ((Select) base).getBase();
+            }
+            select.setBase(base);
             return node;
         } else if (node.getOpType() == OpType.PROJECT) {
-            Operator base = makeExecPlan(((Project) node).getBase());
+            Operator base = makeExecPlan(((Project) node).getBase(), pc);
             ((Project) node).setBase(base);
             return node;
         } else if (node.getOpType() == OpType.GROUPBY) {
             GroupBy GroupByOp = ((GroupBy) node);
-            Operator base = makeExecPlan(GroupByOp.getBase());
-            GroupByOp.setOperation(base, BufferManager.numBuffer);
+            MemoryBroker.Demand demand = pc.getDemand(GroupByOp);
+            Operator base = scanInParallel(makeExecPlan(GroupByOp.getBase(), pc));
+            GroupByOp.setOperation(base, demand.getGrant(), demand.getPreferred());
             return node;
         } else {
             return node;
         }
     }
 
+    /**
+     * The join operator implementing the method chosen for the join
+     **/
+    private static Operator makeJoin(Join node, Operator left, Operator right, int numbuff, int prefbuff) {
+        switch (node.getJoinType()) {
+            case JoinType.NESTEDJOIN:
+                NestedJoin nj = new NestedJoin(node);
+                nj.setLeft(left);
+                nj.setRight(right);
+                nj.setNumBuff(numbuff);
+                nj.setPrefBuff(prefbuff);
+                return nj;
+            case JoinType.BLOCKNESTED:
+                BlockNestedLoopJoin bj = new BlockNestedLoopJoin(node);
+                bj.setLeft(left);
+                bj.setRight(right);
+                bj.setNumBuff(numbuff);
+                bj.setPrefBuff(prefbuff);
+                return bj;
+            case JoinType.SORTMERGE:
+                SortMergeJoin sm = new SortMergeJoin(node);
+                sm.setLeft(left);
+                sm.setRight(right);
+                sm.setNumBuff(numbuff);
+                sm.setPrefBuff(prefbuff);
+                return sm;
+            case JoinType.HASHJOIN:
+                HashJoin hj = new HashJoin(node);
+                hj.setLeft(left);
+                hj.setRight(right);
+                hj.setNumBuff(numbuff);
+                hj.setPrefBuff(prefbuff);
+                return hj;
+            case JoinType.GRACEHASH:
+                GraceHashJoin gh = new GraceHashJoin(node);
+                gh.setLeft(left);
+                gh.setRight(right);
+                gh.setNumBuff(numbuff);
+                gh.setPrefBuff(prefbuff);
+                return gh;
+            default:
+                return node;
+        }
+    }
+
+    /**
+     * Both inputs are repartitioned on the join attributes, so that
+     * * matching tuples meet at the same worker. Each worker joins its pair
+     * * of partitions with the chosen method and its share of the grant,
+     * * and a Gather returns the results of all workers.
+     **/
+    private static Operator makePartitionedJoin(Join node, Operator left, Operator right, MemoryBroker.Demand demand, int workers) {
+        ArrayList<Integer> leftindex = new ArrayList<>();
+        ArrayList<Integer> rightindex = new ArrayList<>();
+        for (Condition con : node.getConditionList()) {
+            leftindex.add(left.getSchema().indexOf(con.getLhs()));
+            rightindex.add(right.getSchema().indexOf((Attribute) con.getRhs()));
+        }
+        Repartition leftparts = new Repartition(left, leftindex, workers);
+        Repartition rightparts = new Repartition(right, rightindex, workers);
+        ArrayList<Operator> joins = new ArrayList<>();
+        for (int i = 0; i < workers; ++i) {
+            joins.add(makeJoin(node, leftparts.getOutput(i), rightparts.getOutput(i),
+                    demand.getGrant() / workers, demand.getPreferred() / workers));
+        }
+        return new Gather(joins);
+    }
+
+    /**
+     * Hash partitioning only keeps the matches of equality conditions together
+     **/
+    static boolean isEquiJoin(Join node) {
+        for (Condition con : node.getConditionList()) {
+            if (con.getExprType() != Condition.EQUAL) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * With more than one thread the input of a join is produced by
+     * * a thread of its own through a Gather exchange, so the scans,
+     * * selections and joins below run alongside the join. Pipelines
+     * * over paged tables are scanned by morsels instead. Paged tables
+     * * are left alone so that nested joins still rescan them from their
+     * * mapping or the buffer pool.
+     **/
+    private static Operator exchange(Operator input) {
+        if (Exchange.getParallelism() <= 1) {
+            return input;
+        }
+        if (input instanceof PageScan) {
+            return input;
+        }
+        if (ParallelScan.leafScan(input) != null) {
+            return new ParallelScan(input, Exchange.getParallelism());
+        }
+        return new Gather(input);
+    }
+
+    /**
+     * With more than one thread a pipeline of selections and projections
+     * * over a paged table is run on morsels of the table by several
+     * * workers. Other operators are returned as they are.
+     **/
+    public static Operator scanInParallel(Operator node) {
+        if (Exchange.getParallelism() <= 1 || ParallelScan.leafScan(node) == null) {
+            return node;
+        }
+        return new ParallelScan(node, Exchange.getParallelism());
+    }
+
     /**
      * Randomly selects a neighbour
      **/
@@ -409,7 +528,7 @@ public class RandomOptimizer {
     /**
      * Modifies the schema of operators which are modified due to selecing an alternative neighbor plan
      **/
-    private void modifySchema(Operator node) {
+    static void modifySchema(Operator node) {
         System.out.println("OpType is: " + node.getOpType());
         if (node.getOpType() == OpType.JOIN) {
             System.out.println("Modify schema for join...");
@@ -0,0 +1,61 @@
+/**
+ * Background threads for the reads and writes of temporary files
+ **/
+
+package qp.utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * AsyncIO - when enabled, TupleReader and TupleWriter are double buffered:
+ * * the reader deserializes its next page on a background thread while the
+ * * operator consumes the current one, and the writer serializes a full page
+ * * on a background thread while the operator fills the next one. A file has
+ * * at most one request in flight, so its stream is never used by two threads
+ * * at once. Turned on with setEnabled(true).
+ */
+public class AsyncIO {
+
+    static boolean enabled = false;  // Whether readers and writers are double buffered
+
+    /** Threads serving the requests, they never keep the JVM alive **/
+    static final ExecutorService pool = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "AsyncIO");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static void setEnabled(boolean flag) {
+        enabled = flag;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    static <T> Future<T> submit(Callable<T> request) {
+        return pool.submit(request);
+    }
+
+    /**
+     * Waits for a request and returns its result. Rethrows the exception
+     * * of a failed request, so the caller reports it as if it had done the
+     * * I/O itself.
+     **/
+    static <T> T await(Future<T> request) throws Exception {
+        try {
+            return request.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+}
@@ -0,0 +1,386 @@
+/**
+ * Buffer pool of page frames shared by all operators
+ **/
+
+package qp.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * BufferPool - a fixed number of page frames. A page is pinned while it is
+ * * used and may only be evicted once no one holds a pin on it; which page
+ * * goes is up to the replacement policy. A page written in its frame is
+ * * marked dirty at unpin and written back through its PageIO before the
+ * * frame is reused. Pages are cached across operators and queries of the
+ * * process, so the pages of a relation scanned again stay in memory.
+ * * Operators also take the frames of their working memory from the pool
+ * * with reserve(): reserved frames hold no cached pages, and a reservation
+ * * that does not fit is cut down to what is free. One that cannot get even
+ * * the minimum the operator needs gets nothing, and the operator fails to
+ * * open, so the reservations never exceed the frames of the pool.
+ * * When every frame is pinned or reserved, a page is read into a frame of
+ * * its own that is dropped at unpin.
+ */
+public class BufferPool {
+
+    static final BufferPool pool = new BufferPool(64, new LRUPolicy());
+
+    int capacity;                  // Number of frames
+    int reserved;                  // Frames reserved as working memory of operators
+    int resident;                  // Frames holding cached pages
+    ReplacementPolicy policy;      // Chooses the page to evict
+    final HashMap<PageId, Frame> table = new HashMap<>();  // Frames of the cached pages
+
+    long hits;                     // Pins of a cached page
+    long misses;                   // Pins that had to read the page
+    long evictions;                // Pages evicted to free their frame
+    long writes;                   // Dirty pages written back
+    long shortfall;                // Frames asked for but not granted by reserve()
+
+    BufferPool(int capacity, ReplacementPolicy policy) {
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /** The pool of the process **/
+    public static BufferPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Changes the number of frames, evicting cached pages that no longer fit
+     **/
+    public synchronized void setCapacity(int frames) {
+        capacity = Math.max(1, frames);
+        shrink();
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /** Changes the replacement policy, the cached pages not in use are written back and dropped **/
+    public synchronized void setPolicy(ReplacementPolicy newpolicy) {
+        int frames = capacity;
+        capacity = reserved;
+        shrink();
+        capacity = frames;
+        policy = newpolicy;
+        for (Frame frame : table.values()) {
+            policy.admit(frame);
+        }
+    }
+
+    public synchronized ReplacementPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Pins the page of the file, reading it through io if it is not cached.
+     * * The caller must unpin the frame when it no longer reads its page.
+     **/
+    public Frame pin(String file, int pagenum, PageIO io) throws IOException {
+        PageId id = new PageId(file, pagenum);
+        Frame frame;
+        boolean load = false;
+        synchronized (this) {
+            frame = table.get(id);
+            if (frame != null) {
+                hits++;
+                frame.pins++;
+                policy.access(frame);
+            } else {
+                misses++;
+                frame = freeFrame();
+                frame.page = id;
+                frame.io = io;
+                frame.pins = 1;
+                frame.dirty = false;
+                frame.loaded = false;
+                frame.failed = false;
+                if (frame.cached) {
+                    table.put(id, frame);
+                    policy.admit(frame);
+                }
+                load = true;
+            }
+        }
+        if (load) {
+            read(frame);
+        }
+        synchronized (frame) {
+            while (!frame.loaded && !frame.failed) {
+                try {
+                    frame.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while waiting for " + id);
+                }
+            }
+        }
+        if (frame.failed) {
+            unpin(frame, false);
+            throw new IOException("cannot read " + id);
+        }
+        return frame;
+    }
+
+    /**
+     * Reads the page into the frame outside the lock of the pool, pins of the
+     * * same page meanwhile wait for it
+     **/
+    private void read(Frame frame) {
+        boolean ok = false;
+        try {
+            int size = frame.io.pageSize();
+            if (frame.data == null || frame.data.capacity() != size) {
+                frame.data = ByteBuffer.allocate(size);
+            }
+            frame.data.clear();
+            frame.io.read(frame.page.pagenum, frame.data);
+            frame.data.flip();
+            ok = true;
+        } catch (IOException e) {
+            ok = false;
+        } finally {
+            if (!ok) {
+                synchronized (this) {
+                    if (frame.cached && table.get(frame.page) == frame) {
+                        table.remove(frame.page);
+                        policy.remove(frame);
+                        resident--;
+                        frame.cached = false;
+                    }
+                }
+            }
+            synchronized (frame) {
+                frame.loaded = ok;
+                frame.failed = !ok;
+                frame.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Releases a pin, dirty if the page was written in the frame
+     **/
+    public synchronized void unpin(Frame frame, boolean dirty) {
+        if (frame.pins > 0) {
+            frame.pins--;
+        }
+        if (dirty) {
+            frame.dirty = true;
+            if (!frame.cached && frame.pins == 0) {
+                writeBack(frame);
+            }
+        }
+    }
+
+    /**
+     * Takes frames for the working memory of an operator. Grants wanted
+     * * frames if they are free, else those that are free if they are at
+     * * least minimum, else none. Cached pages are evicted to make room.
+     **/
+    public synchronized int reserve(int wanted, int minimum) {
+        int free = Math.max(0, capacity - reserved - pinnedFrames());
+        int granted = Math.min(wanted, free);
+        if (granted < Math.min(minimum, wanted)) {
+            granted = 0;
+        }
+        shortfall += wanted - granted;
+        reserved += granted;
+        shrink();
+        return granted;
+    }
+
+    /** Returns frames taken by reserve() **/
+    public synchronized void release(int frames) {
+        reserved = Math.max(0, reserved - frames);
+    }
+
+    public synchronized int getReserved() {
+        return reserved;
+    }
+
+    /**
+     * Writes back the dirty pages of the file, or of all files if null
+     **/
+    public synchronized void flush(String file) {
+        for (Frame frame : table.values()) {
+            if (frame.dirty && frame.loaded && (file == null || frame.page.file.equals(file))) {
+                writeBack(frame);
+            }
+        }
+    }
+
+    /**
+     * A frame for a new page: a frame not in use while the cached pages and
+     * * reservations leave room, else the frame of the victim of the policy,
+     * * else a frame outside the pool
+     **/
+    private Frame freeFrame() {
+        if (resident + reserved < capacity) {
+            resident++;
+            Frame frame = new Frame();
+            frame.cached = true;
+            return frame;
+        }
+        Frame victim = resident > 0 ? policy.victim() : null;
+        if (victim == null) {
+            return new Frame();
+        }
+        evict(victim);
+        resident++;
+        victim.cached = true;
+        return victim;
+    }
+
+    /** Evicts unpinned pages until the cached pages fit next to the reservations **/
+    private void shrink() {
+        while (resident > 0 && resident + reserved > capacity) {
+            Frame victim = policy.victim();
+            if (victim == null) {
+                return;
+            }
+            evict(victim);
+        }
+    }
+
+    private void evict(Frame frame) {
+        if (frame.dirty) {
+            writeBack(frame);
+        }
+        table.remove(frame.page);
+        policy.remove(frame);
+        resident--;
+        frame.cached = false;
+        evictions++;
+    }
+
+    private void writeBack(Frame frame) {
+        try {
+            frame.io.write(frame.page.pagenum, frame.data.duplicate());
+            frame.dirty = false;
+            writes++;
+        } catch (IOException e) {
+            System.out.println("BufferPool: error in writing back " + frame.page);
+            System.exit(1);
+        }
+    }
+
+    private int pinnedFrames() {
+        int pinned = 0;
+        for (Frame frame : table.values()) {
+            if (frame.pins > 0) {
+                pinned++;
+            }
+        }
+        return pinned;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getWrites() {
+        return writes;
+    }
+
+    public synchronized long getShortfall() {
+        return shortfall;
+    }
+
+    public synchronized void resetCounts() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        writes = 0;
+        shortfall = 0;
+    }
+
+    /**
+     * Reads and writes the pages of one file
+     **/
+    public interface PageIO {
+
+        /** Number of bytes in a page of the file **/
+        int pageSize();
+
+        /** Fills buf with the page **/
+        void read(int pagenum, ByteBuffer buf) throws IOException;
+
+        /** Writes the page back from buf **/
+        void write(int pagenum, ByteBuffer buf) throws IOException;
+    }
+
+    /**
+     * Identifies a page by the name of its file and its number in the file
+     **/
+    public static class PageId {
+        final String file;
+        final int pagenum;
+
+        public PageId(String file, int pagenum) {
+            this.file = file;
+            this.pagenum = pagenum;
+        }
+
+        public boolean equals(Object other) {
+            if (!(other instanceof PageId)) {
+                return false;
+            }
+            PageId id = (PageId) other;
+            return pagenum == id.pagenum && file.equals(id.file);
+        }
+
+        public int hashCode() {
+            return 31 * file.hashCode() + pagenum;
+        }
+
+        public String toString() {
+            return file + "[" + pagenum + "]";
+        }
+    }
+
+    /**
+     * A frame and the page it holds
+     **/
+    public static class Frame {
+        PageId page;           // Page in the frame
+        ByteBuffer data;       // Bytes of the page
+        PageIO io;             // Reads and writes the page
+        int pins;              // Number of users of the page
+        boolean dirty;         // Whether the page was written since it was read
+        boolean cached;        // Whether the frame belongs to the pool
+        boolean loaded;        // Whether the page has been read
+        boolean failed;        // Whether reading the page failed
+
+        public PageId getPage() {
+            return page;
+        }
+
+        /** The bytes of the page, positioned at its first byte **/
+        public ByteBuffer getData() {
+            return data.duplicate();
+        }
+
+        public boolean isPinned() {
+            return pins > 0;
+        }
+
+        public boolean isDirty() {
+            return dirty;
+        }
+    }
+
+}
@@ -0,0 +1,175 @@
+/**
+ * Schemas and statistics of the tables
+ **/
+
+package qp.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+import java.util.StringTokenizer;
+
+/**
+ * Catalog - the schema of each table, read from <tablename>.md, and its
+ * * statistics, read from <tablename>.stat. Both are kept in memory once
+ * * read, so the plans of a query and the queries of the process look them
+ * * up instead of reading the files again. An entry is read again when the
+ * * modification time or the length of its file changed, as when RandomDB
+ * * generated the table anew.
+ */
+public class Catalog {
+
+    static final Catalog catalog = new Catalog();
+
+    final HashMap<String, Entry<Schema>> schemas = new HashMap<>();         // Schemas by table name
+    final HashMap<String, Entry<TableStats>> statistics = new HashMap<>();  // Statistics by table name
+
+    /** The catalog of the process **/
+    public static Catalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * The schema of the table, a copy the caller may change
+     **/
+    public synchronized Schema getSchema(String tabname) throws IOException {
+        File file = new File(tabname + ".md");
+        Entry<Schema> entry = schemas.get(tabname);
+        if (entry == null || !entry.isCurrent(file)) {
+            long modified = file.lastModified();
+            long length = file.length();
+            entry = new Entry<>(readSchema(file), modified, length);
+            schemas.put(tabname, entry);
+        }
+        return (Schema) entry.value.clone();
+    }
+
+    /**
+     * The number of tuples of the table, the number of distinct values
+     * * of each of its attributes and the distribution of their values
+     **/
+    public synchronized TableStats getStatistics(String tabname) throws IOException {
+        File file = new File(tabname + ".stat");
+        Entry<TableStats> entry = statistics.get(tabname);
+        if (entry == null || !entry.isCurrent(file)) {
+            long modified = file.lastModified();
+            long length = file.length();
+            entry = new Entry<>(readStatistics(file), modified, length);
+            statistics.put(tabname, entry);
+        }
+        return entry.value;
+    }
+
+    private static Schema readSchema(File file) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
+            return (Schema) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("no schema in " + file, e);
+        }
+    }
+
+    /**
+     * The first line of the file holds the number of tuples, the second
+     * * the number of distinct values of each attribute, and the lines
+     * * after describe the distribution of the values of attributes
+     **/
+    private static TableStats readStatistics(File file) throws IOException {
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String first = in.readLine();
+            String second = in.readLine();
+            if (first == null || second == null) {
+                throw new IOException("incorrect format of statistics file " + file);
+            }
+            StringTokenizer tokenizer = new StringTokenizer(first);
+            if (tokenizer.countTokens() != 1) {
+                throw new IOException("incorrect format of statistics file " + file);
+            }
+            long numtuples = Long.parseLong(tokenizer.nextToken());
+            tokenizer = new StringTokenizer(second);
+            long[] distinct = new long[tokenizer.countTokens()];
+            for (int i = 0; i < distinct.length; ++i) {
+                distinct[i] = Long.parseLong(tokenizer.nextToken());
+            }
+
+            /** The distributions of the attributes, if the table was analyzed **/
+            ColumnStats[] columns = new ColumnStats[distinct.length];
+            String line;
+            while ((line = in.readLine()) != null) {
+                tokenizer = new StringTokenizer(line);
+                if (!tokenizer.hasMoreTokens()) {
+                    continue;
+                }
+                String kind = tokenizer.nextToken();
+                int index = Integer.parseInt(tokenizer.nextToken());
+                int type = ColumnStats.parseType(tokenizer.nextToken());
+                if (index < 0 || index >= columns.length || type < 0) {
+                    throw new IOException("incorrect format of statistics file " + file);
+                }
+                if (columns[index] == null) {
+                    columns[index] = new ColumnStats(type);
+                }
+                columns[index].read(kind, tokenizer);
+            }
+            return new TableStats(numtuples, distinct, columns);
+        } catch (NumberFormatException | NoSuchElementException e) {
+            throw new IOException("incorrect format of statistics file " + file, e);
+        }
+    }
+
+    /**
+     * What was read from a file, and the modification time and length
+     * * of the file before it was read
+     **/
+    static class Entry<T> {
+        final T value;
+        final long modified;
+        final long length;
+
+        Entry(T value, long modified, long length) {
+            this.value = value;
+            this.modified = modified;
+            this.length = length;
+        }
+
+        boolean isCurrent(File file) {
+            return file.lastModified() == modified && file.length() == length;
+        }
+    }
+
+    /**
+     * Statistics of a table
+     **/
+    public static class TableStats {
+        final long numtuples;          // Number of tuples in the table
+        final long[] distinct;         // Number of distinct values of each attribute
+        final ColumnStats[] columns;   // Distribution of the values of each attribute, null if unknown
+
+        TableStats(long numtuples, long[] distinct, ColumnStats[] columns) {
+            this.numtuples = numtuples;
+            this.distinct = distinct;
+            this.columns = columns;
+        }
+
+        public long getNumTuples() {
+            return numtuples;
+        }
+
+        public int getNumAttributes() {
+            return distinct.length;
+        }
+
+        public long getDistinct(int i) {
+            return distinct[i];
+        }
+
+        public ColumnStats getColumn(int i) {
+            return columns[i];
+        }
+    }
+
+}
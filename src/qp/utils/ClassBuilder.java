@@ -0,0 +1,253 @@
+/**
+ * Minimal writer of JVM class files
+ **/
+
+package qp.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * ClassBuilder - writes a public final class with a no argument
+ * * constructor and methods whose bytecode is given by the caller.
+ * * Class files are written as version 49 so that the methods need
+ * * no stack map frames, the JVM verifies them by type inference.
+ */
+class ClassBuilder {
+
+    static final int ALOAD_0 = 0x2a;
+    static final int ALOAD_1 = 0x2b;
+    static final int ALOAD_2 = 0x2c;
+    static final int ISTORE_3 = 0x3e;
+    static final int ILOAD_3 = 0x1d;
+    static final int ICONST_0 = 0x03;
+    static final int ICONST_1 = 0x04;
+    static final int FCMPL = 0x95;
+    static final int FCMPG = 0x96;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IFGT = 0x9d;
+    static final int IFLE = 0x9e;
+    static final int IF_ICMPEQ = 0x9f;
+    static final int IF_ICMPNE = 0xa0;
+    static final int IF_ICMPLT = 0xa1;
+    static final int IF_ICMPGE = 0xa2;
+    static final int IF_ICMPGT = 0xa3;
+    static final int IF_ICMPLE = 0xa4;
+    static final int IRETURN = 0xac;
+    static final int RETURN = 0xb1;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final HashMap<String, Integer> entries = new HashMap<>();  // Constant pool indices by content
+    private int poolSize = 1;                                          // Index of the next constant
+    private final ArrayList<byte[]> methods = new ArrayList<>();
+    private final int thisClass;
+    private final int superClass;
+
+    /**
+     * Names are internal names, e.g. qp/utils/Tuple
+     **/
+    ClassBuilder(String name, String superName) {
+        thisClass = classRef(name);
+        superClass = classRef(superName);
+        Code init = method("<init>", "()V", 1, 1);
+        init.op(ALOAD_0);
+        init.op(INVOKESPECIAL);
+        init.u2(methodRef(superName, "<init>", "()V"));
+        init.op(RETURN);
+        init.end();
+    }
+
+    private int constant(String key, int tag, Object value) {
+        Integer index = entries.get(key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            poolOut.writeByte(tag);
+            switch (tag) {
+                case 1:
+                    poolOut.writeUTF((String) value);
+                    break;
+                case 3:
+                    poolOut.writeInt((Integer) value);
+                    break;
+                case 4:
+                    poolOut.writeFloat((Float) value);
+                    break;
+                default:
+                    int[] refs = (int[]) value;
+                    for (int ref : refs) {
+                        poolOut.writeShort(ref);
+                    }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        entries.put(key, poolSize);
+        return poolSize++;
+    }
+
+    int utf8(String s) {
+        return constant("U" + s, 1, s);
+    }
+
+    int integer(int i) {
+        return constant("I" + i, 3, i);
+    }
+
+    int floatConst(float f) {
+        return constant("F" + Float.floatToRawIntBits(f), 4, f);
+    }
+
+    int classRef(String name) {
+        return constant("C" + name, 7, new int[]{utf8(name)});
+    }
+
+    int string(String s) {
+        return constant("S" + s, 8, new int[]{utf8(s)});
+    }
+
+    int methodRef(String owner, String name, String desc) {
+        int nameAndType = constant("N" + name + " " + desc, 12, new int[]{utf8(name), utf8(desc)});
+        return constant("M" + owner + "." + name + desc, 10, new int[]{classRef(owner), nameAndType});
+    }
+
+    /**
+     * Starts a public method, its code is added when Code.end() is called
+     **/
+    Code method(String name, String desc, int maxStack, int maxLocals) {
+        return new Code(utf8(name), utf8(desc), maxStack, maxLocals);
+    }
+
+    byte[] toBytes() {
+        try {
+            int codeName = utf8("Code");
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolSize);
+            poolOut.flush();
+            pool.writeTo(out);
+            out.writeShort(0x0031);  // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);       // interfaces
+            out.writeShort(0);       // fields
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.writeShort(0x0001);  // public
+                out.write(method, 0, 4); // name and descriptor
+                out.writeShort(1);       // attributes
+                out.writeShort(codeName);
+                out.writeInt(method.length - 8 + 12);  // code plus its fixed fields
+                out.write(method, 4, 4); // max stack and max locals
+                out.writeInt(method.length - 8);
+                out.write(method, 8, method.length - 8);
+                out.writeShort(0);       // exception table
+                out.writeShort(0);       // code attributes
+            }
+            out.writeShort(0);           // class attributes
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Bytecode of one method
+     **/
+    class Code {
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private final ArrayList<int[]> patches = new ArrayList<>();  // Branch positions and their targets
+
+        Code(int name, int desc, int maxStack, int maxLocals) {
+            u2(name);
+            u2(desc);
+            u2(maxStack);
+            u2(maxLocals);
+        }
+
+        void op(int opcode) {
+            code.write(opcode);
+        }
+
+        void u2(int value) {
+            code.write(value >> 8);
+            code.write(value);
+        }
+
+        /** Pushes an int constant with the shortest instruction **/
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(0x10);
+                code.write(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(0x11);
+                u2(value);
+            } else {
+                ldc(integer(value));
+            }
+        }
+
+        void ldc(int index) {
+            if (index < 256) {
+                op(0x12);
+                code.write(index);
+            } else {
+                op(0x13);
+                u2(index);
+            }
+        }
+
+        void invoke(int opcode, String owner, String name, String desc) {
+            op(opcode);
+            u2(methodRef(owner, name, desc));
+        }
+
+        /** Position of the next instruction relative to the method start **/
+        int position() {
+            return code.size() - 8;
+        }
+
+        /**
+         * Writes a branch whose target is not known yet, returns
+         * * its position to be passed to patch() once the target is
+         **/
+        int jump(int opcode) {
+            int at = position();
+            op(opcode);
+            u2(0);
+            return at;
+        }
+
+        /** Sets the target of a branch written by jump() **/
+        void patch(int at, int target) {
+            patches.add(new int[]{at, target});
+        }
+
+        void end() {
+            byte[] bytes = code.toByteArray();
+            for (int[] p : patches) {
+                int offset = p[1] - p[0];
+                bytes[8 + p[0] + 1] = (byte) (offset >> 8);
+                bytes[8 + p[0] + 2] = (byte) offset;
+            }
+            methods.add(bytes);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Clock (second chance) replacement
+ **/
+
+package qp.utils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Approximates LRU without reordering on every use: the frames form a
+ * * ring swept by a hand, and a use only sets the reference bit of its
+ * * frame. The hand clears the bits it passes and stops at the first
+ * * unpinned frame whose bit is already clear.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    final ArrayList<BufferPool.Frame> ring = new ArrayList<>();     // Frames in the order the hand visits them
+    final HashSet<BufferPool.Frame> referenced = new HashSet<>();   // Frames used since the hand last passed
+    int hand;                                                       // Position of the hand in the ring
+
+    public String getName() {
+        return "clock";
+    }
+
+    public void admit(BufferPool.Frame frame) {
+        ring.add(frame);
+        referenced.add(frame);
+    }
+
+    public void access(BufferPool.Frame frame) {
+        referenced.add(frame);
+    }
+
+    public void remove(BufferPool.Frame frame) {
+        int i = ring.indexOf(frame);
+        if (i < 0) {
+            return;
+        }
+        ring.remove(i);
+        referenced.remove(frame);
+        if (i < hand) {
+            hand--;
+        }
+        if (hand >= ring.size()) {
+            hand = 0;
+        }
+    }
+
+    /** Two sweeps clear every bit, a frame is found after them unless all are pinned **/
+    public BufferPool.Frame victim() {
+        for (int step = 0; step < 2 * ring.size(); ++step) {
+            BufferPool.Frame frame = ring.get(hand);
+            hand = (hand + 1) % ring.size();
+            if (frame.isPinned()) {
+                continue;
+            }
+            if (!referenced.remove(frame)) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+}
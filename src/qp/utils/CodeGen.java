@@ -0,0 +1,315 @@
+/**
+ * Runtime generation of bytecode for filters, projections and comparators
+ **/
+
+package qp.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CodeGen - emits a class for the concrete conditions, column mapping or
+ * * sort keys of an operator, with attribute indices, types and constants
+ * * baked into straight line bytecode. Generated classes are cached by a
+ * * signature of what they evaluate, so operators with the same predicate
+ * * and schema share one class. Turned on with setEnabled(true); operators
+ * * fall back to the interpreted path when it is off.
+ */
+public class CodeGen {
+
+    static boolean enabled = false;  // Whether operators use generated code
+
+    static final ConcurrentHashMap<String, Object> cache = new ConcurrentHashMap<>();  // Instances by signature
+    static final AtomicInteger classnum = new AtomicInteger();  // Number of classes generated so far
+    static final Loader loader = new Loader();
+
+    static final String TUPLE = "qp/utils/Tuple";
+    static final String PRIMITIVE = "qp/utils/PrimitiveTuple";
+
+    public static void setEnabled(boolean flag) {
+        enabled = flag;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Number of classes generated since the process started **/
+    public static int getNumGenerated() {
+        return classnum.get();
+    }
+
+    /**
+     * Conjunction of selection conditions over a tuple
+     **/
+    public abstract static class Filter {
+        public abstract boolean eval(Tuple tuple);
+
+        /**
+         * Narrows the first n entries of sel, indices of tuples in
+         * * the page, to the tuples satisfying all the conditions
+         **/
+        public int filter(Batch batch, int[] sel, int n) {
+            int count = 0;
+            for (int i = 0; i < n; ++i) {
+                if (eval(batch.get(sel[i]))) sel[count++] = sel[i];
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Copies the projected attributes of a tuple into the output tuple
+     **/
+    public abstract static class Projector {
+        public abstract void project(Tuple in, PrimitiveTuple out);
+    }
+
+    /**
+     * Compares tuples on a list of sort attributes
+     **/
+    public abstract static class KeyComparator implements Comparator<Tuple> {
+        public abstract int compare(Tuple left, Tuple right);
+    }
+
+    /**
+     * The filter evaluating all the compiled predicates in order
+     **/
+    public static Filter filter(Predicate[] predicates) {
+        StringBuilder sig = new StringBuilder("filter");
+        for (Predicate p : predicates) {
+            sig.append(';').append(signature(p));
+        }
+        String key = sig.toString();
+        return (Filter) cache.computeIfAbsent(key, k -> instantiate(generateFilter(predicates), "Filter"));
+    }
+
+    /**
+     * The projector copying attribute attrIndex[j] of the input into attribute j of the output
+     **/
+    public static Projector projector(TupleLayout outLayout, int[] attrIndex) {
+        StringBuilder sig = new StringBuilder("project");
+        for (int j = 0; j < attrIndex.length; ++j) {
+            sig.append(';').append(outLayout.types[j]).append(':').append(attrIndex[j]);
+        }
+        String key = sig.toString();
+        return (Projector) cache.computeIfAbsent(key, k -> instantiate(generateProjector(outLayout, attrIndex), "Projector"));
+    }
+
+    /**
+     * The comparator on the given attributes of tuples of the schema, in order
+     **/
+    public static KeyComparator comparator(Schema schema, ArrayList<Integer> index) {
+        int[] types = new int[index.size()];
+        int[] attrs = new int[index.size()];
+        StringBuilder sig = new StringBuilder("compare");
+        for (int i = 0; i < attrs.length; ++i) {
+            attrs[i] = index.get(i);
+            types[i] = schema.typeOf(attrs[i]);
+            sig.append(';').append(types[i]).append(':').append(attrs[i]);
+        }
+        String key = sig.toString();
+        return (KeyComparator) cache.computeIfAbsent(key, k -> instantiate(generateComparator(types, attrs), "KeyComparator"));
+    }
+
+    private static String signature(Predicate p) {
+        String sig = p.getClass().getSimpleName() + ":" + p.exprtype + ":" + p.lhsIndex;
+        if (p instanceof Predicate.IntPredicate) {
+            return sig + ":" + ((Predicate.IntPredicate) p).value;
+        } else if (p instanceof Predicate.FloatPredicate) {
+            return sig + ":" + Float.floatToRawIntBits(((Predicate.FloatPredicate) p).value);
+        } else if (p instanceof Predicate.StringPredicate) {
+            /** The length keeps constants containing ; apart from the next predicate **/
+            String value = ((Predicate.StringPredicate) p).value;
+            return sig + ":" + value.length() + ":" + value;
+        } else {
+            Predicate.AttributePredicate a = (Predicate.AttributePredicate) p;
+            return sig + ":" + a.datatype + ":" + a.rhsIndex;
+        }
+    }
+
+    /**
+     * eval(tuple) branches to return false as soon as one condition
+     * * fails, every comparison is typed, no values are boxed
+     **/
+    private static byte[] generateFilter(Predicate[] predicates) {
+        String name = "qp/codegen/Filter" + classnum.incrementAndGet();
+        ClassBuilder cb = new ClassBuilder(name, "qp/utils/CodeGen$Filter");
+        ClassBuilder.Code code = cb.method("eval", "(L" + TUPLE + ";)Z", 4, 2);
+        ArrayList<Integer> fails = new ArrayList<>();
+        for (Predicate p : predicates) {
+            int datatype;
+            if (p instanceof Predicate.AttributePredicate) {
+                datatype = ((Predicate.AttributePredicate) p).datatype;
+            } else if (p instanceof Predicate.IntPredicate) {
+                datatype = Attribute.INT;
+            } else if (p instanceof Predicate.FloatPredicate) {
+                datatype = Attribute.REAL;
+            } else {
+                datatype = Attribute.STRING;
+            }
+            getAttribute(code, ClassBuilder.ALOAD_1, p.lhsIndex, datatype);
+            if (p instanceof Predicate.AttributePredicate) {
+                getAttribute(code, ClassBuilder.ALOAD_1, ((Predicate.AttributePredicate) p).rhsIndex, datatype);
+            } else if (p instanceof Predicate.IntPredicate) {
+                code.pushInt(((Predicate.IntPredicate) p).value);
+            } else if (p instanceof Predicate.FloatPredicate) {
+                code.ldc(cb.floatConst(((Predicate.FloatPredicate) p).value));
+            } else {
+                code.ldc(cb.string(((Predicate.StringPredicate) p).value));
+            }
+            if (datatype == Attribute.INT) {
+                fails.add(code.jump(failIntBranch(p.exprtype)));
+            } else {
+                if (datatype == Attribute.REAL) {
+                    /** NaN compares so that the condition fails, as with the primitive operators **/
+                    boolean less = p.exprtype == Condition.LESSTHAN || p.exprtype == Condition.LTOE;
+                    code.op(less ? ClassBuilder.FCMPG : ClassBuilder.FCMPL);
+                } else {
+                    code.invoke(ClassBuilder.INVOKEVIRTUAL, "java/lang/String", "compareTo", "(Ljava/lang/String;)I");
+                }
+                fails.add(code.jump(failBranch(p.exprtype)));
+            }
+        }
+        code.op(ClassBuilder.ICONST_1);
+        code.op(ClassBuilder.IRETURN);
+        int fail = code.position();
+        code.op(ClassBuilder.ICONST_0);
+        code.op(ClassBuilder.IRETURN);
+        for (int at : fails) {
+            code.patch(at, fail);
+        }
+        code.end();
+        return cb.toBytes();
+    }
+
+    /**
+     * project(in, out) is one typed get and set per projected attribute
+     **/
+    private static byte[] generateProjector(TupleLayout outLayout, int[] attrIndex) {
+        String name = "qp/codegen/Projector" + classnum.incrementAndGet();
+        ClassBuilder cb = new ClassBuilder(name, "qp/utils/CodeGen$Projector");
+        ClassBuilder.Code code = cb.method("project", "(L" + TUPLE + ";L" + PRIMITIVE + ";)V", 4, 3);
+        for (int j = 0; j < attrIndex.length; ++j) {
+            int type = outLayout.types[j];
+            code.op(ClassBuilder.ALOAD_2);
+            code.pushInt(j);
+            getAttribute(code, ClassBuilder.ALOAD_1, attrIndex[j], type);
+            if (type == Attribute.INT) {
+                code.invoke(ClassBuilder.INVOKEVIRTUAL, PRIMITIVE, "setInt", "(II)V");
+            } else if (type == Attribute.REAL) {
+                code.invoke(ClassBuilder.INVOKEVIRTUAL, PRIMITIVE, "setFloat", "(IF)V");
+            } else {
+                code.invoke(ClassBuilder.INVOKEVIRTUAL, PRIMITIVE, "setString", "(ILjava/lang/String;)V");
+            }
+        }
+        code.op(ClassBuilder.RETURN);
+        code.end();
+        return cb.toBytes();
+    }
+
+    /**
+     * compare(left, right) compares the sort attributes in order and
+     * * returns the first result that is not zero
+     **/
+    private static byte[] generateComparator(int[] types, int[] attrs) {
+        String name = "qp/codegen/KeyComparator" + classnum.incrementAndGet();
+        ClassBuilder cb = new ClassBuilder(name, "qp/utils/CodeGen$KeyComparator");
+        ClassBuilder.Code code = cb.method("compare", "(L" + TUPLE + ";L" + TUPLE + ";)I", 4, 4);
+        for (int i = 0; i < attrs.length; ++i) {
+            getAttribute(code, ClassBuilder.ALOAD_1, attrs[i], types[i]);
+            getAttribute(code, ClassBuilder.ALOAD_2, attrs[i], types[i]);
+            if (types[i] == Attribute.INT) {
+                code.invoke(ClassBuilder.INVOKESTATIC, "java/lang/Integer", "compare", "(II)I");
+            } else if (types[i] == Attribute.REAL) {
+                code.invoke(ClassBuilder.INVOKESTATIC, "java/lang/Float", "compare", "(FF)I");
+            } else {
+                code.invoke(ClassBuilder.INVOKEVIRTUAL, "java/lang/String", "compareTo", "(Ljava/lang/String;)I");
+            }
+            code.op(ClassBuilder.ISTORE_3);
+            code.op(ClassBuilder.ILOAD_3);
+            int equal = code.jump(ClassBuilder.IFEQ);
+            code.op(ClassBuilder.ILOAD_3);
+            code.op(ClassBuilder.IRETURN);
+            code.patch(equal, code.position());
+        }
+        code.op(ClassBuilder.ICONST_0);
+        code.op(ClassBuilder.IRETURN);
+        code.end();
+        return cb.toBytes();
+    }
+
+    /** Pushes the attribute of the tuple in the given local with its typed accessor **/
+    private static void getAttribute(ClassBuilder.Code code, int aload, int index, int type) {
+        code.op(aload);
+        code.pushInt(index);
+        if (type == Attribute.INT) {
+            code.invoke(ClassBuilder.INVOKEVIRTUAL, TUPLE, "getInt", "(I)I");
+        } else if (type == Attribute.REAL) {
+            code.invoke(ClassBuilder.INVOKEVIRTUAL, TUPLE, "getFloat", "(I)F");
+        } else {
+            code.invoke(ClassBuilder.INVOKEVIRTUAL, TUPLE, "getString", "(I)Ljava/lang/String;");
+        }
+    }
+
+    /** Branch taken when two ints do not satisfy the operator **/
+    private static int failIntBranch(int exprtype) {
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                return ClassBuilder.IF_ICMPGE;
+            case Condition.GREATERTHAN:
+                return ClassBuilder.IF_ICMPLE;
+            case Condition.LTOE:
+                return ClassBuilder.IF_ICMPGT;
+            case Condition.GTOE:
+                return ClassBuilder.IF_ICMPLT;
+            case Condition.EQUAL:
+                return ClassBuilder.IF_ICMPNE;
+            default:
+                return ClassBuilder.IF_ICMPEQ;
+        }
+    }
+
+    /** Branch taken when the sign of a comparison does not satisfy the operator **/
+    private static int failBranch(int exprtype) {
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                return ClassBuilder.IFGE;
+            case Condition.GREATERTHAN:
+                return ClassBuilder.IFLE;
+            case Condition.LTOE:
+                return ClassBuilder.IFGT;
+            case Condition.GTOE:
+                return ClassBuilder.IFLT;
+            case Condition.EQUAL:
+                return ClassBuilder.IFNE;
+            default:
+                return ClassBuilder.IFEQ;
+        }
+    }
+
+    private static Object instantiate(byte[] bytes, String kind) {
+        try {
+            return loader.define(bytes).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            System.out.println("CodeGen: could not load generated " + kind + ": " + e);
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**
+     * Defines the generated classes, its parent resolves the query processor classes
+     **/
+    static class Loader extends ClassLoader {
+        Loader() {
+            super(CodeGen.class.getClassLoader());
+        }
+
+        synchronized Class<?> define(byte[] bytes) {
+            return defineClass(null, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Compression of temporary files
+ **/
+
+package qp.utils;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Codec - compresses the bytes of a temporary file as they are written
+ * * and decompresses them as they are read back. A file must be read with
+ * * the codec it was written with.
+ */
+public interface Codec {
+
+    /** Stores the bytes unchanged **/
+    Codec NONE = new Codec() {
+        public String getName() {
+            return "none";
+        }
+
+        public OutputStream compress(OutputStream out) {
+            return out;
+        }
+
+        public InputStream decompress(InputStream in) {
+            return in;
+        }
+    };
+
+    String getName();
+
+    /** Stream writing compressed bytes to out, closing it closes out **/
+    OutputStream compress(OutputStream out);
+
+    /** Stream returning the decompressed bytes of in, closing it closes in **/
+    InputStream decompress(InputStream in);
+
+    /**
+     * The codec of the given name, "none" or "deflate" optionally followed
+     * * by a level as in "deflate:6", null if there is no such codec
+     **/
+    static Codec forName(String name) {
+        if (name.equals("none")) {
+            return NONE;
+        }
+        if (name.equals("deflate")) {
+            return new DeflateCodec(DeflateCodec.DEFAULT_LEVEL);
+        }
+        if (name.startsWith("deflate:")) {
+            try {
+                int level = Integer.parseInt(name.substring("deflate:".length()));
+                if (level >= 0 && level <= 9) {
+                    return new DeflateCodec(level);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,172 @@
+/**
+ * ColumnBatch represents a page stored column by column
+ **/
+
+package qp.utils;
+
+/**
+ * ColumnBatch - holds every attribute of a page in its own primitive
+ * * array, laid out by the slots of a TupleLayout. Rows are not moved when
+ * * they are filtered, a selection vector lists the rows that are still
+ * * part of the batch instead. Projections share the column arrays.
+ */
+public class ColumnBatch {
+
+    final TupleLayout layout;  // Layout of the rows
+    final int capacity;        // Number of rows per page
+    final int[][] ints;        // INT columns by slot
+    final float[][] floats;    // REAL columns by slot
+    final String[][] strings;  // STRING columns by slot
+    int size;                  // Number of rows stored
+    int[] selection;           // Rows selected, null when all the rows are
+    int numSelected;           // Number of entries used in selection
+
+    public ColumnBatch(TupleLayout layout, int capacity) {
+        this.layout = layout;
+        this.capacity = capacity;
+        ints = new int[layout.numInts][capacity];
+        floats = new float[layout.numFloats][capacity];
+        strings = new String[layout.numStrings][capacity];
+    }
+
+    /** A batch sharing the columns of another batch **/
+    private ColumnBatch(TupleLayout layout, int capacity, int[][] ints, float[][] floats, String[][] strings) {
+        this.layout = layout;
+        this.capacity = capacity;
+        this.ints = ints;
+        this.floats = floats;
+        this.strings = strings;
+    }
+
+    /**
+     * Converts a page of tuples into columns
+     **/
+    public static ColumnBatch fromBatch(Batch batch, TupleLayout layout) {
+        ColumnBatch columns = new ColumnBatch(layout, Math.max(batch.capacity(), batch.size()));
+        for (int i = 0; i < batch.size(); ++i) {
+            columns.add(batch.get(i));
+        }
+        return columns;
+    }
+
+    public TupleLayout getLayout() {
+        return layout;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /** Number of rows stored, selected or not **/
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /** Appends a row, all the rows appended are selected **/
+    public void add(Tuple t) {
+        int row = size++;
+        for (int i = 0; i < layout.types.length; ++i) {
+            int slot = layout.slots[i];
+            if (layout.types[i] == Attribute.INT) {
+                ints[slot][row] = t.getInt(i);
+            } else if (layout.types[i] == Attribute.REAL) {
+                floats[slot][row] = t.getFloat(i);
+            } else {
+                strings[slot][row] = t.getString(i);
+            }
+        }
+    }
+
+    /** Appends an empty row to be filled through the columns, returns its index **/
+    public int addRow() {
+        return size++;
+    }
+
+    public int[] intColumn(int index) {
+        return ints[layout.slots[index]];
+    }
+
+    public float[] floatColumn(int index) {
+        return floats[layout.slots[index]];
+    }
+
+    public String[] stringColumn(int index) {
+        return strings[layout.slots[index]];
+    }
+
+    /** The selection vector, null when every stored row is selected **/
+    public int[] getSelection() {
+        return selection;
+    }
+
+    public void setSelection(int[] selection, int numSelected) {
+        this.selection = selection;
+        this.numSelected = numSelected;
+    }
+
+    /** Number of rows selected **/
+    public int numSelected() {
+        return selection == null ? size : numSelected;
+    }
+
+    /** Index of the i-th selected row **/
+    public int selectedRow(int i) {
+        return selection == null ? i : selection[i];
+    }
+
+    /**
+     * Projects the attributes at the given indices, the projected batch
+     * * shares the columns and the selection vector of this batch
+     **/
+    public ColumnBatch project(TupleLayout outLayout, int[] attrIndex) {
+        int[][] newInts = new int[outLayout.numInts][];
+        float[][] newFloats = new float[outLayout.numFloats][];
+        String[][] newStrings = new String[outLayout.numStrings][];
+        for (int j = 0; j < attrIndex.length; ++j) {
+            int slot = outLayout.slots[j];
+            int index = attrIndex[j];
+            if (outLayout.types[j] == Attribute.INT) {
+                newInts[slot] = intColumn(index);
+            } else if (outLayout.types[j] == Attribute.REAL) {
+                newFloats[slot] = floatColumn(index);
+            } else {
+                newStrings[slot] = stringColumn(index);
+            }
+        }
+        ColumnBatch projected = new ColumnBatch(outLayout, capacity, newInts, newFloats, newStrings);
+        projected.size = size;
+        projected.selection = selection;
+        projected.numSelected = numSelected;
+        return projected;
+    }
+
+    /** The stored row as a tuple **/
+    public Tuple getTuple(int row) {
+        PrimitiveTuple t = new PrimitiveTuple(layout);
+        for (int i = 0; i < layout.types.length; ++i) {
+            int slot = layout.slots[i];
+            if (layout.types[i] == Attribute.INT) {
+                t.setInt(i, ints[slot][row]);
+            } else if (layout.types[i] == Attribute.REAL) {
+                t.setFloat(i, floats[slot][row]);
+            } else {
+                t.setString(i, strings[slot][row]);
+            }
+        }
+        return t;
+    }
+
+    /** The selected rows as a page of tuples **/
+    public Batch toBatch() {
+        int n = numSelected();
+        Batch batch = new Batch(capacity);
+        for (int i = 0; i < n; ++i) {
+            batch.add(getTuple(selectedRow(i)));
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,605 @@
+/**
+ * Distribution of the values of an attribute
+ **/
+
+package qp.utils;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.StringTokenizer;
+
+/**
+ * ColumnStats - the most common values of an attribute, each with the
+ * * fraction of the tuples holding it, and an equi-depth histogram of the
+ * * other values: bucket bounds such that each bucket holds about as many
+ * * of those tuples as any other. They follow the distinct values in the
+ * * statistics file of the table, one line each,
+ * *   mcv <attribute index> <type> <count> <value> <fraction> ...
+ * *   hist <attribute index> <type> <buckets> <bound> ... <bound>
+ * *   range <attribute index> <type> <smallest value> <largest value>
+ * * where a string is written with backslash escapes for its backslashes
+ * * and white space, and as \0 if it is empty, to stay one token,
+ * * and the cost model estimates the selectivity of selections and joins
+ * * on the attribute from them.
+ */
+public class ColumnStats {
+
+    public static final int MCVS = 10;     // Most common values kept unless told otherwise
+    public static final int BUCKETS = 20;  // Buckets of the histogram unless told otherwise
+
+    final int type;                           // Attribute.INT, REAL or STRING
+    Object[] mcv = new Object[0];             // Most common values, the most common first
+    double[] mcvfraction = new double[0];     // Fraction of the tuples holding each of them
+    Object[] bounds = new Object[0];          // Bucket i holds the values from bounds[i] to bounds[i + 1]
+    Object low;                               // Smallest value of the attribute, null if not known exactly
+    Object high;                              // Largest value of the attribute, null if not known exactly
+
+    public ColumnStats(int type) {
+        this.type = type;
+    }
+
+    /**
+     * The distribution of the values of an attribute. A value is kept as
+     * * most common if it is held by more tuples than the average value,
+     * * by a margin, the others are divided into the histogram.
+     **/
+    public static ColumnStats build(int type, ArrayList<Object> values, int mcvs, int buckets) {
+        return build(type, values, values.size(), 0, mcvs, buckets);
+    }
+
+    /**
+     * The distribution of the values of an attribute from a random sample
+     * * of its numtuples values, given the number of distinct values of the
+     * * whole attribute, or 0 to count them in the sample. A value is kept as
+     * * most common only if the sample holds it often enough for its
+     * * fraction to be within about 20% of the true one; otherwise a value
+     * * seen twice by chance would pass for common.
+     **/
+    public static ColumnStats build(int type, ArrayList<Object> values, long numtuples, long distinctvalues, int mcvs, int buckets) {
+        ColumnStats stats = new ColumnStats(type);
+        int n = values.size();
+        if (n == 0) {
+            return stats;
+        }
+        Object[] sorted = values.toArray();
+        Arrays.sort(sorted, ColumnStats::compare);
+
+        /** Runs of equal values, one per distinct value **/
+        ArrayList<Integer> starts = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            if (i == 0 || compare(sorted[i - 1], sorted[i]) != 0) {
+                starts.add(i);
+            }
+        }
+        int distinct = starts.size();
+        starts.add(n);
+        double average = n / (double) (distinctvalues > 0 ? distinctvalues : distinct);
+        double mincount = 2;
+        if (numtuples > n) {
+            double unsampled = numtuples - n;
+            mincount = Math.max(2, n * unsampled / (unsampled + 0.04 * n * (numtuples - 1)));
+        }
+        Integer[] runs = new Integer[distinct];
+        for (int r = 0; r < distinct; ++r) {
+            runs[r] = r;
+        }
+        Arrays.sort(runs, (a, b) -> Integer.compare(starts.get(b + 1) - starts.get(b), starts.get(a + 1) - starts.get(a)));
+
+        boolean[] common = new boolean[distinct];
+        ArrayList<Object> mcv = new ArrayList<>();
+        ArrayList<Double> fractions = new ArrayList<>();
+        for (int k = 0; k < Math.min(mcvs, distinct); ++k) {
+            int r = runs[k];
+            int count = starts.get(r + 1) - starts.get(r);
+            if (count < mincount || count <= 1.25 * average) {
+                break;
+            }
+            common[r] = true;
+            mcv.add(sorted[starts.get(r)]);
+            fractions.add(count / (double) n);
+        }
+        stats.mcv = mcv.toArray();
+        stats.mcvfraction = new double[fractions.size()];
+        for (int k = 0; k < fractions.size(); ++k) {
+            stats.mcvfraction[k] = fractions.get(k);
+        }
+
+        ArrayList<Object> rest = new ArrayList<>();
+        int restdistinct = 0;
+        for (int r = 0; r < distinct; ++r) {
+            if (!common[r]) {
+                rest.addAll(Arrays.asList(sorted).subList(starts.get(r), starts.get(r + 1)));
+                restdistinct++;
+            }
+        }
+        stats.bounds = histogram(rest, Math.min(buckets, restdistinct));
+        return stats;
+    }
+
+    /**
+     * Bounds of the equi-depth histogram of sorted values: the smallest
+     * * value, then the largest value of each bucket
+     **/
+    static Object[] histogram(ArrayList<Object> sorted, int buckets) {
+        int m = sorted.size();
+        if (m == 0 || buckets < 1) {
+            return new Object[0];
+        }
+        Object[] bounds = new Object[buckets + 1];
+        bounds[0] = sorted.get(0);
+        for (int k = 1; k <= buckets; ++k) {
+            bounds[k] = sorted.get((int) Math.ceil(k * (double) m / buckets) - 1);
+        }
+        return bounds;
+    }
+
+    /**
+     * Sets the smallest and largest value of the attribute, known exactly
+     * * even if the distribution was built from a sample. The histogram is
+     * * stretched to them, the sample may have missed the extreme values.
+     **/
+    public void setRange(Object low, Object high) {
+        this.low = low;
+        this.high = high;
+        int last = bounds.length - 1;
+        if (last > 0 && !isCommon(low) && compare(low, bounds[0]) < 0) {
+            bounds[0] = low;
+        }
+        if (last > 0 && !isCommon(high) && compare(high, bounds[last]) > 0) {
+            bounds[last] = high;
+        }
+    }
+
+    private boolean isCommon(Object value) {
+        for (Object common : mcv) {
+            if (compare(common, value) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Fraction of the tuples whose value is not one of the most common
+     **/
+    public double restFraction() {
+        double fraction = 1;
+        for (double f : mcvfraction) {
+            fraction -= f;
+        }
+        return Math.max(0, fraction);
+    }
+
+    /**
+     * Fraction of the tuples satisfying a comparison with the constant,
+     * * given the number of distinct values of the attribute
+     **/
+    public double selectivity(int exprtype, Object value, long distinct) {
+        double equal = equalFraction(value, distinct);
+        double less = lessFraction(value);
+        double fraction;
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                fraction = less;
+                break;
+            case Condition.LTOE:
+                fraction = less + equal;
+                break;
+            case Condition.GREATERTHAN:
+                fraction = 1 - less - equal;
+                break;
+            case Condition.GTOE:
+                fraction = 1 - less;
+                break;
+            case Condition.EQUAL:
+                fraction = equal;
+                break;
+            default:
+                fraction = 1 - equal;
+        }
+        return Math.min(1, Math.max(0, fraction));
+    }
+
+    /**
+     * The distribution of the tuples satisfying a comparison with the
+     * * constant: the most common values and the buckets of the histogram
+     * * that fail it are dropped, the bucket holding the constant is cut at
+     * * it, and the fractions are scaled to the tuples left
+     **/
+    public ColumnStats select(int exprtype, Object value) {
+        ColumnStats stats = new ColumnStats(type);
+        if (exprtype == Condition.EQUAL) {
+            stats.mcv = new Object[]{value};
+            stats.mcvfraction = new double[]{1};
+            stats.low = value;
+            stats.high = value;
+            return stats;
+        }
+        boolean below = exprtype == Condition.LESSTHAN || exprtype == Condition.LTOE;
+        boolean above = exprtype == Condition.GREATERTHAN || exprtype == Condition.GTOE;
+        boolean inclusive = exprtype == Condition.LTOE || exprtype == Condition.GTOE;
+
+        ArrayList<Object> keptmcv = new ArrayList<>();
+        ArrayList<Double> keptfractions = new ArrayList<>();
+        for (int i = 0; i < mcv.length; ++i) {
+            int c = compare(mcv[i], value);
+            boolean keep = below ? c < 0 || (inclusive && c == 0)
+                    : above ? c > 0 || (inclusive && c == 0)
+                    : c != 0;
+            if (keep) {
+                keptmcv.add(mcv[i]);
+                keptfractions.add(mcvfraction[i]);
+            }
+        }
+
+        double rest = restFraction();
+        stats.bounds = bounds;
+        stats.low = low;
+        stats.high = high;
+        int last = bounds.length - 1;
+        if (below && last > 0) {
+            rest *= histogramBelow(value);
+            if (compare(value, bounds[last]) < 0) {
+                ArrayList<Object> kept = new ArrayList<>();
+                for (int i = 0; i <= last && compare(bounds[i], value) < 0; ++i) {
+                    kept.add(bounds[i]);
+                }
+                kept.add(value);
+                stats.bounds = kept.size() > 1 ? kept.toArray() : new Object[0];
+            }
+        } else if (above && last > 0) {
+            rest *= 1 - histogramBelow(value);
+            if (compare(value, bounds[0]) > 0) {
+                ArrayList<Object> kept = new ArrayList<>();
+                kept.add(value);
+                for (int i = 0; i <= last; ++i) {
+                    if (compare(bounds[i], value) > 0) {
+                        kept.add(bounds[i]);
+                    }
+                }
+                stats.bounds = kept.size() > 1 ? kept.toArray() : new Object[0];
+            }
+        }
+        if (low != null && below && compare(value, high) < 0) {
+            stats.high = compare(value, low) < 0 ? low : value;
+        } else if (low != null && above && compare(value, low) > 0) {
+            stats.low = compare(value, high) > 0 ? high : value;
+        }
+
+        double total = rest;
+        for (double f : keptfractions) {
+            total += f;
+        }
+        if (total <= 0) {
+            stats.bounds = new Object[0];
+            return stats;
+        }
+        stats.mcv = keptmcv.toArray();
+        stats.mcvfraction = new double[keptfractions.size()];
+        for (int k = 0; k < keptfractions.size(); ++k) {
+            stats.mcvfraction[k] = keptfractions.get(k) / total;
+        }
+        if (rest <= 0) {
+            stats.bounds = new Object[0];
+        }
+        return stats;
+    }
+
+    /**
+     * Fraction of the tuples holding the value: its own if it is one of
+     * * the most common, else an even share of the other values, none if
+     * * it lies outside the range or the histogram
+     **/
+    public double equalFraction(Object value, long distinct) {
+        if (low != null && (compare(value, low) < 0 || compare(value, high) > 0)) {
+            return 0;
+        }
+        for (int i = 0; i < mcv.length; ++i) {
+            if (compare(mcv[i], value) == 0) {
+                return mcvfraction[i];
+            }
+        }
+        if (bounds.length == 0 || compare(value, bounds[0]) < 0 || compare(value, bounds[bounds.length - 1]) > 0) {
+            return 0;
+        }
+        long others = distinct - mcv.length;
+        return others > 0 ? restFraction() / others : 0;
+    }
+
+    /**
+     * Fraction of the tuples holding a smaller value
+     **/
+    public double lessFraction(Object value) {
+        double fraction = 0;
+        for (int i = 0; i < mcv.length; ++i) {
+            if (compare(mcv[i], value) < 0) {
+                fraction += mcvfraction[i];
+            }
+        }
+        return fraction + restFraction() * histogramBelow(value);
+    }
+
+    /**
+     * Fraction of the tuples of the histogram below the value, the buckets
+     * * below it and the part of its bucket up to it
+     **/
+    private double histogramBelow(Object value) {
+        int buckets = bounds.length - 1;
+        if (buckets < 1 || compare(value, bounds[0]) <= 0) {
+            return 0;
+        } else if (compare(value, bounds[buckets]) > 0) {
+            return 1;
+        }
+        int i = 0;
+        while (compare(value, bounds[i + 1]) > 0) {
+            i++;
+        }
+        return (i + position(bounds[i], bounds[i + 1], value)) / buckets;
+    }
+
+    /**
+     * Fraction of the tuples of the histogram between the smallest and the
+     * * largest value of the other attribute
+     **/
+    private double histogramWithin(ColumnStats other) {
+        Object low = other.min();
+        Object high = other.max();
+        if (bounds.length == 0 || low == null) {
+            return 1;
+        }
+        double below = compare(high, bounds[bounds.length - 1]) >= 0 ? 1 : histogramBelow(high);
+        return Math.max(0, below - histogramBelow(low));
+    }
+
+    /**
+     * Where the value lies in the bucket from low to high, halfway for strings
+     **/
+    private static double position(Object low, Object high, Object value) {
+        if (!(value instanceof Number)) {
+            return 0.5;
+        }
+        double l = ((Number) low).doubleValue();
+        double h = ((Number) high).doubleValue();
+        double v = ((Number) value).doubleValue();
+        return h > l ? Math.min(1, (v - l) / (h - l)) : 0.5;
+    }
+
+    /**
+     * Smallest value of the attribute, null if nothing is known of it
+     **/
+    Object min() {
+        if (low != null) {
+            return low;
+        }
+        Object min = bounds.length > 0 ? bounds[0] : null;
+        for (Object value : mcv) {
+            if (min == null || compare(value, min) < 0) {
+                min = value;
+            }
+        }
+        return min;
+    }
+
+    Object max() {
+        if (high != null) {
+            return high;
+        }
+        Object max = bounds.length > 0 ? bounds[bounds.length - 1] : null;
+        for (Object value : mcv) {
+            if (max == null || compare(value, max) > 0) {
+                max = value;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Fraction of the pairs of tuples of two attributes holding equal
+     * * values. The most common values the attributes share are matched
+     * * with their fractions. The other tuples of one attribute, as far as
+     * * they lie in the range of values of the other, are spread evenly over
+     * * the distinct values of the other that were not matched.
+     **/
+    public static double joinFraction(ColumnStats left, long leftdistinct, ColumnStats right, long rightdistinct) {
+        double matchprod = 0;
+        double leftmatch = 0;
+        double rightmatch = 0;
+        int matches = 0;
+        boolean[] matched = new boolean[right.mcv.length];
+        for (int i = 0; i < left.mcv.length; ++i) {
+            for (int j = 0; j < right.mcv.length; ++j) {
+                if (!matched[j] && compare(left.mcv[i], right.mcv[j]) == 0) {
+                    matched[j] = true;
+                    matchprod += left.mcvfraction[i] * right.mcvfraction[j];
+                    leftmatch += left.mcvfraction[i];
+                    rightmatch += right.mcvfraction[j];
+                    matches++;
+                    break;
+                }
+            }
+        }
+        double leftunmatched = 1 - left.restFraction() - leftmatch;
+        double rightunmatched = 1 - right.restFraction() - rightmatch;
+        double leftother = left.restFraction() * left.histogramWithin(right);
+        double rightother = right.restFraction() * right.histogramWithin(left);
+
+        double fromleft = matchprod;
+        if (rightdistinct > right.mcv.length) {
+            fromleft += leftunmatched * rightother / (rightdistinct - right.mcv.length);
+        }
+        if (rightdistinct > matches) {
+            fromleft += leftother * (rightother + rightunmatched) / (rightdistinct - matches);
+        }
+        double fromright = matchprod;
+        if (leftdistinct > left.mcv.length) {
+            fromright += rightunmatched * leftother / (leftdistinct - left.mcv.length);
+        }
+        if (leftdistinct > matches) {
+            fromright += rightother * (leftother + leftunmatched) / (leftdistinct - matches);
+        }
+        return Math.min(1, Math.max(0, Math.min(fromleft, fromright)));
+    }
+
+    /**
+     * Writes the lines of the attribute with the given index
+     **/
+    public void write(PrintWriter out, int index) {
+        if (mcv.length > 0) {
+            out.print("mcv " + index + " " + typeName(type) + " " + mcv.length);
+            for (int i = 0; i < mcv.length; ++i) {
+                out.print(" " + token(mcv[i]) + " " + mcvfraction[i]);
+            }
+            out.println();
+        }
+        if (bounds.length > 0) {
+            out.print("hist " + index + " " + typeName(type) + " " + (bounds.length - 1));
+            for (Object bound : bounds) {
+                out.print(" " + token(bound));
+            }
+            out.println();
+        }
+        if (low != null) {
+            out.println("range " + index + " " + typeName(type) + " " + token(low) + " " + token(high));
+        }
+    }
+
+    /**
+     * Reads the rest of a line written by write(), after its kind, index
+     * * and type. Lines of other kinds are skipped.
+     **/
+    public void read(String kind, StringTokenizer tokens) {
+        if (kind.equals("mcv")) {
+            int count = Integer.parseInt(tokens.nextToken());
+            mcv = new Object[count];
+            mcvfraction = new double[count];
+            for (int i = 0; i < count; ++i) {
+                mcv[i] = parseToken(tokens.nextToken());
+                mcvfraction[i] = Double.parseDouble(tokens.nextToken());
+            }
+        } else if (kind.equals("hist")) {
+            int buckets = Integer.parseInt(tokens.nextToken());
+            bounds = new Object[buckets + 1];
+            for (int i = 0; i <= buckets; ++i) {
+                bounds[i] = parseToken(tokens.nextToken());
+            }
+        } else if (kind.equals("range")) {
+            low = parseToken(tokens.nextToken());
+            high = parseToken(tokens.nextToken());
+        }
+    }
+
+    /**
+     * A value as a single token of the statistics file
+     **/
+    private String token(Object value) {
+        if (type != Attribute.STRING) {
+            return value.toString();
+        }
+        String s = (String) value;
+        if (s.isEmpty()) {
+            return "\\0";
+        }
+        StringBuilder token = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c == '\\') {
+                token.append("\\\\");
+            } else if (c == ' ') {
+                token.append("\\s");
+            } else if (c == '\t') {
+                token.append("\\t");
+            } else if (c == '\n') {
+                token.append("\\n");
+            } else if (c == '\r') {
+                token.append("\\r");
+            } else if (c == '\f') {
+                token.append("\\f");
+            } else {
+                token.append(c);
+            }
+        }
+        return token.toString();
+    }
+
+    /**
+     * The value of a token written by token()
+     **/
+    private Object parseToken(String token) {
+        if (type != Attribute.STRING) {
+            return parseValue(token);
+        } else if (token.equals("\\0")) {
+            return "";
+        }
+        StringBuilder value = new StringBuilder(token.length());
+        for (int i = 0; i < token.length(); ++i) {
+            char c = token.charAt(i);
+            if (c == '\\' && i + 1 < token.length()) {
+                c = token.charAt(++i);
+                if (c == 's') {
+                    c = ' ';
+                } else if (c == 't') {
+                    c = '\t';
+                } else if (c == 'n') {
+                    c = '\n';
+                } else if (c == 'r') {
+                    c = '\r';
+                } else if (c == 'f') {
+                    c = '\f';
+                }
+            }
+            value.append(c);
+        }
+        return value.toString();
+    }
+
+    /**
+     * The constant of a condition as a value of the attribute
+     **/
+    public Object parseValue(String token) {
+        if (type == Attribute.INT) {
+            return Integer.valueOf(token);
+        } else if (type == Attribute.REAL) {
+            return Float.valueOf(token);
+        }
+        return token;
+    }
+
+    /** Names of the types as in the .det files **/
+    public static String typeName(int type) {
+        if (type == Attribute.INT) {
+            return "INTEGER";
+        } else if (type == Attribute.REAL) {
+            return "REAL";
+        }
+        return "STRING";
+    }
+
+    public static int parseType(String name) {
+        if (name.equals("INTEGER")) {
+            return Attribute.INT;
+        } else if (name.equals("REAL")) {
+            return Attribute.REAL;
+        } else if (name.equals("STRING")) {
+            return Attribute.STRING;
+        }
+        return -1;
+    }
+
+    /**
+     * Orders values of the same type
+     **/
+    public static int compare(Object a, Object b) {
+        if (a instanceof Integer) {
+            return Integer.compare((Integer) a, (Integer) b);
+        } else if (a instanceof Float) {
+            return Float.compare((Float) a, (Float) b);
+        }
+        return ((String) a).compareTo((String) b);
+    }
+
+}
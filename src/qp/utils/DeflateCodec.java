@@ -0,0 +1,52 @@
+/**
+ * Deflate compression of temporary files
+ **/
+
+package qp.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compresses with the Deflater of the JDK, so it needs no library. The
+ * * low default level trades some of the ratio for speed, spilled pages
+ * * are written once and read back soon after.
+ */
+public class DeflateCodec implements Codec {
+
+    static final int DEFAULT_LEVEL = Deflater.BEST_SPEED;
+    static final int BLOCK_SIZE = 64 * 1024;  // Bytes of compressed data buffered per stream
+
+    final int level;  // Compression level from 0 (stored) to 9 (smallest)
+
+    public DeflateCodec(int level) {
+        this.level = level;
+    }
+
+    public String getName() {
+        return "deflate:" + level;
+    }
+
+    public OutputStream compress(OutputStream out) {
+        Deflater deflater = new Deflater(level);
+        return new DeflaterOutputStream(out, deflater, BLOCK_SIZE) {
+            /** The deflater is ours, release its native memory with the stream **/
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    public InputStream decompress(InputStream in) {
+        return new InflaterInputStream(in);
+    }
+
+}
@@ -0,0 +1,95 @@
+/**
+ * Estimate of the number of distinct values in a stream
+ **/
+
+package qp.utils;
+
+/**
+ * HyperLogLog - counts the distinct values of an attribute in a fixed
+ * * amount of memory. Each value is hashed to 64 bits; the first bits pick
+ * * one of the registers and the register keeps the longest run of leading
+ * * zeros seen in the other bits. The harmonic mean of the registers gives
+ * * the estimate, within about 1.04 / sqrt(registers) of the true count.
+ * * Few distinct values leave registers empty and are counted from the
+ * * number of empty registers instead.
+ */
+public class HyperLogLog {
+
+    public static final int PRECISION = 14;  // 2^14 registers, an error of about 0.8%
+
+    final int precision;      // Bits of the hash that pick the register
+    final byte[] registers;   // Longest run of leading zeros plus one, per register
+
+    public HyperLogLog() {
+        this(PRECISION);
+    }
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("precision must be from 4 to 18");
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * Counts a value of an attribute, an Integer, Float or String
+     **/
+    public void add(Object value) {
+        long hash = hash(value);
+        int index = (int) (hash >>> (64 - precision));
+        long rest = hash << precision;
+        int rank = rest == 0 ? 64 - precision + 1 : Long.numberOfLeadingZeros(rest) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * The estimated number of distinct values counted
+     **/
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int empty = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                empty++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && empty > 0) {
+            estimate = m * Math.log(m / (double) empty);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * A 64 bit hash of the value; equal values hash alike whatever their
+     * * instance, the bits of different values look independent
+     **/
+    static long hash(Object value) {
+        long h;
+        if (value instanceof Integer) {
+            h = (Integer) value;
+        } else if (value instanceof Float) {
+            h = Float.floatToIntBits((Float) value) ^ 0x5bd1e995L << 32;
+        } else {
+            String s = value.toString();
+            h = 0xcbf29ce484222325L;
+            for (int i = 0; i < s.length(); ++i) {
+                h = (h ^ s.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        /** finalizer of MurmurHash3, spreads every bit of h over all bits **/
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53a87d2L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
@@ -0,0 +1,63 @@
+/**
+ * IndexedPageReader reads the batches of a file written by an indexed TupleWriter, from any batch on
+ */
+
+package qp.utils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class IndexedPageReader {
+
+    final String filename;    // Filename to read from
+    final long[] offsets;     // Offset of each batch in the file, followed by the length of the file
+    RandomAccessFile file;    // Input file, null while closed
+
+    // offsets: as returned by TupleWriter.getPageOffsets() once the writer is closed
+    public IndexedPageReader(String filename, long[] offsets) {
+        this.filename = filename;
+        this.offsets = offsets;
+    }
+
+    public String getFileName() {
+        return filename;
+    }
+
+    public int getNumPages() {
+        return offsets.length - 1;
+    }
+
+    // Opens the input file
+    public boolean open() {
+        try {
+            file = new RandomAccessFile(filename, "r");
+        } catch (IOException io) {
+            System.out.printf("%s:reading the temporary file error", filename);
+            return false;
+        }
+        return true;
+    }
+
+    // Reads the batch of the given number, null past the last one
+    public Batch readPage(int page) throws IOException {
+        if (page >= getNumPages()) return null;
+        byte[] bytes = new byte[(int) (offsets[page + 1] - offsets[page])];
+        file.seek(offsets[page]);
+        file.readFully(bytes);
+        return SpillStreams.decodePage(bytes);
+    }
+
+    public boolean close() {
+        if (file != null) {
+            try {
+                file.close();
+                file = null;
+            } catch (IOException io) {
+                System.out.printf("%s:reading the temporary file error", filename);
+                System.out.println(io);
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * LRU-K replacement
+ **/
+
+package qp.utils;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Evicts the unpinned page whose K-th most recent use lies furthest in
+ * * the past. Pages used fewer than K times go first, the least recently
+ * * used of them first, so a page read once by a scan does not push out
+ * * pages that are used again and again, such as those of a rescanned inner
+ * * relation. The use history of evicted pages is retained for a while, so
+ * * a page that comes back soon keeps its earlier uses.
+ */
+public class LRUKPolicy implements ReplacementPolicy {
+
+    static final int RETAINED = 1024;  // Histories of evicted pages kept
+
+    final int k;                       // Number of uses remembered per page
+    long clock;                        // Number of uses so far, the time of a use
+
+    /** Times of the last K uses of a page, most recent first, 0 for uses that did not happen **/
+    final HashMap<BufferPool.Frame, long[]> resident = new HashMap<>();  // Use times of the pages in the pool
+    final LinkedHashMap<BufferPool.PageId, long[]> retained
+            = new LinkedHashMap<BufferPool.PageId, long[]>() {            // Use times of evicted pages
+        protected boolean removeEldestEntry(Map.Entry<BufferPool.PageId, long[]> eldest) {
+            return size() > RETAINED;
+        }
+    };
+
+    public LRUKPolicy(int k) {
+        this.k = k;
+    }
+
+    public String getName() {
+        return "lruk:" + k;
+    }
+
+    /** A page starts with the uses remembered from before its eviction, if any **/
+    public void admit(BufferPool.Frame frame) {
+        long[] history = retained.remove(frame.getPage());
+        if (history == null) {
+            history = new long[k];
+        }
+        resident.put(frame, history);
+        use(history);
+    }
+
+    public void access(BufferPool.Frame frame) {
+        long[] history = resident.get(frame);
+        if (history != null) {
+            use(history);
+        }
+    }
+
+    private void use(long[] history) {
+        System.arraycopy(history, 0, history, 1, k - 1);
+        history[0] = ++clock;
+    }
+
+    public void remove(BufferPool.Frame frame) {
+        long[] history = resident.remove(frame);
+        if (history != null) {
+            retained.put(frame.getPage(), history);
+        }
+    }
+
+    public BufferPool.Frame victim() {
+        BufferPool.Frame best = null;
+        long bestKth = 0;
+        long bestLast = 0;
+        for (Map.Entry<BufferPool.Frame, long[]> entry : resident.entrySet()) {
+            if (entry.getKey().isPinned()) {
+                continue;
+            }
+            long kth = entry.getValue()[k - 1];
+            long last = entry.getValue()[0];
+            if (best == null || kth < bestKth || (kth == bestKth && last < bestLast)) {
+                best = entry.getKey();
+                bestKth = kth;
+                bestLast = last;
+            }
+        }
+        return best;
+    }
+
+}
@@ -0,0 +1,43 @@
+/**
+ * Least recently used replacement
+ **/
+
+package qp.utils;
+
+import java.util.LinkedHashSet;
+
+/**
+ * Evicts the unpinned page that was pinned longest ago. The frames are
+ * * kept in order of their last use, the least recent first.
+ */
+public class LRUPolicy implements ReplacementPolicy {
+
+    final LinkedHashSet<BufferPool.Frame> order = new LinkedHashSet<>();  // Least recently used first
+
+    public String getName() {
+        return "lru";
+    }
+
+    public void admit(BufferPool.Frame frame) {
+        order.add(frame);
+    }
+
+    public void access(BufferPool.Frame frame) {
+        order.remove(frame);
+        order.add(frame);
+    }
+
+    public void remove(BufferPool.Frame frame) {
+        order.remove(frame);
+    }
+
+    public BufferPool.Frame victim() {
+        for (BufferPool.Frame frame : order) {
+            if (!frame.isPinned()) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+}
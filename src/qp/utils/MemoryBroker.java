@@ -0,0 +1,156 @@
+/**
+ * Division of the buffers of a query among its operators
+ **/
+
+package qp.utils;
+
+import java.util.List;
+
+/**
+ * MemoryBroker - hands out the buffers of a query to the operators that
+ * * need working memory: joins and sorts. Every such operator has a demand,
+ * * the buffers it needs at least and the buffers it could put to use, which
+ * * the cost model derives from the estimated pages of its inputs. The
+ * * optimizer divides the buffers of the query among the demands of a plan
+ * * with divide(), and costs the plan with the grants it gets. When the plan
+ * * runs, an operator acquires its buffers as it opens: it gets the buffers
+ * * planned for it, and more up to its preference out of buffers the plan
+ * * left over or operators returned when they finished. Buffers promised to
+ * * operators that have not opened yet are never handed out. The frames of
+ * * the buffers are reserved in the buffer pool.
+ */
+public class MemoryBroker {
+
+    static final MemoryBroker broker = new MemoryBroker();
+
+    static final int MINIMUM = 3;  // Buffers any join or sort needs at least
+
+    int budget;                    // Buffers of the query, 0 when no plan was divided
+    int promised;                  // Buffers planned for operators that have not opened yet
+    int held;                      // Buffers held by open operators
+    int peak;                      // Most buffers held at once
+    int extra;                     // Buffers granted beyond the plan
+
+    /** The broker of the process **/
+    public static MemoryBroker getBroker() {
+        return broker;
+    }
+
+    /**
+     * Divides the budget among the demands of a plan. Every demand gets its
+     * * minimum, and the buffers left over are shared in proportion to what
+     * * each demand could use beyond its minimum. Returns false if the
+     * * minimums do not fit. Operators that only need 3 buffers are let
+     * * through even if their sum exceeds the budget, as they need not all
+     * * hold them at once; the caller checks that those held together fit.
+     **/
+    public static boolean divide(int budget, List<Demand> demands) {
+        long required = 0;
+        long wanted = 0;
+        for (Demand demand : demands) {
+            demand.grant = demand.minimum;
+            required += demand.minimum - MINIMUM;
+            wanted += demand.preferred - demand.minimum;
+        }
+        long left = budget - required - (long) MINIMUM * demands.size();
+        if (left < 0) {
+            return required <= 0;
+        }
+        for (Demand demand : demands) {
+            long more = demand.preferred - demand.minimum;
+            if (wanted > left) {
+                more = more * left / wanted;
+            }
+            demand.grant += (int) more;
+        }
+        return true;
+    }
+
+    /**
+     * Starts a query of the given number of buffers, of which the plan
+     * * promised the operators the given number
+     **/
+    public synchronized void begin(int buffers, int planned) {
+        budget = buffers;
+        promised = Math.min(planned, buffers);
+        held = 0;
+        peak = 0;
+        extra = 0;
+    }
+
+    /**
+     * Grants an operator that opens its buffers: those planned for it, and
+     * * more up to preferred if there are buffers to spare, but never fewer
+     * * than minimum. The buffer pool may cut the grant down to its free
+     * * frames, or grant none if it has fewer than minimum free. Returns the
+     * * number granted, which the operator must release.
+     **/
+    public synchronized int acquire(int minimum, int planned, int preferred) {
+        int own = Math.max(0, Math.min(planned, promised));
+        promised -= own;
+        int wanted = Math.max(minimum, planned);
+        if (budget > 0) {
+            int spare = Math.max(own, budget - held - promised);
+            wanted = Math.max(minimum, Math.min(Math.max(planned, preferred), spare));
+        }
+        int granted = BufferPool.getPool().reserve(wanted, minimum);
+        extra += Math.max(0, granted - Math.max(minimum, planned));
+        held += granted;
+        peak = Math.max(peak, held);
+        return granted;
+    }
+
+    /** Returns buffers of an operator that finished with them **/
+    public synchronized void release(int buffers) {
+        if (buffers <= 0) {
+            return;
+        }
+        BufferPool.getPool().release(buffers);
+        held = Math.max(0, held - buffers);
+    }
+
+    public synchronized int getBudget() {
+        return budget;
+    }
+
+    public synchronized int getHeld() {
+        return held;
+    }
+
+    public synchronized int getPeak() {
+        return peak;
+    }
+
+    public synchronized int getExtra() {
+        return extra;
+    }
+
+    /**
+     * The buffers an operator needs at least and those it could put to
+     * * use, and the buffers granted to it
+     **/
+    public static class Demand {
+        final int minimum;     // Buffers the operator cannot do without
+        final int preferred;   // Buffers beyond which the operator gains nothing
+        int grant;             // Buffers granted by divide()
+
+        public Demand(int minimum, int preferred) {
+            this.minimum = Math.max(MINIMUM, minimum);
+            this.preferred = Math.max(this.minimum, preferred);
+            this.grant = this.minimum;
+        }
+
+        public int getMinimum() {
+            return minimum;
+        }
+
+        public int getPreferred() {
+            return preferred;
+        }
+
+        public int getGrant() {
+            return grant;
+        }
+    }
+
+}
@@ -0,0 +1,220 @@
+/**
+ * Fixed-layout binary page format for base tables
+ **/
+
+package qp.utils;
+
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * A paged table file starts with a header of HEADER_SIZE bytes followed by
+ * * pages of exactly pageSize bytes. Each page starts with the number of tuples
+ * * stored in it, followed by fixed width rows laid out as given by the schema:
+ * * INT as 4 bytes, REAL as a 4 byte float and STRING as a 2 byte length
+ * * followed by a slot of attrsize bytes.
+ **/
+public class PageFormat {
+
+    public static final int MAGIC = 0x51504731;  // "QPG1", never the start of a serialized stream
+    public static final int HEADER_SIZE = 16;    // magic, page size, tuples per page, row width
+    public static final int PAGE_HEADER = 4;     // number of tuples in the page
+
+    final TupleLayout layout;  // Layout of the decoded tuples
+    final int[] types;         // Type of each attribute
+    final int[] widths;        // Number of bytes each attribute occupies in a row
+    final int rowWidth;        // Number of bytes per row
+    final int pageSize;        // Number of bytes per page
+    final int tuplesPerPage;   // Number of rows per page
+
+    public PageFormat(Schema schema, int pageSize) {
+        int numCols = schema.getNumCols();
+        types = new int[numCols];
+        widths = new int[numCols];
+        int width = 0;
+        for (int i = 0; i < numCols; ++i) {
+            Attribute attr = schema.getAttribute(i);
+            types[i] = attr.getType();
+            if (types[i] == Attribute.STRING) {
+                widths[i] = 2 + attr.getAttrSize();
+            } else {
+                widths[i] = 4;
+            }
+            width += widths[i];
+        }
+        rowWidth = width;
+        layout = TupleLayout.of(schema);
+        this.pageSize = pageSize;
+        tuplesPerPage = (pageSize - PAGE_HEADER) / rowWidth;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getRowWidth() {
+        return rowWidth;
+    }
+
+    public int getTuplesPerPage() {
+        return tuplesPerPage;
+    }
+
+    /**
+     * Writes the file header in front of the pages
+     **/
+    public void writeHeader(ByteBuffer buf) {
+        buf.putInt(MAGIC);
+        buf.putInt(pageSize);
+        buf.putInt(tuplesPerPage);
+        buf.putInt(rowWidth);
+    }
+
+    /**
+     * Reads the file header and checks that it is sound and matches the given
+     * * schema. Returns the format of the pages in the file or null if it is no
+     * * table file of the schema
+     **/
+    public static PageFormat readHeader(ByteBuffer buf, Schema schema) {
+        if (buf.getInt() != MAGIC) {
+            return null;
+        }
+        int pageSize = buf.getInt();
+        int tuplesPerPage = buf.getInt();
+        int rowWidth = buf.getInt();
+        if (pageSize <= PAGE_HEADER || tuplesPerPage <= 0 || rowWidth <= 0
+                || PAGE_HEADER + (long) tuplesPerPage * rowWidth > pageSize) {
+            return null;
+        }
+        PageFormat format = new PageFormat(schema, pageSize);
+        if (tuplesPerPage != format.tuplesPerPage || rowWidth != format.rowWidth) {
+            return null;
+        }
+        return format;
+    }
+
+    /**
+     * Checks whether the given table file is written in paged format
+     * * rather than as a stream of serialized tuples
+     **/
+    public static boolean isPageFile(String filename) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(filename))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException io) {
+            return false;
+        }
+    }
+
+    /**
+     * Encodes the tuples into a single page, the remaining bytes are zero filled
+     **/
+    public void encodePage(ArrayList<Tuple> tuples, ByteBuffer page) {
+        int start = page.position();
+        page.putInt(tuples.size());
+        for (Tuple tuple : tuples) {
+            for (int i = 0; i < types.length; ++i) {
+                if (types[i] == Attribute.INT) {
+                    page.putInt(tuple.getInt(i));
+                } else if (types[i] == Attribute.REAL) {
+                    page.putFloat(tuple.getFloat(i));
+                } else {
+                    byte[] bytes = stringBytes(tuple, i);
+                    page.putShort((short) bytes.length);
+                    page.put(bytes);
+                    page.position(page.position() + widths[i] - 2 - bytes.length);
+                }
+            }
+        }
+        while (page.position() < start + pageSize) {
+            page.put((byte) 0);
+        }
+    }
+
+    /**
+     * Checks that the tuple can be encoded, throws IllegalArgumentException
+     * * if one of its strings is longer than the attribute size
+     **/
+    public void checkRow(Tuple tuple) {
+        for (int i = 0; i < types.length; ++i) {
+            if (types[i] == Attribute.STRING) {
+                stringBytes(tuple, i);
+            }
+        }
+    }
+
+    private byte[] stringBytes(Tuple tuple, int i) {
+        String data = tuple.getString(i);
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > widths[i] - 2) {
+            throw new IllegalArgumentException("PageFormat: string longer than attribute size: " + data);
+        }
+        return bytes;
+    }
+
+    /**
+     * Decodes all the tuples of the page starting at the current position
+     * * into PrimitiveTuples and adds them to the output list
+     **/
+    public void decodePage(ByteBuffer page, ArrayList<Tuple> out) {
+        int start = page.position();
+        int numTuples = page.getInt();
+        for (int t = 0; t < numTuples; ++t) {
+            PrimitiveTuple tuple = new PrimitiveTuple(layout);
+            for (int i = 0; i < types.length; ++i) {
+                if (types[i] == Attribute.INT) {
+                    tuple.setInt(i, page.getInt());
+                } else if (types[i] == Attribute.REAL) {
+                    tuple.setFloat(i, page.getFloat());
+                } else {
+                    tuple.setString(i, decodeString(page, widths[i]));
+                }
+            }
+            out.add(tuple);
+        }
+        page.position(start + pageSize);
+    }
+
+    /**
+     * Decodes all the tuples of the page starting at the current position
+     * * straight into the columns of the batch, which must have room for them
+     **/
+    public void decodePage(ByteBuffer page, ColumnBatch out) {
+        int start = page.position();
+        int numTuples = page.getInt();
+        for (int t = 0; t < numTuples; ++t) {
+            int row = out.addRow();
+            for (int i = 0; i < types.length; ++i) {
+                if (types[i] == Attribute.INT) {
+                    out.intColumn(i)[row] = page.getInt();
+                } else if (types[i] == Attribute.REAL) {
+                    out.floatColumn(i)[row] = page.getFloat();
+                } else {
+                    out.stringColumn(i)[row] = decodeString(page, widths[i]);
+                }
+            }
+        }
+        page.position(start + pageSize);
+    }
+
+    /**
+     * Reads a string attribute and skips the rest of its slot
+     **/
+    private static String decodeString(ByteBuffer page, int width) {
+        int length = page.getShort();
+        int pos = page.position();
+        String value;
+        if (page.hasArray()) {
+            value = new String(page.array(), page.arrayOffset() + pos, length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            page.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        page.position(pos + width - 2);
+        return value;
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * PageWriter is a helper class that writes tuples of a base table into a file in the paged binary format
+ */
+
+package qp.utils;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+public class PageWriter {
+
+    final String filename;      // Filename to write to
+    final PageFormat format;    // Layout of the pages
+
+    ArrayList<Tuple> outPage;   // Tuples of the page being filled
+    ByteBuffer buffer;          // Encoding buffer of one page
+    int numPage = 0;            // Number of pages written
+    int numTuple = 0;           // Number of tuples added
+    FileChannel out;            // Output file channel
+
+    // filename: Filename of the output file to write to
+    // schema: Schema of the tuples, decides the layout of each row
+    // pagesize: Number of bytes per page
+    public PageWriter(String filename, Schema schema, int pagesize) {
+        this.filename = filename;
+        this.format = new PageFormat(schema, pagesize);
+    }
+
+    public int getNumPage() {
+        return numPage;
+    }
+
+    public int getNumTuple() {
+        return numTuple;
+    }
+
+    public String getFileName() {
+        return filename;
+    }
+
+    // Opens the file and writes the file header
+    public boolean open() {
+        if (format.getTuplesPerPage() < 1) {
+            System.out.printf("%s:page size too small for a row of %d bytes\n", filename, format.getRowWidth());
+            return false;
+        }
+        try {
+            out = new FileOutputStream(filename).getChannel();
+            ByteBuffer header = ByteBuffer.allocate(PageFormat.HEADER_SIZE);
+            format.writeHeader(header);
+            header.flip();
+            out.write(header);
+        } catch (IOException io) {
+            System.out.printf("%s:writing the table file error\n", filename);
+            return false;
+        }
+        outPage = new ArrayList<>(format.getTuplesPerPage());
+        buffer = ByteBuffer.allocate(format.getPageSize());
+        numPage = 0;
+        numTuple = 0;
+        return true;
+    }
+
+    // Supplies a tuple to the page writer, full pages are written immediately.
+    // Throws IllegalArgumentException for a tuple that does not fit a row.
+    public boolean next(Tuple nextTuple) {
+        format.checkRow(nextTuple);
+        outPage.add(nextTuple);
+        ++numTuple;
+        if (outPage.size() == format.getTuplesPerPage())
+            writePage();
+        return true;
+    }
+
+    // Helper method to encode and write a single page to the output file
+    private void writePage() {
+        try {
+            buffer.clear();
+            format.encodePage(outPage, buffer);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            outPage.clear();
+            ++numPage;
+        } catch (IOException io) {
+            System.out.printf("%s:writing the table file error\n", filename);
+            System.out.println(io);
+            System.exit(1);
+        }
+    }
+
+    // Flushes the last partial page (if any) and closes the file
+    public boolean close() {
+        if (!outPage.isEmpty()) writePage();
+        if (out != null) {
+            try {
+                out.close();
+                out = null;
+            } catch (IOException io) {
+                System.out.printf("%s:writing the table file error\n", filename);
+                System.out.println(io);
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,298 @@
+/**
+ * Selection condition compiled against a schema
+ **/
+
+package qp.utils;
+
+/**
+ * Predicate - a selection condition with its attribute indices and
+ * * constant resolved once, specialized on the type of the compared
+ * * attributes. A predicate filters a whole page at a time: it narrows
+ * * a list of row indices to the rows that satisfy it, so a conjunction
+ * * is evaluated by running its predicates over the same list.
+ */
+public abstract class Predicate {
+
+    final int exprtype;  // Comparison operator of the condition
+    final int lhsIndex;  // Index of the left hand side attribute
+
+    Predicate(int exprtype, int lhsIndex) {
+        this.exprtype = exprtype;
+        this.lhsIndex = lhsIndex;
+    }
+
+    /**
+     * Compiles the selection condition for tuples of the given schema
+     **/
+    public static Predicate compile(Condition con, Schema schema) {
+        int lhsIndex = schema.indexOf(con.getLhs());
+        int datatype = schema.typeOf(con.getLhs());
+        int exprtype = con.getExprType();
+        if (exprtype < Condition.LESSTHAN || exprtype > Condition.NOTEQUAL) {
+            System.out.println("Predicate: Incorrect condition operator");
+            System.exit(1);
+        }
+        if (con.getRhs() instanceof Attribute) {
+            int rhsIndex = schema.indexOf((Attribute) con.getRhs());
+            return new AttributePredicate(exprtype, lhsIndex, rhsIndex, datatype);
+        } else if (!(con.getRhs() instanceof String)) {
+            System.out.println("Predicate: Malformed condition");
+            System.exit(1);
+        }
+        String value = (String) con.getRhs();
+        if (datatype == Attribute.INT) {
+            return new IntPredicate(exprtype, lhsIndex, Integer.parseInt(value));
+        } else if (datatype == Attribute.REAL) {
+            return new FloatPredicate(exprtype, lhsIndex, Float.parseFloat(value));
+        } else {
+            return new StringPredicate(exprtype, lhsIndex, value);
+        }
+    }
+
+    /**
+     * Checks whether a single tuple satisfies the condition
+     **/
+    public abstract boolean eval(Tuple tuple);
+
+    /**
+     * Narrows the first n entries of sel, indices of tuples in the page,
+     * * to the tuples satisfying the condition. Returns the number kept.
+     **/
+    public abstract int filter(Batch batch, int[] sel, int n);
+
+    /**
+     * Same as above on a page stored as columns
+     **/
+    public abstract int filter(ColumnBatch vector, int[] sel, int n);
+
+    /**
+     * Whether the sign of a comparison satisfies the operator
+     **/
+    static boolean satisfies(int flag, int exprtype) {
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                return flag < 0;
+            case Condition.GREATERTHAN:
+                return flag > 0;
+            case Condition.LTOE:
+                return flag <= 0;
+            case Condition.GTOE:
+                return flag >= 0;
+            case Condition.EQUAL:
+                return flag == 0;
+            default:
+                return flag != 0;
+        }
+    }
+
+    /**
+     * Whether two REAL values satisfy the operator, compared as primitives
+     * * as the column filters do: -0.0 equals 0.0 and NaN satisfies only !=
+     **/
+    static boolean satisfies(float left, float right, int exprtype) {
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                return left < right;
+            case Condition.GREATERTHAN:
+                return left > right;
+            case Condition.LTOE:
+                return left <= right;
+            case Condition.GTOE:
+                return left >= right;
+            case Condition.EQUAL:
+                return left == right;
+            default:
+                return left != right;
+        }
+    }
+
+    /**
+     * INT attribute compared with a constant
+     **/
+    static class IntPredicate extends Predicate {
+        final int value;
+
+        IntPredicate(int exprtype, int lhsIndex, int value) {
+            super(exprtype, lhsIndex);
+            this.value = value;
+        }
+
+        public boolean eval(Tuple tuple) {
+            return satisfies(Integer.compare(tuple.getInt(lhsIndex), value), exprtype);
+        }
+
+        public int filter(Batch batch, int[] sel, int n) {
+            int count = 0;
+            for (int i = 0; i < n; ++i) {
+                if (eval(batch.get(sel[i]))) sel[count++] = sel[i];
+            }
+            return count;
+        }
+
+        /** One tight loop per operator so that it is not dispatched for every row **/
+        public int filter(ColumnBatch vector, int[] sel, int n) {
+            int[] col = vector.intColumn(lhsIndex);
+            int count = 0;
+            switch (exprtype) {
+                case Condition.LESSTHAN:
+                    for (int i = 0; i < n; ++i) if (col[sel[i]] < value) sel[count++] = sel[i];
+                    break;
+                case Condition.GREATERTHAN:
+                    for (int i = 0; i < n; ++i) if (col[sel[i]] > value) sel[count++] = sel[i];
+                    break;
+                case Condition.LTOE:
+                    for (int i = 0; i < n; ++i) if (col[sel[i]] <= value) sel[count++] = sel[i];
+                    break;
+                case Condition.GTOE:
+                    for (int i = 0; i < n; ++i) if (col[sel[i]] >= value) sel[count++] = sel[i];
+                    break;
+                case Condition.EQUAL:
+                    for (int i = 0; i < n; ++i) if (col[sel[i]] == value) sel[count++] = sel[i];
+                    break;
+                default:
+                    for (int i = 0; i < n; ++i) if (col[sel[i]] != value) sel[count++] = sel[i];
+            }
+            return count;
+        }
+    }
+
+    /**
+     * REAL attribute compared with a constant
+     **/
+    static class FloatPredicate extends Predicate {
+        final float value;
+
+        FloatPredicate(int exprtype, int lhsIndex, float value) {
+            super(exprtype, lhsIndex);
+            this.value = value;
+        }
+
+        public boolean eval(Tuple tuple) {
+            return satisfies(tuple.getFloat(lhsIndex), value, exprtype);
+        }
+
+        public int filter(Batch batch, int[] sel, int n) {
+            int count = 0;
+            for (int i = 0; i < n; ++i) {
+                if (eval(batch.get(sel[i]))) sel[count++] = sel[i];
+            }
+            return count;
+        }
+
+        public int filter(ColumnBatch vector, int[] sel, int n) {
+            float[] col = vector.floatColumn(lhsIndex);
+            int count = 0;
+            switch (exprtype) {
+                case Condition.LESSTHAN:
+                    for (int i = 0; i < n; ++i) if (col[sel[i]] < value) sel[count++] = sel[i];
+                    break;
+                case Condition.GREATERTHAN:
+                    for (int i = 0; i < n; ++i) if (col[sel[i]] > value) sel[count++] = sel[i];
+                    break;
+                case Condition.LTOE:
+                    for (int i = 0; i < n; ++i) if (col[sel[i]] <= value) sel[count++] = sel[i];
+                    break;
+                case Condition.GTOE:
+                    for (int i = 0; i < n; ++i) if (col[sel[i]] >= value) sel[count++] = sel[i];
+                    break;
+                case Condition.EQUAL:
+                    for (int i = 0; i < n; ++i) if (col[sel[i]] == value) sel[count++] = sel[i];
+                    break;
+                default:
+                    for (int i = 0; i < n; ++i) if (col[sel[i]] != value) sel[count++] = sel[i];
+            }
+            return count;
+        }
+    }
+
+    /**
+     * STRING attribute compared with a constant
+     **/
+    static class StringPredicate extends Predicate {
+        final String value;
+
+        StringPredicate(int exprtype, int lhsIndex, String value) {
+            super(exprtype, lhsIndex);
+            this.value = value;
+        }
+
+        public boolean eval(Tuple tuple) {
+            return satisfies(tuple.getString(lhsIndex).compareTo(value), exprtype);
+        }
+
+        public int filter(Batch batch, int[] sel, int n) {
+            int count = 0;
+            for (int i = 0; i < n; ++i) {
+                if (eval(batch.get(sel[i]))) sel[count++] = sel[i];
+            }
+            return count;
+        }
+
+        public int filter(ColumnBatch vector, int[] sel, int n) {
+            String[] col = vector.stringColumn(lhsIndex);
+            int count = 0;
+            for (int i = 0; i < n; ++i) {
+                if (satisfies(col[sel[i]].compareTo(value), exprtype)) sel[count++] = sel[i];
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Two attributes of the same tuple compared with each other
+     **/
+    static class AttributePredicate extends Predicate {
+        final int rhsIndex;  // Index of the right hand side attribute
+        final int datatype;  // Type of both attributes
+
+        AttributePredicate(int exprtype, int lhsIndex, int rhsIndex, int datatype) {
+            super(exprtype, lhsIndex);
+            this.rhsIndex = rhsIndex;
+            this.datatype = datatype;
+        }
+
+        public boolean eval(Tuple tuple) {
+            int flag;
+            if (datatype == Attribute.INT) {
+                flag = Integer.compare(tuple.getInt(lhsIndex), tuple.getInt(rhsIndex));
+            } else if (datatype == Attribute.REAL) {
+                return satisfies(tuple.getFloat(lhsIndex), tuple.getFloat(rhsIndex), exprtype);
+            } else {
+                flag = tuple.getString(lhsIndex).compareTo(tuple.getString(rhsIndex));
+            }
+            return satisfies(flag, exprtype);
+        }
+
+        public int filter(Batch batch, int[] sel, int n) {
+            int count = 0;
+            for (int i = 0; i < n; ++i) {
+                if (eval(batch.get(sel[i]))) sel[count++] = sel[i];
+            }
+            return count;
+        }
+
+        public int filter(ColumnBatch vector, int[] sel, int n) {
+            int count = 0;
+            if (datatype == Attribute.INT) {
+                int[] lcol = vector.intColumn(lhsIndex);
+                int[] rcol = vector.intColumn(rhsIndex);
+                for (int i = 0; i < n; ++i) {
+                    if (satisfies(Integer.compare(lcol[sel[i]], rcol[sel[i]]), exprtype)) sel[count++] = sel[i];
+                }
+            } else if (datatype == Attribute.REAL) {
+                float[] lcol = vector.floatColumn(lhsIndex);
+                float[] rcol = vector.floatColumn(rhsIndex);
+                for (int i = 0; i < n; ++i) {
+                    if (satisfies(lcol[sel[i]], rcol[sel[i]], exprtype)) sel[count++] = sel[i];
+                }
+            } else {
+                String[] lcol = vector.stringColumn(lhsIndex);
+                String[] rcol = vector.stringColumn(rhsIndex);
+                for (int i = 0; i < n; ++i) {
+                    if (satisfies(lcol[sel[i]].compareTo(rcol[sel[i]]), exprtype)) sel[count++] = sel[i];
+                }
+            }
+            return count;
+        }
+    }
+}
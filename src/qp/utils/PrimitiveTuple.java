@@ -0,0 +1,117 @@
+/**
+ * Tuple stored in primitive arrays
+ **/
+
+package qp.utils;
+
+import java.util.ArrayList;
+
+/**
+ * PrimitiveTuple - keeps INT and REAL values unboxed in int[] and float[]
+ * * slots given by its TupleLayout and strings by reference. The typed
+ * * accessors read the arrays directly, dataAt() boxes on demand so the
+ * * tuple can still be used wherever a plain Tuple is expected.
+ */
+public class PrimitiveTuple extends Tuple {
+
+    private static final long serialVersionUID = 5440553846730499118L;
+
+    final TupleLayout layout;
+    final int[] ints;
+    final float[] floats;
+    final String[] strings;
+
+    public PrimitiveTuple(TupleLayout layout) {
+        super(null);
+        this.layout = layout;
+        ints = new int[layout.numInts];
+        floats = new float[layout.numFloats];
+        strings = new String[layout.numStrings];
+    }
+
+    public TupleLayout getLayout() {
+        return layout;
+    }
+
+    public void setInt(int index, int value) {
+        ints[layout.slots[index]] = value;
+    }
+
+    public void setFloat(int index, float value) {
+        floats[layout.slots[index]] = value;
+    }
+
+    public void setString(int index, String value) {
+        strings[layout.slots[index]] = value;
+    }
+
+    /**
+     * Copies the attribute at srcIndex of any tuple into the attribute at index,
+     * * the attribute types of both are expected to be the same
+     **/
+    public void copyFrom(Tuple src, int srcIndex, int index) {
+        int type = layout.types[index];
+        if (type == Attribute.INT) {
+            setInt(index, src.getInt(srcIndex));
+        } else if (type == Attribute.REAL) {
+            setFloat(index, src.getFloat(srcIndex));
+        } else {
+            setString(index, src.getString(srcIndex));
+        }
+    }
+
+    @Override
+    public int getInt(int index) {
+        return ints[layout.slots[index]];
+    }
+
+    @Override
+    public float getFloat(int index) {
+        return floats[layout.slots[index]];
+    }
+
+    @Override
+    public String getString(int index) {
+        return strings[layout.slots[index]];
+    }
+
+    @Override
+    public Object dataAt(int index) {
+        int type = layout.types[index];
+        if (type == Attribute.INT) {
+            return ints[layout.slots[index]];
+        } else if (type == Attribute.REAL) {
+            return floats[layout.slots[index]];
+        } else {
+            return strings[layout.slots[index]];
+        }
+    }
+
+    @Override
+    public ArrayList<Object> data() {
+        ArrayList<Object> boxed = new ArrayList<>(layout.types.length);
+        for (int i = 0; i < layout.types.length; ++i) {
+            boxed.add(dataAt(i));
+        }
+        return boxed;
+    }
+
+    /**
+     * Joining two primitive tuples concatenates their arrays
+     **/
+    @Override
+    public Tuple joinWith(Tuple right) {
+        if (!(right instanceof PrimitiveTuple)) {
+            return super.joinWith(right);
+        }
+        PrimitiveTuple r = (PrimitiveTuple) right;
+        PrimitiveTuple joined = new PrimitiveTuple(layout.joinWith(r.layout));
+        System.arraycopy(ints, 0, joined.ints, 0, ints.length);
+        System.arraycopy(r.ints, 0, joined.ints, ints.length, r.ints.length);
+        System.arraycopy(floats, 0, joined.floats, 0, floats.length);
+        System.arraycopy(r.floats, 0, joined.floats, floats.length, r.floats.length);
+        System.arraycopy(strings, 0, joined.strings, 0, strings.length);
+        System.arraycopy(r.strings, 0, joined.strings, strings.length, r.strings.length);
+        return joined;
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Choice of the page to evict from the buffer pool
+ **/
+
+package qp.utils;
+
+/**
+ * ReplacementPolicy - is told which frames of the buffer pool receive a
+ * * page, are used again and leave the pool, and picks the frame whose page
+ * * is evicted when the pool needs one. Only frames that are not pinned may
+ * * be picked. The pool calls the policy while holding its lock, so a policy
+ * * needs no synchronization of its own.
+ */
+public interface ReplacementPolicy {
+
+    String getName();
+
+    /** The frame received a new page, which has just been pinned **/
+    void admit(BufferPool.Frame frame);
+
+    /** The page of the frame was pinned again **/
+    void access(BufferPool.Frame frame);
+
+    /** The frame no longer holds a page of the pool **/
+    void remove(BufferPool.Frame frame);
+
+    /** The frame to evict, null if every frame is pinned **/
+    BufferPool.Frame victim();
+
+    /**
+     * The policy of the given name, "lru", "clock" or "lruk" optionally
+     * * followed by K as in "lruk:3", null if there is no such policy
+     **/
+    static ReplacementPolicy forName(String name) {
+        if (name.equals("lru")) {
+            return new LRUPolicy();
+        }
+        if (name.equals("clock")) {
+            return new ClockPolicy();
+        }
+        if (name.equals("lruk")) {
+            return new LRUKPolicy(2);
+        }
+        if (name.startsWith("lruk:")) {
+            try {
+                int k = Integer.parseInt(name.substring("lruk:".length()));
+                if (k >= 1) {
+                    return new LRUKPolicy(k);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+}
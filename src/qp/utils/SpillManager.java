@@ -0,0 +1,320 @@
+/**
+ * Allocation and cleanup of the temporary files of a query
+ **/
+
+package qp.utils;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SpillManager - hands out the temporary files of the operators of one
+ * * query. The files live in a directory of their own, created under the
+ * * spill directory when the first file is allocated and named after the
+ * * process, so concurrent queries never share a file. The bytes written
+ * * are charged to the operator that allocated the file, and the bytes on
+ * * disk of the query may not exceed the quota: a write past it fails with
+ * * an IOException, which the operator reports as any other I/O error.
+ * * Everything still on disk is deleted by close(), or when the JVM exits.
+ * * Each directory holds a lock file locked while its query runs; the
+ * * operating system drops the lock when the process dies, so directories
+ * * whose lock can be taken were left behind and are removed the next time
+ * * a spill directory is created.
+ */
+public class SpillManager {
+
+    static String directory = System.getProperty("java.io.tmpdir");  // Where the query directories are created
+    static long quota = 0;                     // Bytes a query may keep on disk, 0 for no limit
+
+    static final String DIR_PREFIX = "qp-spill-";  // Followed by the process id
+    static final String LOCK_FILE = ".lock";   // Locked by the query owning the directory
+    static final long LOCK_GRACE = 60000;      // Milliseconds a new directory may go without a lock file
+    static SpillManager current;               // Manager of the running query
+    static final Map<String, Spill> spills = new ConcurrentHashMap<>();  // Live files of all queries by path
+    static final ArrayList<SpillManager> open = new ArrayList<>();      // Managers not yet closed
+    static boolean hooked = false;             // Whether the shutdown hook is registered
+
+    final String name;                         // Name of the query, for reports
+    File dir;                                  // Directory of the files, null until the first allocation
+    FileChannel lockChannel;                   // Channel of the lock file of dir
+    FileLock lock;                             // Held on the lock file until close()
+    boolean closed;                            // Whether close() deleted the files
+    final AtomicInteger filenum = new AtomicInteger();  // Number of files allocated so far
+    final AtomicLong used = new AtomicLong();  // Bytes on disk now
+    final AtomicLong peak = new AtomicLong();  // Most bytes on disk at once
+    final AtomicLong total = new AtomicLong(); // Bytes written, also of deleted files
+    final Map<String, AtomicLong> byOperator = new ConcurrentHashMap<>();  // Bytes written per owner
+
+    SpillManager(String name) {
+        this.name = name;
+    }
+
+    public static void setDirectory(String dirname) {
+        directory = dirname;
+    }
+
+    public static String getDirectory() {
+        return directory;
+    }
+
+    /** Bytes a query may keep on disk, 0 lifts the limit **/
+    public static void setQuota(long bytes) {
+        quota = Math.max(0, bytes);
+    }
+
+    public static long getQuota() {
+        return quota;
+    }
+
+    /**
+     * Starts a new query, the files allocated from now on belong to it
+     **/
+    public static synchronized SpillManager begin(String name) {
+        current = new SpillManager(name);
+        synchronized (open) {
+            open.add(current);
+        }
+        if (!hooked) {
+            Runtime.getRuntime().addShutdownHook(new Thread(SpillManager::closeAll, "SpillManager-cleanup"));
+            hooked = true;
+        }
+        return current;
+    }
+
+    /** The manager of the running query, one is started if there is none **/
+    public static synchronized SpillManager current() {
+        if (current == null || current.closed) {
+            return begin("query");
+        }
+        return current;
+    }
+
+    /**
+     * A new temporary file of the running query, charged to the owner.
+     * * Exits if the spill directory cannot be created.
+     **/
+    public static String allocate(String owner) {
+        return current().newFile(owner);
+    }
+
+    /** Deletes a file allocated by any manager, other files are left alone **/
+    public static void delete(String path) {
+        Spill spill = spills.remove(path);
+        if (spill != null) {
+            spill.manager.used.addAndGet(-spill.bytes.get());
+            new File(path).delete();
+        }
+    }
+
+    /**
+     * Charges the bytes written to out to the file at the path, if the
+     * * file was allocated here
+     **/
+    static OutputStream track(String path, OutputStream out) {
+        Spill spill = spills.get(path);
+        return spill == null ? out : new Charged(out, spill);
+    }
+
+    private synchronized String newFile(String owner) {
+        if (dir == null) {
+            try {
+                File base = new File(directory);
+                base.mkdirs();
+                removeAbandoned(base);
+                dir = Files.createTempDirectory(base.toPath(), DIR_PREFIX + processId() + "-").toFile();
+                lockChannel = new RandomAccessFile(new File(dir, LOCK_FILE), "rw").getChannel();
+                lock = lockChannel.lock();
+            } catch (IOException | SecurityException e) {
+                System.out.println("SpillManager: cannot create a spill directory in " + directory);
+                System.exit(1);
+            }
+        }
+        String path = new File(dir, owner + "-" + filenum.getAndIncrement()).getPath();
+        spills.put(path, new Spill(this, owner));
+        return path;
+    }
+
+    /** The id of the process as the JVM names itself, pid@host **/
+    private static String processId() {
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        int at = name.indexOf('@');
+        return at > 0 ? name.substring(0, at) : "0";
+    }
+
+    /** Removes the spill directories of queries that are gone **/
+    private static void removeAbandoned(File base) {
+        File[] dirs = base.listFiles((d, n) -> n.startsWith(DIR_PREFIX));
+        if (dirs == null) {
+            return;
+        }
+        for (File d : dirs) {
+            if (isAbandoned(d)) {
+                removeDirectory(d);
+            }
+        }
+    }
+
+    /**
+     * Whether no query holds the lock of the directory. A directory without
+     * * a lock file is being created, unless it is older than the grace time.
+     **/
+    private static boolean isAbandoned(File d) {
+        File lockfile = new File(d, LOCK_FILE);
+        if (!lockfile.exists()) {
+            return System.currentTimeMillis() - d.lastModified() > LOCK_GRACE;
+        }
+        try (FileChannel channel = new RandomAccessFile(lockfile, "rw").getChannel()) {
+            FileLock held = channel.tryLock();
+            if (held == null) {
+                return false;
+            }
+            held.release();
+            return true;
+        } catch (OverlappingFileLockException e) {
+            return false;       // Locked by a query of this process
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void removeDirectory(File d) {
+        File[] files = d.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        d.delete();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Bytes written to the files of the query, also of those deleted since **/
+    public long getBytesWritten() {
+        return total.get();
+    }
+
+    public long getBytesInUse() {
+        return used.get();
+    }
+
+    public long getPeakBytes() {
+        return peak.get();
+    }
+
+    /** Bytes written by each owner, in order of the owner names **/
+    public Map<String, Long> getBytesByOperator() {
+        TreeMap<String, Long> result = new TreeMap<>();
+        byOperator.forEach((owner, bytes) -> result.put(owner, bytes.get()));
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Deletes the files of the query still on disk and its directory
+     **/
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Map.Entry<String, Spill> entry : spills.entrySet()) {
+            if (entry.getValue().manager == this) {
+                delete(entry.getKey());
+            }
+        }
+        if (dir != null) {
+            try {
+                lock.release();
+                lockChannel.close();
+            } catch (IOException e) {
+                // The directory goes anyway
+            }
+            removeDirectory(dir);
+        }
+        synchronized (open) {
+            open.remove(this);
+        }
+    }
+
+    /** Closes every manager, run when the JVM exits **/
+    static void closeAll() {
+        ArrayList<SpillManager> managers;
+        synchronized (open) {
+            managers = new ArrayList<>(open);
+        }
+        for (SpillManager manager : managers) {
+            manager.close();
+        }
+    }
+
+    /**
+     * Charges bytes written to a file to its query and owner, refusing
+     * * those that would take the query past the quota
+     **/
+    private void charge(Spill spill, int len) throws IOException {
+        long now = used.addAndGet(len);
+        if (quota > 0 && now > quota) {
+            used.addAndGet(-len);
+            throw new IOException("spill quota of " + quota + " bytes exceeded");
+        }
+        peak.accumulateAndGet(now, Math::max);
+        total.addAndGet(len);
+        spill.bytes.addAndGet(len);
+        byOperator.computeIfAbsent(spill.owner, o -> new AtomicLong()).addAndGet(len);
+    }
+
+    /**
+     * A file on disk with its query and owner
+     **/
+    static class Spill {
+        final SpillManager manager;
+        final String owner;
+        final AtomicLong bytes = new AtomicLong();  // Bytes written to the file
+
+        Spill(SpillManager manager, String owner) {
+            this.manager = manager;
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * Charges the bytes passing through it to a file
+     **/
+    static class Charged extends FilterOutputStream {
+
+        final Spill spill;
+
+        Charged(OutputStream out, Spill spill) {
+            super(out);
+            this.spill = spill;
+        }
+
+        public void write(int b) throws IOException {
+            spill.manager.charge(spill, 1);
+            out.write(b);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            spill.manager.charge(spill, len);
+            out.write(b, off, len);
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+/**
+ * Streams of the temporary files written by the operators
+ **/
+
+package qp.utils;
+
+import java.io.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SpillStreams - opens the object streams of temporary files through the
+ * * codec in use, and counts the bytes serialized into them (logical) and
+ * * the bytes that reached the disk after compression (written). The ratio
+ * * of the two tells whether compressing spills is worth its CPU time.
+ */
+public class SpillStreams {
+
+    static Codec codec = Codec.NONE;  // Codec of the files written from now on
+
+    static final int BUFFER_SIZE = 64 * 1024;  // Bytes buffered between the file and the codec
+
+    static final AtomicLong logicalBytes = new AtomicLong();  // Bytes serialized since the last reset
+    static final AtomicLong writtenBytes = new AtomicLong();  // Bytes written to disk since the last reset
+
+    public static void setCodec(Codec c) {
+        codec = c;
+    }
+
+    public static Codec getCodec() {
+        return codec;
+    }
+
+    public static long getLogicalBytes() {
+        return logicalBytes.get();
+    }
+
+    public static long getWrittenBytes() {
+        return writtenBytes.get();
+    }
+
+    public static void resetByteCounts() {
+        logicalBytes.set(0);
+        writtenBytes.set(0);
+    }
+
+    /**
+     * Opens the file for writing pages with the codec in use
+     **/
+    public static ObjectOutputStream openOutput(String filename) throws IOException {
+        OutputStream file = new BufferedOutputStream(new FileOutputStream(filename), BUFFER_SIZE);
+        file = new Counting(SpillManager.track(filename, file), writtenBytes);
+        return new ObjectOutputStream(new Counting(codec.compress(file), logicalBytes));
+    }
+
+    public static ObjectOutputStream openOutput(File file) throws IOException {
+        return openOutput(file.getPath());
+    }
+
+    /**
+     * Opens a file written by openOutput for reading its pages
+     **/
+    public static ObjectInputStream openInput(String filename) throws IOException {
+        InputStream file = new BufferedInputStream(new FileInputStream(filename), BUFFER_SIZE);
+        return new ObjectInputStream(codec.decompress(file));
+    }
+
+    public static ObjectInputStream openInput(File file) throws IOException {
+        return openInput(file.getPath());
+    }
+
+    /**
+     * Opens the file for writing pages encoded one by one by encodePage
+     **/
+    public static OutputStream openPages(String filename) throws IOException {
+        OutputStream file = new BufferedOutputStream(new FileOutputStream(filename), BUFFER_SIZE);
+        return new Counting(SpillManager.track(filename, file), writtenBytes);
+    }
+
+    /**
+     * The page serialized and compressed on its own, so that it can be
+     * * read back without reading the pages written before it
+     **/
+    public static byte[] encodePage(Batch page) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(new Counting(codec.compress(bytes), logicalBytes))) {
+            out.writeObject(page);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static Batch decodePage(byte[] bytes) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(codec.decompress(new ByteArrayInputStream(bytes)))) {
+            return (Batch) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("no page in the bytes", e);
+        }
+    }
+
+    /**
+     * Adds the bytes passing through it to a counter
+     **/
+    static class Counting extends FilterOutputStream {
+
+        final AtomicLong counter;
+
+        Counting(OutputStream out, AtomicLong counter) {
+            super(out);
+            this.counter = counter;
+        }
+
+        public void write(int b) throws IOException {
+            out.write(b);
+            counter.incrementAndGet();
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            counter.addAndGet(len);
+        }
+    }
+
+}
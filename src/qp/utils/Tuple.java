@@ -12,6 +12,9 @@ import java.io.*;
  */
 public class Tuple implements Serializable {
 
+    /** Kept fixed so that existing table files stay readable as methods are added **/
+    private static final long serialVersionUID = 1928781161746223552L;
+
     public ArrayList<Object> _data;
 
     public Tuple(ArrayList<Object> d) {
@@ -29,6 +32,21 @@ public class Tuple implements Serializable {
         return _data.get(index);
     }
 
+    /**
+     * Typed accessors, PrimitiveTuple reads these without boxing
+     **/
+    public int getInt(int index) {
+        return (Integer) dataAt(index);
+    }
+
+    public float getFloat(int index) {
+        return (Float) dataAt(index);
+    }
+
+    public String getString(int index) {
+        return (String) dataAt(index);
+    }
+
     /**
      * Checks whether the join condition is satisfied or not with one condition
      * * before performing actual join operation
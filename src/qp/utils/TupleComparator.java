@@ -0,0 +1,82 @@
+/**
+ * Type specialized comparison of tuples on a list of attributes
+ **/
+
+package qp.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+
+/**
+ * TupleComparator - looks up the types of the compared attributes once
+ * * when an operator opens instead of dispatching on instanceof for every
+ * * field of every comparison, and reads the values through the typed
+ * * accessors so that PrimitiveTuples are compared without boxing
+ */
+public class TupleComparator implements Comparator<Tuple> {
+
+    final int[] types;       // Type of each compared attribute
+    final int[] leftindex;   // Index of each compared attribute in the left tuple
+    final int[] rightindex;  // Index of each compared attribute in the right tuple
+
+    /**
+     * Compares tuples of the same schema on the given attributes, in order
+     **/
+    public TupleComparator(Schema schema, ArrayList<Integer> index) {
+        this(schema, index, index);
+    }
+
+    /**
+     * Compares tuples of different schemas, e.g. on join attributes.
+     * * The types are taken from the left schema.
+     **/
+    public TupleComparator(Schema leftschema, ArrayList<Integer> leftindex, ArrayList<Integer> rightindex) {
+        if (leftindex.size() != rightindex.size()) {
+            System.out.println("TupleComparator: Unknown comparision of the tuples");
+            System.exit(1);
+        }
+        int num = leftindex.size();
+        types = new int[num];
+        this.leftindex = new int[num];
+        this.rightindex = new int[num];
+        for (int i = 0; i < num; ++i) {
+            this.leftindex[i] = leftindex.get(i);
+            this.rightindex[i] = rightindex.get(i);
+            types[i] = leftschema.typeOf(this.leftindex[i]);
+        }
+    }
+
+    @Override
+    public int compare(Tuple left, Tuple right) {
+        for (int i = 0; i < types.length; ++i) {
+            int flag;
+            if (types[i] == Attribute.INT) {
+                flag = Integer.compare(left.getInt(leftindex[i]), right.getInt(rightindex[i]));
+            } else if (types[i] == Attribute.REAL) {
+                flag = Float.compare(left.getFloat(leftindex[i]), right.getFloat(rightindex[i]));
+            } else {
+                flag = left.getString(leftindex[i]).compareTo(right.getString(rightindex[i]));
+            }
+            if (flag != 0) {
+                return flag;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Checks whether the join condition is satisfied, i.e. all attributes are equal
+     **/
+    public boolean equal(Tuple left, Tuple right) {
+        for (int i = 0; i < types.length; ++i) {
+            if (types[i] == Attribute.INT) {
+                if (left.getInt(leftindex[i]) != right.getInt(rightindex[i])) return false;
+            } else if (types[i] == Attribute.REAL) {
+                if (Float.compare(left.getFloat(leftindex[i]), right.getFloat(rightindex[i])) != 0) return false;
+            } else {
+                if (!left.getString(leftindex[i]).equals(right.getString(rightindex[i]))) return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Physical layout of a PrimitiveTuple derived from a schema
+ **/
+
+package qp.utils;
+
+import java.io.Serializable;
+
+/**
+ * Maps every attribute of a schema to a slot in the int, float or
+ * * String array of a PrimitiveTuple. A layout is computed once per
+ * * operator and shared by all the tuples it produces.
+ **/
+public class TupleLayout implements Serializable {
+
+    private static final long serialVersionUID = -8279870807759867233L;
+
+    final int[] types;     // Type of each attribute
+    final int[] slots;     // Index of each attribute in the array of its type
+    final int numInts;     // Number of INT attributes
+    final int numFloats;   // Number of REAL attributes
+    final int numStrings;  // Number of STRING attributes
+
+    /** Layout of the last tuple joined with, reused while the right side keeps its layout **/
+    transient JoinedLayout lastJoin;
+
+    private TupleLayout(int[] types) {
+        this.types = types;
+        slots = new int[types.length];
+        int ints = 0, floats = 0, strings = 0;
+        for (int i = 0; i < types.length; ++i) {
+            if (types[i] == Attribute.INT) {
+                slots[i] = ints++;
+            } else if (types[i] == Attribute.REAL) {
+                slots[i] = floats++;
+            } else {
+                slots[i] = strings++;
+            }
+        }
+        numInts = ints;
+        numFloats = floats;
+        numStrings = strings;
+    }
+
+    public static TupleLayout of(Schema schema) {
+        int[] types = new int[schema.getNumCols()];
+        for (int i = 0; i < types.length; ++i) {
+            types[i] = schema.typeOf(i);
+        }
+        return new TupleLayout(types);
+    }
+
+    public int getNumCols() {
+        return types.length;
+    }
+
+    public int typeOf(int index) {
+        return types[index];
+    }
+
+    public int slotOf(int index) {
+        return slots[index];
+    }
+
+    /**
+     * Layout of the tuples resulting from joining with the given right layout
+     **/
+    public TupleLayout joinWith(TupleLayout right) {
+        JoinedLayout last = lastJoin;
+        if (last != null && last.right == right) {
+            return last.joined;
+        }
+        int[] newTypes = new int[types.length + right.types.length];
+        System.arraycopy(types, 0, newTypes, 0, types.length);
+        System.arraycopy(right.types, 0, newTypes, types.length, right.types.length);
+        TupleLayout joined = new TupleLayout(newTypes);
+        lastJoin = new JoinedLayout(right, joined);
+        return joined;
+    }
+
+    /**
+     * Pairs a right layout with the joined layout, read and written as one reference
+     * * so that concurrent joins never see a joined layout of another right layout
+     **/
+    static class JoinedLayout {
+        final TupleLayout right;
+        final TupleLayout joined;
+
+        JoinedLayout(TupleLayout right, TupleLayout joined) {
+            this.right = right;
+            this.joined = joined;
+        }
+    }
+}
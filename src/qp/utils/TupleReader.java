@@ -8,6 +8,7 @@ import qp.utils.*;
 
 import java.util.*;
 import java.io.*;
+import java.util.concurrent.Future;
 
 public class TupleReader {
 
@@ -21,6 +22,7 @@ public class TupleReader {
     int numTuple = 0;                        // Number of tuples read
     Tuple peekTuple = null;            // The next tuple of the batch (if peeked)
     ObjectInputStream in;                // Input file stream
+    Future<Batch> nextRead;            // Batch being read ahead in asynchronous mode, null if none
 
     // filename: Filename of the output file to read from
     // batchsize: Number of tuples per batch
@@ -54,7 +56,7 @@ public class TupleReader {
     // Opens the input file and initializes the class for reading
     public boolean open() {
         try {
-            in = new ObjectInputStream(new FileInputStream(filename));
+            in = SpillStreams.openInput(filename);
         } catch (IOException io) {
             System.out.printf("%s:reading the temporary file error", filename);
             return false;
@@ -64,6 +66,7 @@ public class TupleReader {
         numTuple = 0;
         readCursor = 0;
         completed = false;
+        nextRead = AsyncIO.isEnabled() ? AsyncIO.submit(this::readBatch) : null;
         return true;
     }
 
@@ -79,20 +82,21 @@ public class TupleReader {
         if (inBatch == null) {
             try {
                 while (true) {
-                    inBatch = (Batch) in.readObject();
+                    inBatch = nextBatch();
+                    if (inBatch == null) {
+                        // No more batch in the file
+                        peekTuple = null;
+                        completed = true;
+                        this.close();
+                        return null;
+                    }
                     numBatch++;
                     if (inBatch.size() > 0) break;
                 }
-            } catch (EOFException e) {
-                // No more batch in the file
-                peekTuple = null;
-                completed = true;
-                this.close();
-                return null;
             } catch (ClassNotFoundException c) {
                 System.out.printf("%s:Some error in deserialization\n", filename);
                 System.exit(1);
-            } catch (IOException io) {
+            } catch (Exception io) {
                 System.out.printf("%s:temporary file reading error\n", filename);
                 System.exit(1);
             }
@@ -111,6 +115,23 @@ public class TupleReader {
         return peekTuple;
     }
 
+    // Returns the batch read ahead if there is one, otherwise reads it now.
+    // In asynchronous mode the following batch is then read in the background
+    private Batch nextBatch() throws Exception {
+        Batch batch = (nextRead != null) ? AsyncIO.await(nextRead) : readBatch();
+        nextRead = (batch != null && AsyncIO.isEnabled()) ? AsyncIO.submit(this::readBatch) : null;
+        return batch;
+    }
+
+    // Reads the next batch from the file, null at the end of the file
+    private Batch readBatch() throws IOException, ClassNotFoundException {
+        try {
+            return (Batch) in.readObject();
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
     // Returns the next tuple and advances the stream
     public Tuple next() {
         // Returns the next tuple, already computed by peek()
@@ -130,6 +151,15 @@ public class TupleReader {
         inBatch = null;        // deallocate buffer
         peekTuple = null;
         completed = true;
+        if (nextRead != null) {
+            // The stream may only be closed once the read ahead is over
+            try {
+                AsyncIO.await(nextRead);
+            } catch (Exception e) {
+                // The batch is no longer needed
+            }
+            nextRead = null;
+        }
         if (in != null) {
             try {
                 in.close();
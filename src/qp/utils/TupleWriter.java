@@ -8,22 +8,35 @@ import qp.utils.*;
 
 import java.util.*;
 import java.io.*;
+import java.util.concurrent.Future;
 
 public class TupleWriter {
 
     final String filename;    // Filename to write to
     final int batchsize;        // Number of tuples per out batch
+    final boolean indexed;      // Whether each batch is encoded on its own at a recorded offset
 
     Batch outBatch;
     int numBatch = 0;                        // Number of batch written
     int numTuple = 0;                        // Number of tuples added
     ObjectOutputStream out;            // Output file stream
+    OutputStream pages;                // Output file of an indexed writer
+    long position;                     // Bytes written to pages so far
+    ArrayList<Long> offsets;           // Offset of each batch written to pages
+    Future<Batch> pendingWrite;        // Batch being written in asynchronous mode, null if none
 
     // filename: Filename of the output file to write to
     // batchsize: Number of tuples per batch
     public TupleWriter(String filename, int batchsize) {
+        this(filename, batchsize, false);
+    }
+
+    // indexed: whether to record where each batch starts, so the file can be read
+    // from any batch on with an IndexedPageReader instead of a TupleReader
+    public TupleWriter(String filename, int batchsize, boolean indexed) {
         this.filename = filename;
         this.batchsize = batchsize;
+        this.indexed = indexed;
     }
 
     public int getNumBatch() {
@@ -42,15 +55,34 @@ public class TupleWriter {
         return filename;
     }
 
+    // Offsets of the batches of an indexed file followed by its length, null if not indexed
+    // Only complete once the writer is closed
+    public long[] getPageOffsets() {
+        if (offsets == null) return null;
+        long[] result = new long[offsets.size() + 1];
+        for (int i = 0; i < offsets.size(); ++i) {
+            result[i] = offsets.get(i);
+        }
+        result[offsets.size()] = position;
+        return result;
+    }
+
     // Opens the file and initializes the class for writing
     public boolean open() {
         try {
-            out = new ObjectOutputStream(new FileOutputStream(filename));
+            if (indexed) {
+                pages = SpillStreams.openPages(filename);
+                offsets = new ArrayList<>();
+                position = 0;
+            } else {
+                out = SpillStreams.openOutput(filename);
+            }
         } catch (IOException io) {
             System.out.printf("%s:writing the temporary file error", filename);
             return false;
         }
         outBatch = null;
+        pendingWrite = null;
         numBatch = 0;
         numTuple = 0;
         return true;
@@ -70,11 +102,18 @@ public class TupleWriter {
     }
 
     // Helper method to write a single batch to the output file
+    // In asynchronous mode the batch is written in the background while the next one is filled
     private void writeBatch() {
+        Batch batch = outBatch;
+        outBatch = null;            // deallocate output buffer --> saves memory
+        ++numBatch;
+        awaitWrite();               // at most one batch is written in the background
+        if (AsyncIO.isEnabled()) {
+            pendingWrite = AsyncIO.submit(() -> write(batch));
+            return;
+        }
         try {
-            out.writeObject(outBatch);
-            outBatch = null;        // deallocate output buffer --> saves memory
-            ++numBatch;
+            write(batch);
         } catch (IOException io) {
             System.out.printf("%s:writing the temporary file error", filename);
             System.out.println(io);
@@ -82,13 +121,42 @@ public class TupleWriter {
         }
     }
 
+    private Batch write(Batch batch) throws IOException {
+        if (indexed) {
+            byte[] bytes = SpillStreams.encodePage(batch);
+            offsets.add(position);
+            pages.write(bytes);
+            position += bytes.length;
+            return batch;
+        }
+        out.writeObject(batch);
+        out.reset();                // forget the written tuples, otherwise the stream keeps them all reachable
+        return batch;
+    }
+
+    // Waits until the batch written in the background, if any, is in the file
+    private void awaitWrite() {
+        if (pendingWrite == null) return;
+        try {
+            AsyncIO.await(pendingWrite);
+        } catch (Exception io) {
+            System.out.printf("%s:writing the temporary file error", filename);
+            System.out.println(io);
+            System.exit(1);
+        }
+        pendingWrite = null;
+    }
+
     // Signals the TupleWriter to finish writing all the tuples to the file
     public boolean close() {
         if (outBatch != null) writeBatch();  // Unfilled batch (if any) will be flushed to the file
-        if (out != null) {
+        awaitWrite();
+        if (out != null || pages != null) {
             try {
-                out.close();
+                if (out != null) out.close();
+                if (pages != null) pages.close();
                 out = null;
+                pages = null;
             } catch (IOException io) {
                 System.out.printf("%s:writing the temporary file error", filename);
                 System.out.println(io);